@@ -0,0 +1,86 @@
+package com.cswiki.rpc.benchmark;
+
+import com.cswiki.codec.RpcDecoder;
+import com.cswiki.codec.RpcEncoder;
+import com.cswiki.entity.RpcRequest;
+import com.cswiki.serializer.Serializers;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * RpcEncoder/RpcDecoder 的基准测试（通过 EmbeddedChannel 驱动，不经过网络）
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CodecBenchmark {
+
+    @Param({"protostuff", "kryo"})
+    private String serializer;
+
+    @Param({"16", "1024", "16384"})
+    private int payloadSize;
+
+    // 压缩阈值（0 表示不压缩）
+    @Param({"0", "1024"})
+    private int compressThreshold;
+
+    private RpcRequest rpcRequest;
+
+    private EmbeddedChannel encoderChannel;
+
+    private EmbeddedChannel decoderChannel;
+
+    // 预先编码好的完整帧，解码时重复读取
+    private ByteBuf frame;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        rpcRequest = Payloads.request(payloadSize, Serializers.get(serializer).getId());
+        rpcRequest.setCompressThreshold(compressThreshold);
+        encoderChannel = new EmbeddedChannel(new RpcEncoder());
+        decoderChannel = new EmbeddedChannel(new RpcDecoder());
+        encoderChannel.writeOutbound(rpcRequest);
+        frame = encoderChannel.readOutbound();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        frame.release();
+        encoderChannel.finishAndReleaseAll();
+        decoderChannel.finishAndReleaseAll();
+    }
+
+    @Benchmark
+    public int encode() {
+        encoderChannel.writeOutbound(rpcRequest);
+        ByteBuf out = encoderChannel.readOutbound();
+        int length = out.readableBytes();
+        out.release();
+        return length;
+    }
+
+    @Benchmark
+    public Object decode() {
+        decoderChannel.writeInbound(frame.retainedDuplicate());
+        return decoderChannel.readInbound();
+    }
+}
@@ -0,0 +1,10 @@
+package com.cswiki.rpc.benchmark;
+
+/**
+ * 端到端基准测试的服务接口
+ */
+public interface EchoService {
+
+    String echo(String message);
+
+}
@@ -0,0 +1,15 @@
+package com.cswiki.rpc.benchmark;
+
+import com.cswiki.rpc.server.RpcService;
+
+/**
+ * 原样返回参数，基准测试测得的就是框架本身的开销
+ */
+@RpcService(interfaceName = EchoService.class)
+public class EchoServiceImpl implements EchoService {
+
+    @Override
+    public String echo(String message) {
+        return message;
+    }
+}
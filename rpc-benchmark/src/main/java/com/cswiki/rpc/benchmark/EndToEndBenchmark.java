@@ -0,0 +1,116 @@
+package com.cswiki.rpc.benchmark;
+
+import com.cswiki.rpc.client.RpcOptions;
+import com.cswiki.rpc.client.RpcProxy;
+import com.cswiki.rpc.server.RpcServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 端到端调用的基准测试：进程内启动 RpcServer，RpcProxy 通过回环地址直连（不使用 Zookeeper）
+ * 分配量包括客户端和服务端两侧
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EndToEndBenchmark {
+
+    @Param({"protostuff", "kryo"})
+    private String serializer;
+
+    @Param({"16", "1024", "16384"})
+    private int payloadSize;
+
+    private AnnotationConfigApplicationContext context;
+
+    private RpcServer rpcServer;
+
+    private RpcProxy rpcProxy;
+
+    private EchoService echoService;
+
+    private String message;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        String serviceAddress = "127.0.0.1:" + freePort();
+        rpcServer = new RpcServer(serviceAddress);
+        context = new AnnotationConfigApplicationContext();
+        context.register(EchoServiceImpl.class);
+        context.registerBean(RpcServer.class, () -> rpcServer);
+        // RpcServer 在初始化时阻塞到服务器关闭，因此在单独的线程中启动
+        Thread serverThread = new Thread(context::refresh, "rpc-benchmark-server");
+        serverThread.setDaemon(true);
+        serverThread.start();
+
+        RpcOptions options = new RpcOptions();
+        options.setSerializer(serializer);
+        rpcProxy = new RpcProxy(serviceAddress);
+        echoService = rpcProxy.create(EchoService.class, "", options);
+        message = Payloads.text(payloadSize);
+        awaitServer();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        rpcProxy.close();
+        rpcServer.close();
+        context.close();
+    }
+
+    @Benchmark
+    public String call() {
+        return echoService.echo(message);
+    }
+
+    @Benchmark
+    @Threads(16)
+    public String callConcurrently() {
+        return echoService.echo(message);
+    }
+
+    /**
+     * 等待服务器启动完成（能够正常调用为止）
+     * @throws InterruptedException
+     */
+    private void awaitServer() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (true) {
+            try {
+                echoService.echo(message);
+                return;
+            } catch (RuntimeException e) {
+                if (System.currentTimeMillis() > deadline) {
+                    throw e;
+                }
+                Thread.sleep(100);
+            }
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
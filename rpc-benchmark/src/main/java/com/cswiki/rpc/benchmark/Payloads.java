@@ -0,0 +1,61 @@
+package com.cswiki.rpc.benchmark;
+
+import com.cswiki.entity.RpcRequest;
+import com.cswiki.entity.RpcResponse;
+
+import java.util.Random;
+
+/**
+ * 基准测试使用的请求/响应样本
+ */
+final class Payloads {
+
+    private Payloads() {
+    }
+
+    /**
+     * 生成指定长度的字符串（固定种子的随机小写字母，每次运行的内容相同，压缩率接近普通文本）
+     * @param size
+     * @return
+     */
+    static String text(int size) {
+        Random random = new Random(size);
+        char[] chars = new char[size];
+        for (int i = 0; i < size; i++) {
+            chars[i] = (char) ('a' + random.nextInt(26));
+        }
+        return new String(chars);
+    }
+
+    /**
+     * 调用 EchoService.echo(String) 的请求
+     * @param size 参数的长度
+     * @param serializer 序列化方式编号
+     * @return
+     */
+    static RpcRequest request(int size, byte serializer) {
+        RpcRequest rpcRequest = new RpcRequest();
+        rpcRequest.setRequestId(1);
+        rpcRequest.setSerializer(serializer);
+        rpcRequest.setInterfaceName(EchoService.class.getName());
+        rpcRequest.setServiceVersion("");
+        rpcRequest.setMethodName("echo");
+        rpcRequest.setParameterTypes(new Class<?>[]{String.class});
+        rpcRequest.setParameters(new Object[]{text(size)});
+        return rpcRequest;
+    }
+
+    /**
+     * EchoService.echo(String) 的响应
+     * @param size 返回值的长度
+     * @param serializer 序列化方式编号
+     * @return
+     */
+    static RpcResponse response(int size, byte serializer) {
+        RpcResponse rpcResponse = new RpcResponse();
+        rpcResponse.setRequestId(1);
+        rpcResponse.setSerializer(serializer);
+        rpcResponse.setResult(text(size));
+        return rpcResponse;
+    }
+}
@@ -0,0 +1,106 @@
+package com.cswiki.rpc.benchmark;
+
+import com.cswiki.entity.RpcRequest;
+import com.cswiki.entity.RpcResponse;
+import com.cswiki.serializer.JavaSerializer;
+import com.cswiki.serializer.Serializer;
+import com.cswiki.serializer.Serializers;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 序列化/反序列化 RpcRequest、RpcResponse 的基准测试
+ * protostuff 即默认的 CustomSerializer，kryo、java 用于对比
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SerializerBenchmark {
+
+    @Param({"protostuff", "kryo", "java"})
+    private String serializer;
+
+    // 参数/返回值字符串的长度（字节）
+    @Param({"16", "1024", "16384"})
+    private int payloadSize;
+
+    private Serializer instance;
+
+    private RpcRequest rpcRequest;
+
+    private RpcResponse rpcResponse;
+
+    // 序列化的输出缓冲区（每次调用前清空，测得的分配量不包括缓冲区本身）
+    private ByteBuf out;
+
+    // 预先序列化好的请求/响应，反序列化时重复读取
+    private ByteBuf requestBytes;
+
+    private ByteBuf responseBytes;
+
+    private int requestLength;
+
+    private int responseLength;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        // JavaSerializer 默认不注册，直接创建
+        instance = "java".equals(serializer) ? new JavaSerializer() : Serializers.get(serializer);
+        rpcRequest = Payloads.request(payloadSize, instance.getId());
+        rpcResponse = Payloads.response(payloadSize, instance.getId());
+        out = Unpooled.buffer(payloadSize * 2 + 1024);
+        requestBytes = Unpooled.buffer();
+        requestLength = instance.serialize(rpcRequest, requestBytes);
+        responseBytes = Unpooled.buffer();
+        responseLength = instance.serialize(rpcResponse, responseBytes);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        out.release();
+        requestBytes.release();
+        responseBytes.release();
+    }
+
+    @Benchmark
+    public int serializeRequest() {
+        out.clear();
+        return instance.serialize(rpcRequest, out);
+    }
+
+    @Benchmark
+    public RpcRequest deserializeRequest() {
+        requestBytes.readerIndex(0);
+        return instance.deserialize(requestBytes, requestLength, RpcRequest.class);
+    }
+
+    @Benchmark
+    public int serializeResponse() {
+        out.clear();
+        return instance.serialize(rpcResponse, out);
+    }
+
+    @Benchmark
+    public RpcResponse deserializeResponse() {
+        responseBytes.readerIndex(0);
+        return instance.deserialize(responseBytes, responseLength, RpcResponse.class);
+    }
+}
@@ -0,0 +1,149 @@
+package com.cswiki.rpc.client;
+
+import com.cswiki.metrics.LatencyHistogram;
+import com.cswiki.metrics.RpcMetrics;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 单个服务方法的对冲请求状态（同一方法的所有代理共享）
+ * 请求在对冲延迟内没有收到响应时，向另一个服务实例发送相同的请求，先到的响应生效，另一个请求被取消
+ * 对冲的次数受预算限制：每个请求存入 hedgeBudget 个令牌，每次对冲消耗一个，令牌最多累积 MAX_TOKENS 个，
+ * 因此对冲带来的额外请求长期不超过请求数的 hedgeBudget，服务整体变慢时也不会成倍放大负载
+ *
+ * 没有指定对冲延迟时使用原请求最近的耗时的 p95：只记录原请求（不受对冲结果影响，被对冲取消时记录到取消为止的耗时），
+ * 并由两个直方图轮换组成滑动窗口，只统计最近 WINDOW_NANOS ~ 2 * WINDOW_NANOS 内的原请求
+ */
+public class HedgePolicy {
+
+    // 存储方法标识（见 RpcHandshake.methodKey）与对冲状态之间的映射关系
+    private static final Map<String, HedgePolicy> POLICY_MAP = new ConcurrentHashMap<>();
+
+    // 令牌的精度（1 个令牌 = TOKEN_UNIT 个单位）
+    private static final long TOKEN_UNIT = 1000;
+
+    // 最多累积的令牌数（允许短时间内的突发对冲）
+    private static final long MAX_TOKENS = 10 * TOKEN_UNIT;
+
+    // 使用观测到的 p95 作为对冲延迟时，至少需要的样本数
+    private static final long MIN_SAMPLES = 100;
+
+    // 观测到的 p95 的刷新间隔（纳秒）
+    private static final long REFRESH_NANOS = 1_000_000_000L;
+
+    // 滑动窗口中每个直方图的统计时长（纳秒）
+    private static final long WINDOW_NANOS = 10_000_000_000L;
+
+    private final AtomicLong tokens = new AtomicLong();
+
+    private final AtomicLong hedged = new AtomicLong(); // 发出的对冲请求数
+
+    private final AtomicLong won = new AtomicLong(); // 对冲请求先于原请求完成的次数
+
+    private volatile LatencyHistogram currentLatency = new LatencyHistogram(); // 当前窗口中原请求的耗时
+
+    private volatile LatencyHistogram previousLatency = new LatencyHistogram(); // 上一个窗口中原请求的耗时
+
+    private long windowStartNanos = System.nanoTime(); // 当前窗口的开始时间（由 this 保护）
+
+    private volatile long p95Nanos = -1;
+
+    private volatile long refreshedNanos = System.nanoTime();
+
+    private HedgePolicy() {
+    }
+
+    /**
+     * 获取方法的对冲状态（不存在时创建，并将对冲数和对冲成功数注册为 RpcMetrics 的指标）
+     * @param methodKey
+     * @return
+     */
+    public static HedgePolicy get(String methodKey) {
+        return POLICY_MAP.computeIfAbsent(methodKey, key -> {
+            HedgePolicy policy = new HedgePolicy();
+            RpcMetrics.getDefault().registerGauge("client.hedge." + key + ".hedged", policy.hedged::get);
+            RpcMetrics.getDefault().registerGauge("client.hedge." + key + ".won", policy.won::get);
+            return policy;
+        });
+    }
+
+    /**
+     * 计算这次调用的对冲延迟，同时为对冲预算存入令牌
+     * @param options hedgeDelay 为 0 时使用最近原请求耗时的 p95
+     * @return 对冲延迟（纳秒），小于 0 表示不对冲（样本不足）
+     */
+    public long delayNanos(RpcOptions options) {
+        long deposit = (long) (options.getHedgeBudget() * TOKEN_UNIT);
+        tokens.accumulateAndGet(deposit, (current, delta) -> Math.min(current + delta, MAX_TOKENS));
+        if (options.getHedgeDelay() > 0) {
+            return TimeUnit.MILLISECONDS.toNanos(options.getHedgeDelay());
+        }
+        if (System.nanoTime() - refreshedNanos >= REFRESH_NANOS) {
+            refresh();
+        }
+        return p95Nanos;
+    }
+
+    /**
+     * 记录原请求的耗时（对冲请求的耗时不记录）
+     * @param nanos
+     */
+    public void recordPrimary(long nanos) {
+        currentLatency.record(nanos);
+    }
+
+    /**
+     * 轮换滑动窗口并重新计算 p95
+     */
+    private synchronized void refresh() {
+        long now = System.nanoTime();
+        if (now - refreshedNanos < REFRESH_NANOS) {
+            return;
+        }
+        refreshedNanos = now;
+        if (now - windowStartNanos >= WINDOW_NANOS) {
+            windowStartNanos = now;
+            previousLatency = currentLatency;
+            currentLatency = new LatencyHistogram();
+        }
+        LatencyHistogram latency = new LatencyHistogram();
+        latency.add(previousLatency);
+        latency.add(currentLatency);
+        p95Nanos = latency.getCount() >= MIN_SAMPLES ? latency.getValueAtPercentile(95) : -1;
+    }
+
+    /**
+     * 从预算中取出一个令牌
+     * @return 预算不足时返回 false（不发送对冲请求）
+     */
+    public boolean tryHedge() {
+        for (;;) {
+            long current = tokens.get();
+            if (current < TOKEN_UNIT) {
+                return false;
+            }
+            if (tokens.compareAndSet(current, current - TOKEN_UNIT)) {
+                hedged.incrementAndGet();
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 对冲请求先于原请求完成
+     */
+    public void hedgeWon() {
+        won.incrementAndGet();
+    }
+
+    public long getHedged() {
+        return hedged.get();
+    }
+
+    public long getWon() {
+        return won.get();
+    }
+}
@@ -4,88 +4,242 @@ import com.cswiki.codec.RpcDecoder;
 import com.cswiki.codec.RpcEncoder;
 import com.cswiki.entity.RpcRequest;
 import com.cswiki.entity.RpcResponse;
+import com.cswiki.exception.RpcOverloadedException;
+import com.cswiki.exception.RpcTimeoutException;
+import com.cswiki.metrics.RpcMetrics;
+import com.cswiki.metrics.TransportMetrics;
+import com.cswiki.rpc.client.loadbalance.AddressStats;
+import com.cswiki.transport.NettyTransport;
 import io.netty.bootstrap.Bootstrap;
 import io.netty.channel.*;
-import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
-import io.netty.channel.socket.nio.NioSocketChannel;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import io.netty.handler.flush.FlushConsolidationHandler;
+import io.netty.handler.timeout.IdleStateHandler;
+import org.apache.commons.lang3.StringUtils;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 /**
- * RPC 客户端（建立连接，发送 RPC 请求，接收 RPC 响应）
+ * RPC 客户端（维护到各个服务地址的长连接，发送 RPC 请求，接收 RPC 响应）
+ * 每个服务地址只建立一条连接，多个请求可以同时在这条连接上传输，响应通过 requestId 与请求对应
  */
-public class RpcClient extends SimpleChannelInboundHandler<RpcResponse> {
+public class RpcClient {
+
+    // 心跳间隔（秒），连接在此时间内没有写出任何数据时发送一次心跳，需要小于服务端的空闲超时时间
+    private static final int HEARTBEAT_INTERVAL = 30;
+
+    private final EventLoopGroup group;
 
-    private static final Logger LOGGER = LoggerFactory.getLogger(RpcClient.class);
+    private final Bootstrap bootstrap;
 
-    private final String host;
-    private final int port;
+    // 存储服务地址与连接之间的映射关系
+    private final ConcurrentMap<String, ChannelFuture> channelMap = new ConcurrentHashMap<>();
 
-    // RPC 响应
-    private RpcResponse response;
+    // 一个批量请求最多合并的请求数（小于等于 1 时不合并，只对之后建立的连接生效）
+    private volatile int batchSize = 1;
 
-    public RpcClient(String host, int port) {
-        this.host = host;
-        this.port = port;
+    public RpcClient() {
+        this(0, true);
     }
 
     /**
-     * 处理服务端发送过来的响应消息 RpcResponse
-     * @param channelHandlerContext
-     * @param response
-     * @throws Exception
+     * @param ioThreads I/O 线程数（为 0 时使用 Netty 的默认值：CPU 核数 * 2）
+     * @param nativeTransport 是否优先使用原生 epoll 传输（不可用时自动退回 NIO）
      */
-    @Override
-    protected void channelRead0(ChannelHandlerContext channelHandlerContext, RpcResponse response) throws Exception {
-        this.response = response;
+    public RpcClient(int ioThreads, boolean nativeTransport) {
+        group = NettyTransport.newEventLoopGroup(ioThreads, nativeTransport, "rpc-client");
+        bootstrap = new Bootstrap();
+        bootstrap.group(group);
+        bootstrap.channel(NettyTransport.channelClass(group));
+        TransportMetrics transportMetrics = RpcMetrics.getDefault().transport(RpcMetrics.Side.CLIENT);
+        bootstrap.handler(new ChannelInitializer<SocketChannel>() {
+            @Override
+            public void initChannel(SocketChannel socketChannel) throws Exception {
+                ChannelPipeline pipeline = socketChannel.pipeline();
+                // 同一轮事件循环中的多次 flush 合并为一次（减少系统调用）
+                pipeline.addLast(new FlushConsolidationHandler(FlushConsolidationHandler.DEFAULT_EXPLICIT_FLUSH_AFTER_FLUSHES, true));
+                pipeline.addLast(new IdleStateHandler(0, HEARTBEAT_INTERVAL, 0)); // 写空闲检测（发送心跳）
+                pipeline.addLast(new RpcEncoder(transportMetrics)); // 编码器
+                pipeline.addLast(new RpcDecoder(false, transportMetrics)); // 解码器
+                pipeline.addLast(new RpcClientHandler(batchSize)); // 处理 RPC 响应
+            }
+        });
+        bootstrap.option(ChannelOption.TCP_NODELAY, true);
     }
 
     /**
-     * 发生异常时此方法被调用
-     * @param ctx
-     * @param cause
-     * @throws Exception
+     * 发送请求并同步等待响应
+     * 该方法的真正调用在代理类 RpcProxy 中（通过代理对此方法进行增强，屏蔽远程方法调用的细节）
+     * @param serviceAddress 服务地址（host:port）
+     * @param rpcRequest
+     * @return
      */
-    @Override
-    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
-        LOGGER.error("api caught exception", cause);
-        ctx.close();
+    public RpcResponse send(String serviceAddress, RpcRequest rpcRequest) throws InterruptedException {
+        return await(sendAsync(serviceAddress, rpcRequest));
     }
 
     /**
-     * 建立连接，发送请求，接收响应
-     * 该方法的真正调用在代理类 RpcProxy 中（通过代理对此方法进行增强，屏蔽远程方法调用的细节）
-     * @param rpcRequest
+     * 同步等待响应
+     * @param future sendAsync 返回的 future
      * @return
+     * @throws InterruptedException
      */
-    public RpcResponse send(RpcRequest rpcRequest) throws InterruptedException {
-        NioEventLoopGroup group = new NioEventLoopGroup();
+    public static RpcResponse await(CompletableFuture<RpcResponse> future) throws InterruptedException {
         try {
-            Bootstrap bootstrap = new Bootstrap();
-            bootstrap.group(group);
-            bootstrap.channel(NioSocketChannel.class);
-            bootstrap.handler(new ChannelInitializer<SocketChannel>() {
-                @Override
-                public void initChannel(SocketChannel socketChannel) throws Exception {
-                    ChannelPipeline pipeline = socketChannel.pipeline();
-                    pipeline.addLast(new RpcEncoder(RpcRequest.class)); // 编码器
-                    pipeline.addLast(new RpcDecoder(RpcResponse.class)); // 解码器
-                    pipeline.addLast(RpcClient.this); // 处理 RPC 响应
-                }
-            });
-            bootstrap.option(ChannelOption.TCP_NODELAY, true);
-            // 连接 RPC 服务器
-            ChannelFuture channelFuture = bootstrap.connect(host, port).sync();
-            // 写入 RPC 请求
+            return future.get();
+        } catch (ExecutionException e) {
+            // 连接失败、写入失败或连接中途断开
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException(cause.getMessage(), cause);
+        }
+    }
+
+    /**
+     * 发送请求，响应到达时（在 Netty 的 I/O 线程中）完成返回的 future
+     * 请求设置了截止时间时，到期仍未收到响应则以 RpcTimeoutException 完成（之后到达的响应被丢弃）
+     * 请求可取消时（见 RpcAttachments.CANCELLABLE），可以通过 cancel 返回的 future 取消这个请求
+     * @param serviceAddress 服务地址（host:port）
+     * @param rpcRequest
+     * @return
+     */
+    public CompletableFuture<RpcResponse> sendAsync(String serviceAddress, RpcRequest rpcRequest) {
+        CompletableFuture<RpcResponse> future = new CompletableFuture<>();
+        // 记录该地址的进行中请求数和延迟（供负载均衡策略使用）
+        AddressStats stats = AddressStats.get(serviceAddress);
+        long startNanos = System.nanoTime();
+        long ticket = stats.begin();
+        future.whenComplete((rpcResponse, cause) -> {
+            if (cause == null && rpcResponse.getException() instanceof RpcOverloadedException) {
+                stats.overloaded(ticket);
+            } else {
+                // 被取消的请求（如对冲中较慢的一个）不算失败，其耗时说明该地址至少这么慢
+                stats.end(ticket, System.nanoTime() - startNanos, cause == null || cause instanceof CancellationException);
+            }
+        });
+        if (rpcRequest.getDeadlineNanos() != 0) {
+            ScheduledFuture<?> timeoutFuture = group.schedule(() -> future.completeExceptionally(new RpcTimeoutException(
+                    String.format("call %s on %s timed out", rpcRequest.getMethodKey(), serviceAddress))),
+                    rpcRequest.getDeadlineNanos() - startNanos, TimeUnit.NANOSECONDS);
+            future.whenComplete((rpcResponse, cause) -> timeoutFuture.cancel(false));
+        }
+        getChannel(serviceAddress).addListener((ChannelFutureListener) channelFuture -> {
+            if (!channelFuture.isSuccess()) {
+                future.completeExceptionally(channelFuture.cause());
+                return;
+            }
+            Channel channel = channelFuture.channel();
+            RpcClientHandler handler = channel.pipeline().get(RpcClientHandler.class);
+            if (handler == null) {
+                future.completeExceptionally(new RuntimeException(String.format("connection closed: %s", serviceAddress)));
+                return;
+            }
+            handler.send(channel, rpcRequest, future);
+        });
+        return future;
+    }
+
+    /**
+     * 发起流式调用，返回的 RpcStream 在服务端发送分块时逐步得到元素
+     * @param serviceAddress 服务地址（host:port）
+     * @param rpcRequest 流式请求（initialCredits 为窗口大小）
+     * @return
+     */
+    public RpcStream openStream(String serviceAddress, RpcRequest rpcRequest) {
+        RpcStream stream = new RpcStream(rpcRequest.getInitialCredits());
+        getChannel(serviceAddress).addListener((ChannelFutureListener) channelFuture -> {
+            if (!channelFuture.isSuccess()) {
+                stream.fail(channelFuture.cause());
+                return;
+            }
             Channel channel = channelFuture.channel();
-            channel.writeAndFlush(rpcRequest).sync();
-            // 关闭连接
-            channel.closeFuture().sync();
-            // 返回 RPC 响应对象
-            return response;
-        } finally {
-            group.shutdownGracefully();
+            RpcClientHandler handler = channel.pipeline().get(RpcClientHandler.class);
+            if (handler == null) {
+                stream.fail(new RuntimeException(String.format("connection closed: %s", serviceAddress)));
+                return;
+            }
+            handler.sendStream(channel, rpcRequest, stream);
+        });
+        return stream;
+    }
+
+    /**
+     * 预先建立到服务地址的连接（已有连接时不做任何事，不等待连接和握手完成）
+     * @param serviceAddress
+     */
+    public void preconnect(String serviceAddress) {
+        getChannel(serviceAddress);
+    }
+
+    /**
+     * 在 I/O 线程中延迟执行任务
+     * @param task
+     * @param delayNanos 延迟时间（纳秒）
+     * @return
+     */
+    public ScheduledFuture<?> schedule(Runnable task, long delayNanos) {
+        return group.schedule(task, delayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 设置一个批量请求最多合并的请求数
+     * 开启后，同一轮事件循环中排队的多个请求会合并为一个批量请求发送（服务端需支持批量消息）
+     * @param batchSize
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * 关闭所有连接并释放 I/O 线程
+     */
+    public void close() {
+        for (ChannelFuture channelFuture : channelMap.values()) {
+            channelFuture.channel().close();
+        }
+        channelMap.clear();
+        group.shutdownGracefully();
+    }
+
+    /**
+     * 获取到服务地址的连接（没有可用连接时新建一条）
+     * @param serviceAddress
+     * @return
+     */
+    private ChannelFuture getChannel(String serviceAddress) {
+        ChannelFuture channelFuture = channelMap.get(serviceAddress);
+        if (channelFuture != null) {
+            if (!channelFuture.isDone() || channelFuture.channel().isActive()) {
+                return channelFuture;
+            }
+            channelMap.remove(serviceAddress, channelFuture);
         }
+        // 不在 computeIfAbsent 中建立连接：连接失败时监听器可能在当前线程中立即执行并修改 channelMap
+        ChannelFuture connecting = connect(serviceAddress);
+        channelFuture = channelMap.putIfAbsent(serviceAddress, connecting);
+        if (channelFuture != null) {
+            // 其他线程已经建立了连接
+            connecting.channel().close();
+            return channelFuture;
+        }
+        // 连接断开（或连接失败）后从缓存中移除，下一次请求会重新建立连接
+        connecting.channel().closeFuture().addListener(future -> channelMap.remove(serviceAddress, connecting));
+        return connecting;
+    }
+
+    private ChannelFuture connect(String serviceAddress) {
+        // 从服务地址中解析主机名与端口号
+        String[] array = StringUtils.split(serviceAddress, ":");
+        String host = array[0];
+        int port = Integer.parseInt(array[1]);
+        return bootstrap.connect(host, port);
     }
 }
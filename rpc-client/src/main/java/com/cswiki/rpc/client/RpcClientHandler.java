@@ -0,0 +1,399 @@
+package com.cswiki.rpc.client;
+
+import com.cswiki.codec.RpcProtocol;
+import com.cswiki.entity.RpcAttachments;
+import com.cswiki.entity.RpcBatch;
+import com.cswiki.entity.RpcDecodeFailure;
+import com.cswiki.entity.RpcHandshake;
+import com.cswiki.entity.RpcHeartbeat;
+import com.cswiki.entity.RpcMessage;
+import com.cswiki.entity.RpcRequest;
+import com.cswiki.entity.RpcResponse;
+import com.cswiki.entity.RpcStreamChunk;
+import com.cswiki.entity.RpcStreamCredit;
+import com.cswiki.exception.RpcTimeoutException;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.handler.timeout.IdleState;
+import io.netty.handler.timeout.IdleStateEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * RPC 客户端处理器（每条连接一个实例）
+ * 同一条连接上可以同时存在多个未完成的请求，响应到达时根据 requestId 找到对应的 future 并完成它
+ * 连接建立后先与服务端握手获取方法编号，握手完成前发送的请求会等到握手完成后再发出（已经从注册中心得到方法编号的请求除外）
+ * 开启批量发送时，请求先进入队列，由 I/O 线程在同一轮事件循环中取出并合并为批量请求发送
+ */
+public class RpcClientHandler extends SimpleChannelInboundHandler<RpcMessage> {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RpcClientHandler.class);
+
+    // 存储 requestId 与等待响应的 future 之间的映射关系
+    private final Map<Long, CompletableFuture<RpcResponse>> pendingRequests = new ConcurrentHashMap<>();
+
+    // 存储 requestId 与进行中的流式响应之间的映射关系
+    private final Map<Long, RpcStream> streams = new ConcurrentHashMap<>();
+
+    // 当前连接
+    private volatile Channel channel;
+
+    // 用于生成 requestId（只需在这条连接上唯一）
+    private final AtomicLong nextRequestId = new AtomicLong();
+
+    // 握手完成（或连接断开）时完成
+    private final CompletableFuture<Void> handshakeFuture = new CompletableFuture<>();
+
+    // 方法标识与方法编号之间的映射关系（握手时由服务端返回）
+    private volatile Map<String, Integer> methodIds = Collections.emptyMap();
+
+    // 一个批量请求最多合并的请求数（小于等于 1 时不合并）
+    private final int batchSize;
+
+    // 服务端是否支持批量消息（握手时由服务端返回）
+    private volatile boolean batchSupported;
+
+    // 等待合并发送的请求
+    private final Queue<RpcRequest> batchQueue = new ConcurrentLinkedQueue<>();
+
+    // 是否已经安排 I/O 线程发送队列中的请求
+    private final AtomicBoolean drainScheduled = new AtomicBoolean();
+
+    public RpcClientHandler() {
+        this(1);
+    }
+
+    public RpcClientHandler(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * 在连接上发送请求，响应到达（或连接断开）时完成 future
+     * @param channel
+     * @param rpcRequest
+     * @param future
+     */
+    public void send(Channel channel, RpcRequest rpcRequest, CompletableFuture<RpcResponse> future) {
+        // 已经从注册中心得到方法编号的请求不必等待握手
+        if (!handshakeFuture.isDone() && rpcRequest.getMethodId() == 0) {
+            handshakeFuture.whenComplete((v, cause) -> doSend(channel, rpcRequest, future));
+            return;
+        }
+        doSend(channel, rpcRequest, future);
+    }
+
+    /**
+     * 在连接上发起流式调用，服务端的分块到达时放入 stream
+     * @param channel
+     * @param rpcRequest 流式请求（initialCredits 为 stream 的窗口大小）
+     * @param stream
+     */
+    public void sendStream(Channel channel, RpcRequest rpcRequest, RpcStream stream) {
+        if (!handshakeFuture.isDone() && rpcRequest.getMethodId() == 0) {
+            handshakeFuture.whenComplete((v, cause) -> doSendStream(channel, rpcRequest, stream));
+            return;
+        }
+        doSendStream(channel, rpcRequest, stream);
+    }
+
+    private void doSendStream(Channel channel, RpcRequest rpcRequest, RpcStream stream) {
+        if (stream.isCancelled()) {
+            return;
+        }
+        applyMethodId(rpcRequest);
+        long requestId = nextRequestId.incrementAndGet();
+        rpcRequest.setRequestId(requestId);
+        streams.put(requestId, stream);
+        stream.attach(this, requestId);
+        if (!channel.isActive()) {
+            failStream(requestId, new RuntimeException(String.format("connection closed: %s", channel.remoteAddress())));
+            return;
+        }
+        // 流式请求不参与批量发送
+        channel.writeAndFlush(rpcRequest).addListener((ChannelFutureListener) writeFuture -> {
+            if (!writeFuture.isSuccess()) {
+                failStream(requestId, writeFuture.cause());
+            }
+        });
+    }
+
+    /**
+     * 向服务端授予流式响应的信用
+     * @param requestId
+     * @param credits
+     */
+    void grant(long requestId, int credits) {
+        Channel channel = this.channel;
+        if (channel != null && streams.containsKey(requestId)) {
+            RpcStreamCredit credit = new RpcStreamCredit(credits);
+            credit.setRequestId(requestId);
+            channel.writeAndFlush(credit);
+        }
+    }
+
+    /**
+     * 取消流式响应
+     * @param requestId
+     */
+    void cancel(long requestId) {
+        Channel channel = this.channel;
+        if (streams.remove(requestId) != null && channel != null) {
+            RpcStreamCredit credit = new RpcStreamCredit(RpcStreamCredit.CANCEL);
+            credit.setRequestId(requestId);
+            channel.writeAndFlush(credit);
+        }
+    }
+
+    /**
+     * 服务端为该方法分配了编号时只发送编号，不再发送接口名称、方法名称和参数类型
+     * @param rpcRequest
+     */
+    private void applyMethodId(RpcRequest rpcRequest) {
+        Integer methodId = rpcRequest.getMethodKey() != null ? methodIds.get(rpcRequest.getMethodKey()) : null;
+        if (methodId != null) {
+            rpcRequest.setMethodId(methodId);
+            rpcRequest.setInterfaceName(null);
+            rpcRequest.setServiceVersion(null);
+            rpcRequest.setMethodName(null);
+            rpcRequest.setParameterTypes(null);
+        }
+    }
+
+    private void doSend(Channel channel, RpcRequest rpcRequest, CompletableFuture<RpcResponse> future) {
+        // 等待连接或握手期间已经超时
+        if (future.isDone()) {
+            return;
+        }
+        applyMethodId(rpcRequest);
+        long requestId = nextRequestId.incrementAndGet();
+        rpcRequest.setRequestId(requestId);
+        pendingRequests.put(requestId, future);
+        // 连接可能在登记之前就已经断开，此时 channelInactive 不会再处理这个请求
+        if (!channel.isActive()) {
+            failPending(requestId, new RuntimeException(String.format("connection closed: %s", channel.remoteAddress())));
+            return;
+        }
+        if (rpcRequest.getDeadlineNanos() != 0) {
+            // 发送剩余的超时时间（向上取整到毫秒），服务端据此丢弃排队期间已经过期的请求
+            long remainingNanos = rpcRequest.getDeadlineNanos() - System.nanoTime();
+            if (remainingNanos <= 0) {
+                failPending(requestId, new RpcTimeoutException(String.format("call timed out before sending: %s", channel.remoteAddress())));
+                return;
+            }
+            rpcRequest.setTimeout(TimeUnit.NANOSECONDS.toMillis(remainingNanos + 999_999));
+        }
+        boolean cancellable = rpcRequest.getAttachment(RpcAttachments.CANCELLABLE) != null;
+        if (rpcRequest.getDeadlineNanos() != 0 || cancellable) {
+            // 超时或被取消后不再等待响应，被取消时通知服务端不必再执行
+            future.whenComplete((rpcResponse, cause) -> {
+                if (cause != null && pendingRequests.remove(requestId, future) && cancellable && cause instanceof CancellationException) {
+                    RpcStreamCredit cancel = new RpcStreamCredit(RpcStreamCredit.CANCEL);
+                    cancel.setRequestId(requestId);
+                    channel.writeAndFlush(cancel);
+                }
+            });
+        }
+        if (batchSize > 1 && batchSupported) {
+            batchQueue.offer(rpcRequest);
+            if (drainScheduled.compareAndSet(false, true)) {
+                channel.eventLoop().execute(() -> drain(channel));
+            }
+            return;
+        }
+        channel.writeAndFlush(rpcRequest).addListener((ChannelFutureListener) writeFuture -> {
+            if (!writeFuture.isSuccess()) {
+                failPending(requestId, writeFuture.cause());
+            }
+        });
+    }
+
+    /**
+     * 在 I/O 线程中取出队列中的所有请求，每 batchSize 个合并为一个批量请求写出，最后统一 flush
+     * @param channel
+     */
+    private void drain(Channel channel) {
+        // 先清除标记再取请求，之后入队的请求会重新安排发送
+        drainScheduled.set(false);
+        RpcRequest rpcRequest;
+        while ((rpcRequest = batchQueue.poll()) != null) {
+            List<RpcMessage> batch = new ArrayList<>();
+            batch.add(rpcRequest);
+            while (batch.size() < batchSize && (rpcRequest = batchQueue.poll()) != null) {
+                batch.add(rpcRequest);
+            }
+            RpcMessage message = batch.size() == 1 ? batch.get(0) : new RpcBatch(batch);
+            channel.write(message).addListener((ChannelFutureListener) writeFuture -> {
+                if (!writeFuture.isSuccess()) {
+                    for (RpcMessage request : batch) {
+                        failPending(request.getRequestId(), writeFuture.cause());
+                    }
+                }
+            });
+        }
+        channel.flush();
+    }
+
+    /**
+     * 连接建立后发起握手
+     * @param ctx
+     * @throws Exception
+     */
+    @Override
+    public void channelActive(ChannelHandlerContext ctx) throws Exception {
+        channel = ctx.channel();
+        ctx.writeAndFlush(new RpcHandshake()).addListener(ChannelFutureListener.CLOSE_ON_FAILURE);
+        super.channelActive(ctx);
+    }
+
+    /**
+     * 处理服务端发送过来的消息（握手响应和 RPC 响应）
+     * @param channelHandlerContext
+     * @param message
+     * @throws Exception
+     */
+    @Override
+    protected void channelRead0(ChannelHandlerContext channelHandlerContext, RpcMessage message) throws Exception {
+        if (message instanceof RpcHandshake) {
+            Map<String, Integer> methodIds = ((RpcHandshake) message).getMethodIds();
+            if (methodIds != null) {
+                this.methodIds = methodIds;
+            }
+            batchSupported = ((RpcHandshake) message).isBatchSupported();
+            handshakeFuture.complete(null);
+            return;
+        }
+        if (message instanceof RpcBatch) {
+            for (RpcMessage response : ((RpcBatch) message).getMessages()) {
+                channelRead0(channelHandlerContext, response);
+            }
+            return;
+        }
+        if (message instanceof RpcDecodeFailure) {
+            handleDecodeFailure((RpcDecodeFailure) message);
+            return;
+        }
+        if (message instanceof RpcStreamChunk) {
+            RpcStreamChunk chunk = (RpcStreamChunk) message;
+            RpcStream stream = chunk.isLast() ? streams.remove(chunk.getRequestId()) : streams.get(chunk.getRequestId());
+            if (stream != null) {
+                stream.onChunk(chunk);
+            }
+            return;
+        }
+        if (!(message instanceof RpcResponse)) {
+            return;
+        }
+        RpcResponse response = (RpcResponse) message;
+        CompletableFuture<RpcResponse> future = pendingRequests.remove(response.getRequestId());
+        if (future == null) {
+            // 流式调用也可能以普通响应结束（出错或返回值不是 Iterator/Stream）
+            RpcStream stream = streams.remove(response.getRequestId());
+            if (stream != null) {
+                stream.onResponse(response);
+                return;
+            }
+            // 请求已经超时
+            LOGGER.debug("discard response without pending request: {}", response.getRequestId());
+            return;
+        }
+        future.complete(response);
+    }
+
+    /**
+     * 处理无法反序列化的消息（如结果类型不在 Kryo 的白名单中），只让对应的请求或流式调用失败，不关闭连接
+     * @param failure
+     */
+    private void handleDecodeFailure(RpcDecodeFailure failure) {
+        LOGGER.warn("can not deserialize message of request {}", failure.getRequestId(), failure.getCause());
+        if (failure.getMessageType() == RpcProtocol.TYPE_HANDSHAKE) {
+            // 没有得到方法编号，之后的请求仍然发送接口名称、方法名称和参数类型
+            handshakeFuture.complete(null);
+            return;
+        }
+        RuntimeException cause = new RuntimeException(String.format("can not deserialize %s of request %d: %s",
+                failure.getMessageType() == RpcProtocol.TYPE_STREAM_CHUNK ? "stream chunk" : "response",
+                failure.getRequestId(), failure.getCause().getMessage()), failure.getCause());
+        failPending(failure.getRequestId(), cause);
+        RpcStream stream = streams.get(failure.getRequestId());
+        if (stream != null) {
+            // 通知服务端停止发送后续的分块
+            cancel(failure.getRequestId());
+            stream.fail(cause);
+        }
+    }
+
+    /**
+     * 连接断开时，所有尚未收到响应的请求都以失败结束
+     * @param ctx
+     * @throws Exception
+     */
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        // 等待握手的请求会在 doSend 中因连接已断开而失败
+        handshakeFuture.complete(null);
+        RuntimeException cause = new RuntimeException(String.format("connection closed: %s", ctx.channel().remoteAddress()));
+        for (Long requestId : pendingRequests.keySet()) {
+            failPending(requestId, cause);
+        }
+        for (Long requestId : streams.keySet()) {
+            failStream(requestId, cause);
+        }
+        super.channelInactive(ctx);
+    }
+
+    /**
+     * 连接写空闲时发送心跳，避免服务端把仍在使用的连接当作空闲连接关闭
+     * @param ctx
+     * @param evt
+     * @throws Exception
+     */
+    @Override
+    public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+        if (evt instanceof IdleStateEvent && ((IdleStateEvent) evt).state() == IdleState.WRITER_IDLE) {
+            ctx.writeAndFlush(RpcHeartbeat.INSTANCE).addListener(ChannelFutureListener.CLOSE_ON_FAILURE);
+            return;
+        }
+        super.userEventTriggered(ctx, evt);
+    }
+
+    /**
+     * 发生异常时此方法被调用
+     * @param ctx
+     * @param cause
+     * @throws Exception
+     */
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
+        LOGGER.error("api caught exception", cause);
+        ctx.close();
+    }
+
+    private void failStream(long requestId, Throwable cause) {
+        RpcStream stream = streams.remove(requestId);
+        if (stream != null) {
+            stream.fail(cause);
+        }
+    }
+
+    private void failPending(long requestId, Throwable cause) {
+        CompletableFuture<RpcResponse> future = pendingRequests.remove(requestId);
+        if (future != null) {
+            future.completeExceptionally(cause);
+        }
+    }
+}
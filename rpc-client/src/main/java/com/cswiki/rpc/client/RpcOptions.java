@@ -0,0 +1,162 @@
+package com.cswiki.rpc.client;
+
+/**
+ * 创建服务代理时的调用选项
+ * 未指定时使用 RpcProxy 的默认选项
+ */
+public class RpcOptions {
+
+    // 请求使用的序列化方式名称（见 Serializers，服务端默认以相同的序列化方式响应）
+    private String serializer = "protostuff";
+
+    // 负载均衡策略名称（见 LoadBalancers：random、leastactive、p2c、consistenthash）
+    private String loadBalance = "random";
+
+    // 一致性哈希使用的参数下标（仅在 consistenthash 策略下生效）
+    private int hashArgument = 0;
+
+    // 请求消息体达到该长度（字节）时压缩后发送（0 表示不压缩）
+    private int compressThreshold = 0;
+
+    // 流式调用的窗口大小（服务端已发送但未被消费的元素数的上限）
+    private int streamWindow = 256;
+
+    // 调用的超时时间（毫秒，0 表示不限制；流式调用不受限制），可以通过 RpcContext.setNextCallTimeout 为单次调用另行指定
+    private long timeout = 30000;
+
+    // 是否为标注了 @RpcIdempotent 的方法发送对冲请求（需要服务发现且有多个服务实例，见 HedgePolicy）
+    private boolean hedging = false;
+
+    // 对冲延迟（毫秒）：请求在此时间内没有收到响应时向另一个服务实例发送对冲请求（0 表示使用观测到的 p95 延迟）
+    private long hedgeDelay = 0;
+
+    // 对冲预算：对冲请求数长期不超过请求数的该比例
+    private double hedgeBudget = 0.05;
+
+    // 新注册服务实例的预热时间（毫秒）：注册后的这段时间内，实例的权重从 1 线性增加到其注册的权重（慢启动，0 表示不预热）
+    private long warmup = 60000;
+
+    // 创建代理时是否预先建立到服务所有实例的连接（服务发现失败时忽略）
+    private boolean preconnect = true;
+
+    // 是否为每次调用生成调用链编号（当前线程已处于某个调用链中时总是沿用，见 RpcContext）
+    private boolean tracing = false;
+
+    // 是否记录每次调用各阶段的耗时（见 CallTiming，服务端会在响应中返回其各阶段的耗时）
+    private boolean timing = false;
+
+    // 客户端所在的区域（与 RpcServer.zone 对应），指定后优先调用同一区域的服务实例
+    private String zone;
+
+    public String getSerializer() {
+        return serializer;
+    }
+
+    public void setSerializer(String serializer) {
+        this.serializer = serializer;
+    }
+
+    public String getLoadBalance() {
+        return loadBalance;
+    }
+
+    public void setLoadBalance(String loadBalance) {
+        this.loadBalance = loadBalance;
+    }
+
+    public int getHashArgument() {
+        return hashArgument;
+    }
+
+    public void setHashArgument(int hashArgument) {
+        this.hashArgument = hashArgument;
+    }
+
+    public int getCompressThreshold() {
+        return compressThreshold;
+    }
+
+    public void setCompressThreshold(int compressThreshold) {
+        this.compressThreshold = compressThreshold;
+    }
+
+    public int getStreamWindow() {
+        return streamWindow;
+    }
+
+    public void setStreamWindow(int streamWindow) {
+        this.streamWindow = streamWindow;
+    }
+
+    public long getTimeout() {
+        return timeout;
+    }
+
+    public void setTimeout(long timeout) {
+        this.timeout = timeout;
+    }
+
+    public boolean isHedging() {
+        return hedging;
+    }
+
+    public void setHedging(boolean hedging) {
+        this.hedging = hedging;
+    }
+
+    public long getHedgeDelay() {
+        return hedgeDelay;
+    }
+
+    public void setHedgeDelay(long hedgeDelay) {
+        this.hedgeDelay = hedgeDelay;
+    }
+
+    public double getHedgeBudget() {
+        return hedgeBudget;
+    }
+
+    public void setHedgeBudget(double hedgeBudget) {
+        this.hedgeBudget = hedgeBudget;
+    }
+
+    public long getWarmup() {
+        return warmup;
+    }
+
+    public void setWarmup(long warmup) {
+        this.warmup = warmup;
+    }
+
+    public boolean isPreconnect() {
+        return preconnect;
+    }
+
+    public void setPreconnect(boolean preconnect) {
+        this.preconnect = preconnect;
+    }
+
+    public boolean isTracing() {
+        return tracing;
+    }
+
+    public void setTracing(boolean tracing) {
+        this.tracing = tracing;
+    }
+
+    public boolean isTiming() {
+        return timing;
+    }
+
+    public void setTiming(boolean timing) {
+        this.timing = timing;
+    }
+
+    public String getZone() {
+        return zone;
+    }
+
+    public void setZone(String zone) {
+        this.zone = zone;
+    }
+}
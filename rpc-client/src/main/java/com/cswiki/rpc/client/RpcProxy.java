@@ -1,8 +1,23 @@
 package com.cswiki.rpc.client;
 
+import com.cswiki.annotation.RpcCacheable;
+import com.cswiki.annotation.RpcIdempotent;
+import com.cswiki.codec.RpcProtocol;
+import com.cswiki.context.RpcContext;
+import com.cswiki.entity.RpcAttachments;
+import com.cswiki.entity.RpcHandshake;
 import com.cswiki.entity.RpcRequest;
 import com.cswiki.entity.RpcResponse;
+import com.cswiki.metrics.CallTiming;
+import com.cswiki.metrics.MethodMetrics;
+import com.cswiki.metrics.RpcMetrics;
+import com.cswiki.rpc.client.cache.ResultCache;
+import com.cswiki.rpc.client.loadbalance.AddressStats;
+import com.cswiki.rpc.client.loadbalance.LoadBalancer;
+import com.cswiki.rpc.client.loadbalance.LoadBalancers;
 import com.cswiki.rpc.registry.ServiceDiscovery;
+import com.cswiki.rpc.registry.ServiceInstance;
+import com.cswiki.serializer.Serializers;
 import net.sf.cglib.proxy.Enhancer;
 import net.sf.cglib.proxy.MethodInterceptor;
 import net.sf.cglib.proxy.MethodProxy;
@@ -10,12 +25,37 @@ import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.lang.annotation.Annotation;
 import java.lang.reflect.Method;
-import java.util.UUID;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * RPC 动态代理
  * 代理客户端进行建立连接，发送请求，接收请求（即屏蔽远程方法调用细节）
+ *
+ * 返回值类型为 CompletableFuture 的接口方法会被异步调用：代理方法立即返回 future，
+ * 响应到达时由 Netty 的 I/O 线程完成该 future（因此不要在回调中执行阻塞操作）
+ * 返回值类型为 Iterator/Stream 的接口方法会被流式调用：代理方法立即返回迭代器，服务端按客户端的消费速度逐块发送元素
+ *
+ * 每个方法的请求数、失败数和耗时分布记录在 RpcMetrics 中（流式调用只计算到请求发出为止）
+ * 当前线程 RpcContext 中的附加信息和调用链编号随请求发送；开启 RpcOptions.timing 时，同步调用完成后可以通过
+ * RpcContext.getLastTiming 获取各阶段的耗时，同时也会交给 RpcMetrics 中注册的 MetricsReporter
+ * 调用超过 RpcOptions.timeout（或 RpcContext.setNextCallTimeout 指定的时间）仍未完成时以 RpcTimeoutException 失败，
+ * 在服务方法中发起的嵌套调用继承所处理请求的剩余时间
+ * 标注了 @RpcCacheable 的方法的结果缓存在客户端（见 ResultCache），有效期内相同参数的调用不再发起远程调用
+ * 开启 RpcOptions.hedging 时，标注了 @RpcIdempotent 的方法在响应较慢时向另一个服务实例发送对冲请求（见 HedgePolicy）
  */
 public class RpcProxy {
 
@@ -25,12 +65,40 @@ public class RpcProxy {
 
     private ServiceDiscovery serviceDiscovery; // 服务发现组件
 
+    private final RpcClient rpcClient; // RPC 客户端（所有代理共享连接）
+
+    private RpcOptions defaultOptions = new RpcOptions(); // 未指定调用选项时使用的默认选项
+
     /**
      * 该构造函数用于提供给用户通过配置文件注入服务发现组件
      * @param serviceDiscovery
      */
     public RpcProxy(ServiceDiscovery serviceDiscovery) {
+        this(serviceDiscovery, new RpcClient());
+    }
+
+    /**
+     * 使用指定的 I/O 线程数和传输方式创建 RPC 客户端
+     * @param serviceDiscovery
+     * @param ioThreads I/O 线程数（为 0 时使用 Netty 的默认值）
+     * @param nativeTransport 是否优先使用原生 epoll 传输
+     */
+    public RpcProxy(ServiceDiscovery serviceDiscovery, int ioThreads, boolean nativeTransport) {
+        this(serviceDiscovery, new RpcClient(ioThreads, nativeTransport));
+    }
+
+    /**
+     * 直连指定的服务地址（不经过服务发现，如本地调试、压测）
+     * @param serviceAddress 服务地址（host:port）
+     */
+    public RpcProxy(String serviceAddress) {
+        this((ServiceDiscovery) null, new RpcClient());
+        this.serviceAddress = serviceAddress;
+    }
+
+    private RpcProxy(ServiceDiscovery serviceDiscovery, RpcClient rpcClient) {
         this.serviceDiscovery = serviceDiscovery;
+        this.rpcClient = rpcClient;
     }
 
     /**
@@ -55,10 +123,129 @@ public class RpcProxy {
      */
     @SuppressWarnings("unchecked")
     public <T> T create(final Class<?> interfaceClass, final String serviceVersion) {
+        return create(interfaceClass, serviceVersion, defaultOptions);
+    }
+
+    /**
+     * 对 send 方法进行增强（使用指定的调用选项，如序列化方式）
+     * 使用示例：HelloService helloService = rpcProxy.create(HelloService.class, "", kryoOptions);
+     * @param interfaceClass
+     * @param serviceVersion
+     * @param options
+     * @param <T>
+     * @return 返回接口实例
+     */
+    public <T> T create(final Class<?> interfaceClass, final String serviceVersion, final RpcOptions options) {
+        return createProxy(interfaceClass, interfaceClass, serviceVersion, options);
+    }
+
+    /**
+     * 为同步的服务接口创建异步代理
+     * asyncInterfaceClass 中的方法与服务接口的方法同名、同参数，返回值为 CompletableFuture<原返回值类型>，
+     * 服务端无需任何改动
+     * 使用示例：HelloServiceAsync helloService = rpcProxy.createAsync(HelloServiceAsync.class, HelloService.class);
+     * @param asyncInterfaceClass 异步接口
+     * @param interfaceClass 服务接口（被暴露的实现类的接口）
+     * @param <T>
+     * @return 返回异步接口实例
+     */
+    public <T> T createAsync(final Class<T> asyncInterfaceClass, final Class<?> interfaceClass) {
+        return createAsync(asyncInterfaceClass, interfaceClass, "");
+    }
+
+    /**
+     * 为同步的服务接口创建异步代理
+     * @param asyncInterfaceClass 异步接口
+     * @param interfaceClass 服务接口（被暴露的实现类的接口）
+     * @param serviceVersion
+     * @param <T>
+     * @return 返回异步接口实例
+     */
+    public <T> T createAsync(final Class<T> asyncInterfaceClass, final Class<?> interfaceClass, final String serviceVersion) {
+        return createAsync(asyncInterfaceClass, interfaceClass, serviceVersion, defaultOptions);
+    }
+
+    /**
+     * 为同步的服务接口创建异步代理（使用指定的调用选项）
+     * @param asyncInterfaceClass 异步接口
+     * @param interfaceClass 服务接口（被暴露的实现类的接口）
+     * @param serviceVersion
+     * @param options
+     * @param <T>
+     * @return 返回异步接口实例
+     */
+    public <T> T createAsync(final Class<T> asyncInterfaceClass, final Class<?> interfaceClass, final String serviceVersion, final RpcOptions options) {
+        return createProxy(asyncInterfaceClass, interfaceClass, serviceVersion, options);
+    }
+
+    /**
+     * 设置默认的调用选项（可通过配置文件注入）
+     * @param defaultOptions
+     */
+    public void setDefaultOptions(RpcOptions defaultOptions) {
+        this.defaultOptions = defaultOptions;
+    }
+
+    /**
+     * 设置一个批量请求最多合并的请求数（默认为 1，即不合并，见 RpcClient.setBatchSize）
+     * @param batchSize
+     */
+    public void setBatchSize(int batchSize) {
+        rpcClient.setBatchSize(batchSize);
+    }
+
+    /**
+     * 关闭 RPC 客户端持有的所有连接
+     */
+    public void close() {
+        rpcClient.close();
+    }
+
+    /**
+     * 创建代理对象
+     * @param proxyClass 代理对象实现的接口
+     * @param interfaceClass 服务接口（用于确定服务名称）
+     * @param serviceVersion
+     * @param options
+     * @param <T>
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    private <T> T createProxy(final Class<?> proxyClass, final Class<?> interfaceClass, final String serviceVersion, final RpcOptions options) {
+        // 创建代理时确定序列化方式（名称无效时立即失败）
+        final byte serializer = Serializers.get(options.getSerializer()).getId();
+        final LoadBalancer loadBalancer = LoadBalancers.get(options.getLoadBalance());
+        // 缓存每个方法的方法标识（用于查找握手时服务端分配的方法编号）
+        Map<Method, String> methodKeyMap = new ConcurrentHashMap<>();
+        // 缓存每个方法的指标
+        Map<Method, MethodMetrics> methodMetricsMap = new ConcurrentHashMap<>();
+        // 标注了 @RpcCacheable 的方法的结果缓存（流式方法不缓存）
+        Map<Method, ResultCache> resultCacheMap = new HashMap<>();
+        // 开启对冲时，标注了 @RpcIdempotent 的方法的对冲状态（流式方法不对冲，直连时没有其他服务实例）
+        Map<Method, HedgePolicy> hedgePolicyMap = new HashMap<>();
+        // 预热：预先计算方法标识、创建指标并准备参数与返回值类型的序列化信息，第一次调用时不再做这些工作
+        Serializers.prepare(RpcRequest.class, RpcResponse.class, RpcHandshake.class);
+        for (Method method : proxyClass.getMethods()) {
+            String methodKey = RpcHandshake.methodKey(interfaceClass.getName(), serviceVersion, method.getName(), method.getParameterTypes());
+            methodKeyMap.put(method, methodKey);
+            methodMetricsMap.put(method, RpcMetrics.getDefault().methodMetrics(
+                    RpcMetrics.Side.CLIENT, interfaceClass.getName(), serviceVersion, method.getName()));
+            Serializers.prepare(method);
+            if (isStream(method)) {
+                continue;
+            }
+            RpcCacheable cacheable = annotation(method, interfaceClass, RpcCacheable.class);
+            if (cacheable != null) {
+                resultCacheMap.put(method, ResultCache.get(methodKey, cacheable));
+            }
+            if (options.isHedging() && serviceDiscovery != null && annotation(method, interfaceClass, RpcIdempotent.class) != null) {
+                hedgePolicyMap.put(method, HedgePolicy.get(methodKey));
+            }
+        }
         // 使用 CGLIB 动态代理机制
         Enhancer enhancer = new Enhancer();
-        enhancer.setClassLoader(interfaceClass.getClassLoader());
-        enhancer.setSuperclass(interfaceClass);
+        enhancer.setClassLoader(proxyClass.getClassLoader());
+        enhancer.setSuperclass(proxyClass);
         enhancer.setCallback(new MethodInterceptor() {
             /**
              * @param o 被代理的对象（需要增强的对象）
@@ -70,50 +257,113 @@ public class RpcProxy {
              */
             @Override
             public Object intercept(Object o, Method method, Object[] args, MethodProxy methodProxy) throws Throwable {
+                ResultCache resultCache = resultCacheMap.get(method);
+                if (resultCache != null) {
+                    return resultCache.get(args, isAsync(method), () -> call(method, args));
+                }
+                return call(method, args);
+            }
+
+            /**
+             * 发起远程调用
+             * @param method
+             * @param args
+             * @return 同步方法返回结果，异步方法返回 future，流式方法返回迭代器/Stream
+             * @throws Throwable
+             */
+            private Object call(Method method, Object[] args) throws Throwable {
                 // 创建 RPC 请求并设置属性
                 RpcRequest rpcRequest = new RpcRequest();
-                rpcRequest.setRequestId(UUID.randomUUID().toString());
+                rpcRequest.setMethodKey(methodKeyMap.computeIfAbsent(method, key -> RpcHandshake.methodKey(
+                        interfaceClass.getName(), serviceVersion, key.getName(), key.getParameterTypes())));
                 rpcRequest.setMethodName(method.getName());
                 rpcRequest.setParameterTypes(method.getParameterTypes());
                 rpcRequest.setParameters(args);
                 rpcRequest.setInterfaceName(interfaceClass.getName());
                 rpcRequest.setServiceVersion(serviceVersion);
+                rpcRequest.setSerializer(serializer);
+                rpcRequest.setCompressThreshold(options.getCompressThreshold());
+                RpcContext rpcContext = RpcContext.current();
+                attach(rpcRequest, options, rpcContext);
 
-                // 根据服务名称和版本号查询服务地址
-                if (serviceDiscovery != null) {
-                    String serviceName = interfaceClass.getName();
-                    if (serviceVersion != null) {
-                        String service_Version = serviceVersion.trim();
-                        if (!StringUtils.isEmpty(service_Version)) {
-                           serviceName += "-" + service_Version;
-                        }
-                    }
-                    // 获取服务地址（用于建立连接）
-                    serviceAddress = serviceDiscovery.discovery(serviceName);
-                    LOGGER.info("discover service: {} => {}", serviceName, serviceAddress);
+                MethodMetrics metrics = methodMetricsMap.computeIfAbsent(method, key -> RpcMetrics.getDefault().methodMetrics(
+                        RpcMetrics.Side.CLIENT, interfaceClass.getName(), serviceVersion, key.getName()));
+                long startNanos = metrics.begin();
+                long deadlineNanos = deadline(options, rpcContext, startNanos);
+
+                // 获取服务地址（用于建立连接）
+                String serviceAddress;
+                try {
+                    serviceAddress = lookupAddress(interfaceClass, serviceVersion, rpcRequest, loadBalancer, options);
+                } catch (RuntimeException e) {
+                    metrics.end(startNanos, false);
+                    throw e;
                 }
+                long discoveredNanos = options.isTiming() ? System.nanoTime() : 0;
 
-                if (serviceAddress != null) {
-                    serviceAddress = serviceAddress.trim();
-                    if (StringUtils.isEmpty(serviceAddress)) {
-                        throw new RuntimeException("server address is empty");
+                // 流式调用：立即返回迭代器/Stream，元素随服务端的分块到达
+                if (isStream(method)) {
+                    rpcRequest.setInitialCredits(Math.max(options.getStreamWindow(), 1));
+                    RpcStream stream = rpcClient.openStream(serviceAddress, rpcRequest);
+                    metrics.end(startNanos, true);
+                    if (method.getReturnType() == Iterator.class) {
+                        return stream;
                     }
+                    return StreamSupport.stream(Spliterators.spliteratorUnknownSize(stream, Spliterator.ORDERED), false)
+                            .onClose(stream::close);
                 }
 
-                // 从服务地址中解析主机名与端口号
-                String[] array = StringUtils.split(serviceAddress, ":");
-                String host = array[0];
-                int port = Integer.parseInt(array[1]);
-
-                // 创建 RPC 客户端对象，建立连接/发送请求/接收请求
-                RpcClient client = new RpcClient(host, port);
-                long time = System.currentTimeMillis(); // 当前时间
-                RpcResponse rpcResponse = client.send(rpcRequest);
-                System.out.println(rpcResponse);
-                LOGGER.info("time: {}ms", System.currentTimeMillis() - time);
+                // 截止时间只对普通调用生效（已经过期时 RpcClient 立即以超时失败）
+                rpcRequest.setDeadlineNanos(deadlineNanos);
+
+                // 通过 RPC 客户端复用到该服务地址的连接发送请求（幂等方法在响应较慢时向另一个服务实例发送对冲请求）
+                HedgePolicy hedgePolicy = hedgePolicyMap.get(method);
+                CompletableFuture<RpcResponse> responseFuture;
+                try {
+                    responseFuture = hedgePolicy != null
+                            ? sendHedged(hedgePolicy, serviceAddress, rpcRequest, interfaceClass, serviceVersion, loadBalancer, options)
+                            : rpcClient.sendAsync(serviceAddress, rpcRequest);
+                } catch (RuntimeException e) {
+                    metrics.end(startNanos, false);
+                    throw e;
+                }
+
+                // 异步调用：立即返回 future，响应到达时完成
+                if (isAsync(method)) {
+                    CompletableFuture<Object> future = new CompletableFuture<>();
+                    responseFuture.whenComplete((rpcResponse, cause) -> {
+                        metrics.end(startNanos, cause == null && !rpcResponse.hasException());
+                        if (cause == null && options.isTiming()) {
+                            RpcMetrics.getDefault().recordTiming(metrics, timing(rpcRequest, rpcResponse, startNanos, discoveredNanos));
+                        }
+                        if (cause != null) {
+                            future.completeExceptionally(cause);
+                        } else if (rpcResponse.hasException()) {
+                            future.completeExceptionally(rpcResponse.getException());
+                        } else {
+                            future.complete(rpcResponse.getResult());
+                        }
+                    });
+                    return future;
+                }
+
+                // 同步等待响应
+                RpcResponse rpcResponse;
+                try {
+                    rpcResponse = RpcClient.await(responseFuture);
+                } catch (Throwable e) {
+                    metrics.end(startNanos, false);
+                    throw e;
+                }
+                metrics.end(startNanos, rpcResponse != null && !rpcResponse.hasException());
                 if (rpcResponse == null) {
                     throw new RuntimeException("response is null");
                 }
+                if (options.isTiming()) {
+                    CallTiming timing = timing(rpcRequest, rpcResponse, startNanos, discoveredNanos);
+                    rpcContext.setLastTiming(timing);
+                    RpcMetrics.getDefault().recordTiming(metrics, timing);
+                }
                 if (rpcResponse.hasException()) {
                     throw rpcResponse.getException();
                 }
@@ -123,8 +373,376 @@ public class RpcProxy {
             }
         });
 
-        return (T) enhancer.create();
+        T proxy = (T) enhancer.create();
+        if (options.isPreconnect()) {
+            preconnect(interfaceClass, serviceVersion, options);
+        }
+        return proxy;
     }
 
+    /**
+     * 预先建立到服务所有实例的连接（连接和握手在后台完成，服务暂时不可用时忽略）
+     * @param interfaceClass
+     * @param serviceVersion
+     * @param options
+     */
+    private void preconnect(Class<?> interfaceClass, String serviceVersion, RpcOptions options) {
+        if (serviceDiscovery == null) {
+            if (StringUtils.isNotBlank(serviceAddress)) {
+                rpcClient.preconnect(serviceAddress.trim());
+            }
+            return;
+        }
+        List<ServiceInstance> instances;
+        try {
+            instances = discoverInstances(interfaceClass, serviceVersion, options);
+        } catch (RuntimeException e) {
+            LOGGER.debug("skip preconnect: {}", e.getMessage());
+            return;
+        }
+        for (ServiceInstance instance : instances) {
+            if (StringUtils.isNotBlank(instance.getAddress())) {
+                rpcClient.preconnect(instance.getAddress().trim());
+            }
+        }
+    }
+
+    /**
+     * 将当前线程 RpcContext 中的附加信息和调用链编号放入请求（都没有时不创建附加信息）
+     * 处于调用链中时沿用其 traceId，并以当前 spanId 作为这次调用的 parentSpanId
+     * @param rpcRequest
+     * @param options
+     * @param rpcContext
+     */
+    private static void attach(RpcRequest rpcRequest, RpcOptions options, RpcContext rpcContext) {
+        Map<String, String> contextAttachments = rpcContext.getAttachments();
+        String traceId = rpcContext.getTraceId();
+        if (traceId == null && options.isTracing()) {
+            traceId = RpcContext.newId();
+        }
+        if (contextAttachments.isEmpty() && traceId == null && !options.isTiming()) {
+            return;
+        }
+        Map<String, String> attachments = new HashMap<>(contextAttachments);
+        if (traceId != null) {
+            attachments.put(RpcAttachments.TRACE_ID, traceId);
+            attachments.put(RpcAttachments.SPAN_ID, RpcContext.newId());
+            if (rpcContext.getSpanId() != null) {
+                attachments.put(RpcAttachments.PARENT_SPAN_ID, rpcContext.getSpanId());
+            }
+        }
+        if (options.isTiming()) {
+            attachments.put(RpcAttachments.TIMING, "1");
+        }
+        rpcRequest.setAttachments(attachments);
+    }
+
+    /**
+     * 计算这次调用的截止时间：单次调用指定的超时时间优先于调用选项中的超时时间，
+     * 当前线程正在处理的请求带有截止时间时（嵌套调用），不超过该截止时间
+     * @param options
+     * @param rpcContext
+     * @param startNanos 调用开始的时间
+     * @return 截止时间（System.nanoTime），0 表示不限制
+     */
+    private static long deadline(RpcOptions options, RpcContext rpcContext, long startNanos) {
+        long timeout = rpcContext.takeNextCallTimeout();
+        if (timeout <= 0) {
+            timeout = options.getTimeout();
+        }
+        long deadlineNanos = timeout > 0 ? startNanos + TimeUnit.MILLISECONDS.toNanos(timeout) : 0;
+        long inheritedNanos = rpcContext.getDeadlineNanos();
+        if (inheritedNanos != 0 && (deadlineNanos == 0 || inheritedNanos - deadlineNanos < 0)) {
+            deadlineNanos = inheritedNanos;
+        }
+        return deadlineNanos;
+    }
+
+    /**
+     * 根据请求/响应上记录的时间以及服务端返回的耗时计算各阶段的耗时
+     * @param rpcRequest
+     * @param rpcResponse
+     * @param startNanos 调用开始的时间
+     * @param discoveredNanos 服务发现完成的时间
+     * @return
+     */
+    private static CallTiming timing(RpcRequest rpcRequest, RpcResponse rpcResponse, long startNanos, long discoveredNanos) {
+        long endNanos = System.nanoTime();
+        long encodedNanos = rpcRequest.getEncodedNanos();
+        long decodedNanos = rpcResponse.getDecodedNanos();
+        long serverTotalNanos = parseNanos(rpcResponse.getAttachment(RpcAttachments.SERVER_TOTAL_NANOS));
+        return new CallTiming(rpcRequest.getAttachment(RpcAttachments.TRACE_ID), rpcRequest.getAttachment(RpcAttachments.SPAN_ID),
+                endNanos - startNanos, discoveredNanos - startNanos, encodedNanos - discoveredNanos,
+                serverTotalNanos >= 0 ? decodedNanos - encodedNanos - serverTotalNanos : -1,
+                parseNanos(rpcResponse.getAttachment(RpcAttachments.SERVER_QUEUE_NANOS)),
+                parseNanos(rpcResponse.getAttachment(RpcAttachments.SERVER_INVOKE_NANOS)),
+                serverTotalNanos, endNanos - decodedNanos);
+    }
+
+    private static long parseNanos(String value) {
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * 获取方法上的注解（异步接口的方法没有标注时，使用服务接口中对应方法上的注解）
+     * @param method
+     * @param interfaceClass
+     * @param annotationClass
+     * @param <A>
+     * @return
+     */
+    private static <A extends Annotation> A annotation(Method method, Class<?> interfaceClass, Class<A> annotationClass) {
+        A annotation = method.getAnnotation(annotationClass);
+        if (annotation != null || method.getDeclaringClass() == interfaceClass) {
+            return annotation;
+        }
+        try {
+            return interfaceClass.getMethod(method.getName(), method.getParameterTypes()).getAnnotation(annotationClass);
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 发送请求，在对冲延迟内没有收到响应时（且对冲预算充足）向另一个服务实例发送相同的请求
+     * 先完成的请求生效，另一个请求被取消（服务端尚未执行时不再执行）
+     * @param hedgePolicy
+     * @param serviceAddress 原请求的服务地址
+     * @param rpcRequest
+     * @param interfaceClass
+     * @param serviceVersion
+     * @param loadBalancer
+     * @param options
+     * @return
+     */
+    private CompletableFuture<RpcResponse> sendHedged(HedgePolicy hedgePolicy, String serviceAddress,
+                                                      RpcRequest rpcRequest, Class<?> interfaceClass, String serviceVersion,
+                                                      LoadBalancer loadBalancer, RpcOptions options) {
+        long delayNanos = hedgePolicy.delayNanos(options);
+        long startNanos = System.nanoTime();
+        if (delayNanos < 0) {
+            CompletableFuture<RpcResponse> primary = rpcClient.sendAsync(serviceAddress, rpcRequest);
+            primary.whenComplete((rpcResponse, cause) -> hedgePolicy.recordPrimary(System.nanoTime() - startNanos));
+            return primary;
+        }
+        Map<String, String> attachments = rpcRequest.getAttachments() != null ? new HashMap<>(rpcRequest.getAttachments()) : new HashMap<>();
+        attachments.put(RpcAttachments.CANCELLABLE, "1");
+        rpcRequest.setAttachments(attachments);
+        // 发送时会修改请求（如替换为方法编号），对冲请求需要在发送之前复制
+        RpcRequest hedgeRequest = copyRequest(rpcRequest);
+        CompletableFuture<RpcResponse> result = new CompletableFuture<>();
+        CompletableFuture<RpcResponse> primary = rpcClient.sendAsync(serviceAddress, rpcRequest);
+        primary.whenComplete((rpcResponse, cause) -> {
+            // 对冲请求先完成时原请求被取消，记录到取消为止的耗时（原请求耗时的下界）
+            hedgePolicy.recordPrimary(System.nanoTime() - startNanos);
+            complete(result, rpcResponse, cause);
+        });
+        ScheduledFuture<?> hedgeTimer = rpcClient.schedule(() -> {
+            if (result.isDone()) {
+                return;
+            }
+            String hedgeAddress;
+            try {
+                hedgeAddress = lookupAlternateAddress(interfaceClass, serviceVersion, hedgeRequest, loadBalancer, options, serviceAddress);
+            } catch (RuntimeException e) {
+                return;
+            }
+            if (hedgeAddress == null || !hedgePolicy.tryHedge()) {
+                return;
+            }
+            LOGGER.debug("hedge request of {} to {}", rpcRequest.getMethodKey(), hedgeAddress);
+            CompletableFuture<RpcResponse> hedge = rpcClient.sendAsync(hedgeAddress, hedgeRequest);
+            hedge.whenComplete((rpcResponse, cause) -> {
+                if (result.isDone()) {
+                    return;
+                }
+                // 按对冲请求计算各阶段耗时
+                rpcRequest.setEncodedNanos(hedgeRequest.getEncodedNanos());
+                if (complete(result, rpcResponse, cause)) {
+                    hedgePolicy.hedgeWon();
+                }
+            });
+            result.whenComplete((rpcResponse, cause) -> hedge.cancel(false));
+        }, delayNanos);
+        result.whenComplete((rpcResponse, cause) -> {
+            hedgeTimer.cancel(false);
+            primary.cancel(false);
+        });
+        return result;
+    }
+
+    private static boolean complete(CompletableFuture<RpcResponse> future, RpcResponse rpcResponse, Throwable cause) {
+        return cause != null ? future.completeExceptionally(cause) : future.complete(rpcResponse);
+    }
+
+    private static RpcRequest copyRequest(RpcRequest rpcRequest) {
+        RpcRequest copy = new RpcRequest();
+        copy.setMethodKey(rpcRequest.getMethodKey());
+        copy.setMethodName(rpcRequest.getMethodName());
+        copy.setParameterTypes(rpcRequest.getParameterTypes());
+        copy.setParameters(rpcRequest.getParameters());
+        copy.setInterfaceName(rpcRequest.getInterfaceName());
+        copy.setServiceVersion(rpcRequest.getServiceVersion());
+        copy.setSerializer(rpcRequest.getSerializer());
+        copy.setCompressThreshold(rpcRequest.getCompressThreshold());
+        copy.setAttachments(rpcRequest.getAttachments());
+        copy.setDeadlineNanos(rpcRequest.getDeadlineNanos());
+        return copy;
+    }
+
+    /**
+     * 返回值类型可以由 CompletableFuture 赋值（CompletableFuture/CompletionStage/Future）的方法按异步方式调用
+     * @param method
+     * @return
+     */
+    private static boolean isAsync(Method method) {
+        Class<?> returnType = method.getReturnType();
+        return returnType != Object.class && returnType.isAssignableFrom(CompletableFuture.class);
+    }
+
+    /**
+     * 返回值类型为 Iterator 或 Stream 的方法按流式方式调用
+     * @param method
+     * @return
+     */
+    private static boolean isStream(Method method) {
+        Class<?> returnType = method.getReturnType();
+        return returnType == Iterator.class || returnType == Stream.class;
+    }
+
+    /**
+     * 根据服务名称和版本号查询服务的所有实例，并由负载均衡策略选择其中一个的地址
+     * @param interfaceClass
+     * @param serviceVersion
+     * @param rpcRequest
+     * @param loadBalancer
+     * @param options
+     * @return
+     */
+    private String lookupAddress(Class<?> interfaceClass, String serviceVersion, RpcRequest rpcRequest,
+                                 LoadBalancer loadBalancer, RpcOptions options) {
+        String serviceAddress = this.serviceAddress;
+        if (serviceDiscovery != null) {
+            List<ServiceInstance> instances = discoverInstances(interfaceClass, serviceVersion, options);
+            // 最近过载、被熔断或延迟离群的实例暂时不参与选择
+            ServiceInstance instance = loadBalancer.select(AddressStats.excludeUnavailable(instances), rpcRequest, options);
+            applyRegisteredMethodId(rpcRequest, instance);
+            serviceAddress = instance.getAddress();
+            LOGGER.debug("discover service: {} => {}", interfaceClass.getName(), serviceAddress);
+        }
+
+        if (serviceAddress != null) {
+            serviceAddress = serviceAddress.trim();
+            if (StringUtils.isEmpty(serviceAddress)) {
+                throw new RuntimeException("server address is empty");
+            }
+        }
+        return serviceAddress;
+    }
+
+    /**
+     * 由负载均衡策略从 excludeAddress 以外的服务实例中选择一个的地址（用于对冲请求）
+     * @return 没有其他服务实例时返回 null
+     */
+    private String lookupAlternateAddress(Class<?> interfaceClass, String serviceVersion, RpcRequest rpcRequest,
+                                          LoadBalancer loadBalancer, RpcOptions options, String excludeAddress) {
+        List<ServiceInstance> instances = discoverInstances(interfaceClass, serviceVersion, options);
+        List<ServiceInstance> others = new ArrayList<>(instances.size());
+        for (ServiceInstance instance : instances) {
+            if (!excludeAddress.equals(StringUtils.trim(instance.getAddress()))) {
+                others.add(instance);
+            }
+        }
+        if (others.isEmpty()) {
+            return null;
+        }
+        ServiceInstance instance = loadBalancer.select(AddressStats.excludeUnavailable(others), rpcRequest, options);
+        applyRegisteredMethodId(rpcRequest, instance);
+        return StringUtils.trim(instance.getAddress());
+    }
+
+    /**
+     * 服务实例在注册中心中登记了该方法的编号时，把编号放入请求，这样不必等待与该实例的握手完成即可发送
+     * （此时仍保留接口名称、方法名称等，服务端据此核对编号，见 RpcServerHandler）
+     * @param rpcRequest
+     * @param instance
+     */
+    private static void applyRegisteredMethodId(RpcRequest rpcRequest, ServiceInstance instance) {
+        Integer methodId = rpcRequest.getMethodKey() != null ? instance.getMethodIds().get(rpcRequest.getMethodKey()) : null;
+        rpcRequest.setMethodId(methodId != null ? methodId : 0);
+    }
 
+    /**
+     * 根据服务名称和版本号查询服务的所有实例，并按注册中心中的元数据筛选（见 filterInstances）
+     * @param interfaceClass
+     * @param serviceVersion
+     * @param options
+     * @return
+     */
+    private List<ServiceInstance> discoverInstances(Class<?> interfaceClass, String serviceVersion, RpcOptions options) {
+        String serviceName = interfaceClass.getName();
+        if (serviceVersion != null) {
+            String service_Version = serviceVersion.trim();
+            if (!StringUtils.isEmpty(service_Version)) {
+               serviceName += "-" + service_Version;
+            }
+        }
+        List<ServiceInstance> instances = serviceDiscovery.discoverAll(serviceName);
+        if (instances == null || instances.isEmpty()) {
+            throw new RuntimeException(String.format("can not find any instance of service: %s", serviceName));
+        }
+        List<ServiceInstance> compatible = filterInstances(instances, options);
+        if (compatible.isEmpty()) {
+            throw new RuntimeException(String.format("can not find any instance of service %s supporting protocol %d and serializer %s",
+                    serviceName, RpcProtocol.VERSION, options.getSerializer()));
+        }
+        return compatible;
+    }
+
+    /**
+     * 去掉协议版本不同或不支持本次调用的序列化方式的实例（没有登记这些元数据的旧版服务端视为兼容），
+     * 指定了 RpcOptions.zone 时只保留同一区域的实例（同一区域没有兼容的实例时不限区域）
+     * 所有实例都符合条件时返回原来的列表
+     * @param instances
+     * @param options
+     * @return
+     */
+    private static List<ServiceInstance> filterInstances(List<ServiceInstance> instances, RpcOptions options) {
+        String zone = options.getZone();
+        int compatibleCount = 0;
+        int sameZoneCount = 0;
+        boolean[] compatible = new boolean[instances.size()];
+        for (int i = 0; i < instances.size(); i++) {
+            ServiceInstance instance = instances.get(i);
+            int protocolVersion = instance.getProtocolVersion();
+            List<String> serializers = instance.getSerializers();
+            if ((protocolVersion == 0 || protocolVersion == RpcProtocol.VERSION)
+                    && (serializers.isEmpty() || serializers.contains(options.getSerializer()))) {
+                compatible[i] = true;
+                compatibleCount++;
+                if (zone != null && zone.equals(instance.getZone())) {
+                    sameZoneCount++;
+                }
+            }
+        }
+        boolean byZone = sameZoneCount > 0 && sameZoneCount < compatibleCount;
+        int count = byZone ? sameZoneCount : compatibleCount;
+        if (count == instances.size()) {
+            return instances;
+        }
+        List<ServiceInstance> filtered = new ArrayList<>(count);
+        for (int i = 0; i < instances.size(); i++) {
+            if (compatible[i] && (!byZone || zone.equals(instances.get(i).getZone()))) {
+                filtered.add(instances.get(i));
+            }
+        }
+        return filtered;
+    }
 }
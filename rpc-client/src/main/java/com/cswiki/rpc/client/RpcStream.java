@@ -0,0 +1,162 @@
+package com.cswiki.rpc.client;
+
+import com.cswiki.entity.RpcResponse;
+import com.cswiki.entity.RpcStreamChunk;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * 客户端的流式响应（阻塞迭代器）
+ * I/O 线程把收到的元素放入缓冲队列，调用方迭代时从队列中取出；每消费半个窗口的元素就向服务端授予相应的信用，
+ * 因此缓冲队列中的元素数不会超过窗口大小，慢消费者不会被大量数据淹没
+ * 不再迭代时应调用 close，通知服务端停止发送
+ */
+public class RpcStream implements Iterator<Object>, AutoCloseable {
+
+    // 流结束标记
+    private static final Object END = new Object();
+
+    // 表示元素为 null（阻塞队列中不能存放 null）
+    private static final Object NULL = new Object();
+
+    // 窗口大小（服务端已发送但未被消费的元素数的上限）
+    private final int window;
+
+    // 已收到但未被消费的元素
+    private final BlockingQueue<Object> items = new LinkedBlockingQueue<>();
+
+    // 服务端返回的异常或连接异常
+    private volatile Throwable error;
+
+    // 所属的连接处理器（请求发出后设置）
+    private volatile RpcClientHandler handler;
+
+    private volatile long requestId;
+
+    // 是否已被调用方取消
+    private volatile boolean cancelled;
+
+    // 以下字段只由迭代线程访问
+    private Object next;
+    private boolean done;
+    private int consumed; // 上次授予信用之后消费的元素数
+
+    public RpcStream(int window) {
+        this.window = window;
+    }
+
+    public int getWindow() {
+        return window;
+    }
+
+    boolean isCancelled() {
+        return cancelled;
+    }
+
+    void attach(RpcClientHandler handler, long requestId) {
+        this.handler = handler;
+        this.requestId = requestId;
+    }
+
+    void onChunk(RpcStreamChunk chunk) {
+        if (chunk.getItems() != null) {
+            for (Object item : chunk.getItems()) {
+                items.offer(item != null ? item : NULL);
+            }
+        }
+        if (chunk.isLast()) {
+            error = chunk.getException();
+            items.offer(END);
+        }
+    }
+
+    /**
+     * 服务端以普通响应回复（如找不到服务方法、服务端繁忙，或返回值不是 Iterator/Stream）
+     * @param rpcResponse
+     */
+    void onResponse(RpcResponse rpcResponse) {
+        if (rpcResponse.hasException()) {
+            error = rpcResponse.getException();
+        } else if (rpcResponse.getResult() instanceof Collection) {
+            for (Object item : (Collection<?>) rpcResponse.getResult()) {
+                items.offer(item != null ? item : NULL);
+            }
+        } else if (rpcResponse.getResult() != null) {
+            items.offer(rpcResponse.getResult());
+        }
+        items.offer(END);
+    }
+
+    void fail(Throwable cause) {
+        error = cause;
+        items.offer(END);
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next != null) {
+            return true;
+        }
+        if (done) {
+            return false;
+        }
+        Object item;
+        try {
+            item = items.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            close();
+            throw new RuntimeException("stream interrupted", e);
+        }
+        if (item == END) {
+            done = true;
+            Throwable cause = error;
+            if (cause != null) {
+                throw cause instanceof RuntimeException ? (RuntimeException) cause : new RuntimeException(cause.getMessage(), cause);
+            }
+            return false;
+        }
+        next = item;
+        // 每消费半个窗口的元素授予一次信用，避免每个元素都发送一条信用消息
+        if (++consumed >= Math.max(window / 2, 1)) {
+            RpcClientHandler handler = this.handler;
+            if (handler != null) {
+                handler.grant(requestId, consumed);
+            }
+            consumed = 0;
+        }
+        return true;
+    }
+
+    @Override
+    public Object next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Object item = next;
+        next = null;
+        return item == NULL ? null : item;
+    }
+
+    /**
+     * 取消流（尚未结束时通知服务端停止发送）
+     */
+    @Override
+    public void close() {
+        if (done) {
+            return;
+        }
+        done = true;
+        next = null;
+        cancelled = true;
+        RpcClientHandler handler = this.handler;
+        if (handler != null) {
+            handler.cancel(requestId);
+        }
+        items.clear();
+    }
+}
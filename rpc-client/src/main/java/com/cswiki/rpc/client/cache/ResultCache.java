@@ -0,0 +1,207 @@
+package com.cswiki.rpc.client.cache;
+
+import com.cswiki.annotation.RpcCacheable;
+import com.cswiki.metrics.RpcMetrics;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * 单个服务方法的客户端结果缓存（见 @RpcCacheable）
+ * 按参数缓存结果，超过有效时间后重新调用；缓存的结果数超过上限时淘汰最久未被访问的结果（LRU）
+ * 同一参数的并发未命中只发起一次远程调用，其他调用方等待这次调用的结果；调用失败时不缓存
+ */
+public class ResultCache {
+
+    // 存储方法标识（见 RpcHandshake.methodKey）与结果缓存之间的映射关系（同一方法的所有代理共享缓存）
+    private static final Map<String, ResultCache> CACHE_MAP = new ConcurrentHashMap<>();
+
+    private final long ttlNanos;
+
+    private final int maxSize;
+
+    // 参数 -> 结果（按访问顺序排列，由 this 保护）
+    private final LinkedHashMap<Key, CachedResult> entries;
+
+    // 以下统计由 this 保护
+    private long hits;
+
+    private long misses;
+
+    private long evictions;
+
+    private ResultCache(long ttl, int maxSize) {
+        if (ttl <= 0 || maxSize <= 0) {
+            throw new IllegalArgumentException(String.format("invalid cache settings: ttl=%d, maxSize=%d", ttl, maxSize));
+        }
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttl);
+        this.maxSize = maxSize;
+        this.entries = new LinkedHashMap<Key, CachedResult>(16, 0.75F, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, CachedResult> eldest) {
+                if (size() > ResultCache.this.maxSize) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * 获取方法的结果缓存（不存在时创建，并将命中数、未命中数、淘汰数和缓存的结果数注册为 RpcMetrics 的指标）
+     * @param methodKey 方法标识
+     * @param cacheable 方法上的缓存注解
+     * @return
+     */
+    public static ResultCache get(String methodKey, RpcCacheable cacheable) {
+        return CACHE_MAP.computeIfAbsent(methodKey, key -> {
+            ResultCache cache = new ResultCache(cacheable.ttl(), cacheable.maxSize());
+            String prefix = "client.cache." + key;
+            RpcMetrics.getDefault().registerGauge(prefix + ".hits", cache::getHits);
+            RpcMetrics.getDefault().registerGauge(prefix + ".misses", cache::getMisses);
+            RpcMetrics.getDefault().registerGauge(prefix + ".evictions", cache::getEvictions);
+            RpcMetrics.getDefault().registerGauge(prefix + ".size", cache::size);
+            return cache;
+        });
+    }
+
+    /**
+     * 获取参数对应的结果，没有有效的结果时由 loader 发起远程调用
+     * @param args 方法参数
+     * @param async 是否为异步方法（loader 返回 CompletableFuture，本方法也返回一个新的 CompletableFuture）
+     * @param loader 发起远程调用
+     * @return 同步方法返回结果（调用失败时抛出原异常），异步方法返回结果的 future
+     * @throws Throwable
+     */
+    public Object get(Object[] args, boolean async, Loader loader) throws Throwable {
+        Key key = new Key(args);
+        CachedResult entry;
+        boolean loading = false;
+        synchronized (this) {
+            entry = entries.get(key);
+            if (entry != null && entry.isExpired(System.nanoTime())) {
+                entries.remove(key);
+                entry = null;
+            }
+            if (entry == null) {
+                entry = new CachedResult();
+                entries.put(key, entry);
+                loading = true;
+                misses++;
+            } else {
+                hits++;
+            }
+        }
+        if (loading) {
+            CachedResult loadingEntry = entry;
+            try {
+                Object result = loader.load();
+                if (async) {
+                    ((CompletableFuture<?>) result).whenComplete((value, cause) -> complete(key, loadingEntry, value, cause));
+                } else {
+                    complete(key, entry, result, null);
+                }
+            } catch (Throwable e) {
+                complete(key, entry, null, e);
+                throw e;
+            }
+        }
+        if (async) {
+            // 返回新的 future，避免调用方完成共享的 future
+            return entry.future.thenApply(Function.identity());
+        }
+        try {
+            return entry.future.get();
+        } catch (ExecutionException e) {
+            throw e.getCause();
+        }
+    }
+
+    private void complete(Key key, CachedResult entry, Object value, Throwable cause) {
+        if (cause != null) {
+            synchronized (this) {
+                entries.remove(key, entry);
+            }
+            entry.future.completeExceptionally(cause);
+            return;
+        }
+        entry.expireNanos = System.nanoTime() + ttlNanos;
+        entry.future.complete(value);
+    }
+
+    /**
+     * 清空缓存的所有结果（正在进行的调用不受影响）
+     */
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * 发起远程调用
+     */
+    public interface Loader {
+        Object load() throws Throwable;
+    }
+
+    /**
+     * 缓存键：按值比较参数（包括数组参数）
+     */
+    private static final class Key {
+
+        private final Object[] args;
+
+        private final int hashCode;
+
+        Key(Object[] args) {
+            this.args = args != null ? args.clone() : new Object[0];
+            this.hashCode = Arrays.deepHashCode(this.args);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key && Arrays.deepEquals(args, ((Key) o).args);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
+    /**
+     * 缓存的结果（调用完成之前 future 未完成，不会过期）
+     */
+    private static final class CachedResult {
+
+        private final CompletableFuture<Object> future = new CompletableFuture<>();
+
+        private volatile long expireNanos;
+
+        boolean isExpired(long now) {
+            return future.isDone() && now - expireNanos >= 0;
+        }
+    }
+}
@@ -0,0 +1,270 @@
+package com.cswiki.rpc.client.loadbalance;
+
+import com.cswiki.rpc.registry.ServiceInstance;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 单个服务地址的调用统计（由 RpcClient 在请求开始和结束时更新，供负载均衡策略使用）
+ * 同时维护该地址的熔断器（见 CircuitBreaker），选择服务实例之前先去掉不可用的地址（见 excludeUnavailable）
+ * 服务发现的结果中每次都会经过 get，长时间没有被访问（已经不在服务发现的结果中）且没有进行中请求的地址被定期清除
+ */
+public class AddressStats {
+
+    // 存储服务地址与其调用统计之间的映射关系
+    private static final Map<String, AddressStats> STATS_MAP = new ConcurrentHashMap<>();
+
+    // 延迟 EWMA 的衰减时间常数（纳秒）：越早的样本权重越低，约 1 秒前的样本权重降为 1/e
+    private static final double DECAY_NANOS = 1_000_000_000D;
+
+    // 每个新样本的最小权重（请求很密集时，时间衰减几乎为 0，仍需让新样本生效）
+    private static final double MIN_SAMPLE_WEIGHT = 0.1;
+
+    // 服务端返回过载后避开该地址的时间（纳秒）
+    private static final long OVERLOAD_BACKOFF_NANOS = 1_000_000_000L;
+
+    // 延迟超过同一服务所有地址延迟中位数的该倍数时视为离群节点
+    private static final double OUTLIER_LATENCY_FACTOR = 3;
+
+    // 离群节点的延迟至少要达到该值（纳秒），避免在延迟都很低时因抖动剔除节点
+    private static final double MIN_OUTLIER_LATENCY_NANOS = 10_000_000D;
+
+    // 参与离群检测至少需要的请求数
+    private static final long MIN_OUTLIER_REQUESTS = 20;
+
+    // 地址超过该时间（纳秒）没有被访问时清除其调用统计（大于熔断器的最长剔除时间）
+    private static final long IDLE_NANOS = 10 * 60 * 1_000_000_000L;
+
+    // 检查并清除空闲地址的间隔（纳秒）
+    private static final long SWEEP_INTERVAL_NANOS = 60 * 1_000_000_000L;
+
+    // 上次检查空闲地址的时间
+    private static final AtomicLong LAST_SWEEP_NANOS = new AtomicLong(System.nanoTime());
+
+    private final String address;
+
+    // 正在进行中的请求数
+    private final AtomicInteger active = new AtomicInteger();
+
+    // 请求总数
+    private final AtomicLong total = new AtomicLong();
+
+    // 失败的请求数
+    private final AtomicLong failed = new AtomicLong();
+
+    // 延迟的指数加权移动平均值（纳秒）
+    private double ewmaNanos;
+
+    // 上次更新 EWMA 的时间
+    private long lastUpdateNanos = System.nanoTime();
+
+    // 在此时间之前视为过载（0 表示没有过载过）
+    private volatile long overloadedUntilNanos;
+
+    // 最近一次被访问（get）的时间
+    private volatile long lastAccessNanos = System.nanoTime();
+
+    private final CircuitBreaker breaker;
+
+    private AddressStats(String address) {
+        this.address = address;
+        this.breaker = new CircuitBreaker(address);
+    }
+
+    /**
+     * 获取服务地址的调用统计（不存在时创建）
+     * @param address
+     * @return
+     */
+    public static AddressStats get(String address) {
+        long now = System.nanoTime();
+        long lastSweep = LAST_SWEEP_NANOS.get();
+        if (now - lastSweep >= SWEEP_INTERVAL_NANOS && LAST_SWEEP_NANOS.compareAndSet(lastSweep, now)) {
+            sweep(now);
+        }
+        AddressStats stats = STATS_MAP.computeIfAbsent(address, AddressStats::new);
+        // 同一秒内不重复写入，减少 volatile 写
+        if (now - stats.lastAccessNanos >= 1_000_000_000L) {
+            stats.lastAccessNanos = now;
+        }
+        return stats;
+    }
+
+    /**
+     * 清除空闲地址的调用统计（之后再次访问时重新创建，统计从零开始）
+     * @param now
+     */
+    private static void sweep(long now) {
+        STATS_MAP.values().removeIf(stats -> stats.active.get() == 0 && now - stats.lastAccessNanos >= IDLE_NANOS);
+    }
+
+    /**
+     * 请求开始
+     * @return 请求结束时传给 end/overloaded 的凭证（见 CircuitBreaker.onBegin）
+     */
+    public long begin() {
+        active.incrementAndGet();
+        return breaker.onBegin();
+    }
+
+    /**
+     * 请求结束
+     * @param ticket begin 返回的凭证
+     * @param elapsedNanos 请求耗时
+     * @param succeeded 是否成功（收到响应即视为成功，包括业务异常）
+     */
+    public void end(long ticket, long elapsedNanos, boolean succeeded) {
+        active.decrementAndGet();
+        total.incrementAndGet();
+        if (!succeeded) {
+            failed.incrementAndGet();
+        }
+        updateEwma(elapsedNanos);
+        breaker.onEnd(ticket, succeeded);
+    }
+
+    /**
+     * 请求因服务端过载被拒绝而结束
+     * 拒绝的响应很快，不计入延迟（否则过载的节点反而显得延迟更低），而是在一段时间内将该地址视为过载
+     * @param ticket begin 返回的凭证
+     */
+    public void overloaded(long ticket) {
+        active.decrementAndGet();
+        total.incrementAndGet();
+        failed.incrementAndGet();
+        overloadedUntilNanos = System.nanoTime() + OVERLOAD_BACKOFF_NANOS;
+        // 过载由上面的退避处理，对熔断器而言该地址仍然可达
+        breaker.onEnd(ticket, true);
+    }
+
+    /**
+     * @return 最近是否收到过该地址返回的过载响应
+     */
+    public boolean isOverloaded() {
+        long until = overloadedUntilNanos;
+        return until != 0 && until - System.nanoTime() > 0;
+    }
+
+    /**
+     * 该地址当前是否可以参与负载均衡（没有过载，熔断器没有打开，半开状态下没有正在进行的探测请求）
+     * @return
+     */
+    public boolean isAvailable() {
+        return !isOverloaded() && breaker.isAvailable();
+    }
+
+    /**
+     * 去掉不可用的服务实例（全部不可用时原样返回，仍由负载均衡策略从中选择）
+     * 至少有 3 个实例时还会剔除延迟明显高于其他实例的离群节点，但被剔除的实例不超过一半
+     * @param instances
+     * @return
+     */
+    public static List<ServiceInstance> excludeUnavailable(List<ServiceInstance> instances) {
+        int size = instances.size();
+        if (size == 1) {
+            return instances;
+        }
+        AddressStats[] stats = new AddressStats[size];
+        boolean[] unavailable = new boolean[size];
+        int unavailableCount = 0;
+        for (int i = 0; i < size; i++) {
+            stats[i] = get(instances.get(i).getAddress());
+            if (!stats[i].isAvailable()) {
+                unavailable[i] = true;
+                unavailableCount++;
+            }
+        }
+        if (size >= 3 && unavailableCount < size / 2) {
+            unavailableCount += ejectOutliers(stats, unavailable, size / 2 - unavailableCount);
+        }
+        if (unavailableCount == 0 || unavailableCount == size) {
+            return instances;
+        }
+        List<ServiceInstance> available = new ArrayList<>(size - unavailableCount);
+        for (int i = 0; i < size; i++) {
+            if (!unavailable[i]) {
+                available.add(instances.get(i));
+            }
+        }
+        return available;
+    }
+
+    /**
+     * 剔除延迟超过可用实例延迟中位数 OUTLIER_LATENCY_FACTOR 倍的实例（只比较请求数不少于 MIN_OUTLIER_REQUESTS 的实例，
+     * 这样的实例少于 3 个时不剔除）
+     * @param stats
+     * @param unavailable 不可用的实例（被剔除的实例也会被标记）
+     * @param maxEjections 最多剔除的实例数
+     * @return 剔除的实例数
+     */
+    private static int ejectOutliers(AddressStats[] stats, boolean[] unavailable, int maxEjections) {
+        double[] latencies = new double[stats.length];
+        int count = 0;
+        for (int i = 0; i < stats.length; i++) {
+            if (!unavailable[i] && stats[i].getTotal() >= MIN_OUTLIER_REQUESTS) {
+                latencies[count++] = stats[i].getEwmaNanos();
+            }
+        }
+        if (count < 3) {
+            return 0;
+        }
+        Arrays.sort(latencies, 0, count);
+        double threshold = Math.max(latencies[count / 2] * OUTLIER_LATENCY_FACTOR, MIN_OUTLIER_LATENCY_NANOS);
+        int ejected = 0;
+        for (int i = 0; i < stats.length && ejected < maxEjections; i++) {
+            if (unavailable[i] || stats[i].getTotal() < MIN_OUTLIER_REQUESTS) {
+                continue;
+            }
+            double latency = stats[i].getEwmaNanos();
+            if (latency > threshold) {
+                stats[i].breaker.eject(String.format("latency %.1fms exceeds %.1fms", latency / 1e6, threshold / 1e6));
+                unavailable[i] = true;
+                ejected++;
+            }
+        }
+        return ejected;
+    }
+
+    private synchronized void updateEwma(long elapsedNanos) {
+        long now = System.nanoTime();
+        double weight = Math.min(Math.exp(-(now - lastUpdateNanos) / DECAY_NANOS), 1 - MIN_SAMPLE_WEIGHT);
+        lastUpdateNanos = now;
+        // 没有历史样本时直接使用本次耗时
+        ewmaNanos = ewmaNanos == 0 ? elapsedNanos : ewmaNanos * weight + elapsedNanos * (1 - weight);
+    }
+
+    public String getAddress() {
+        return address;
+    }
+
+    public int getActive() {
+        return active.get();
+    }
+
+    public long getTotal() {
+        return total.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    public CircuitBreaker getBreaker() {
+        return breaker;
+    }
+
+    /**
+     * 延迟的 EWMA（纳秒）
+     * 读取时按距上次更新的时间向 0 衰减，因此一段时间没有被选中的慢节点会重新获得请求，从而更新其延迟
+     * @return
+     */
+    public synchronized double getEwmaNanos() {
+        return ewmaNanos * Math.exp(-(System.nanoTime() - lastUpdateNanos) / DECAY_NANOS);
+    }
+}
@@ -0,0 +1,200 @@
+package com.cswiki.rpc.client.loadbalance;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 单个服务地址的熔断器（由 AddressStats 在请求开始和结束时更新）
+ * CLOSED：正常参与负载均衡，以下任一条件满足时打开（暂时从候选列表中剔除该地址）：
+ *   连续失败 CONSECUTIVE_FAILURES 次；最近 WINDOW_SECONDS 秒内请求数不少于 MIN_REQUESTS 且失败率不低于 FAILURE_RATE；
+ *   延迟明显高于同一服务的其他地址（见 AddressStats.excludeUnavailable）
+ * OPEN：剔除时间结束后进入 HALF_OPEN，恢复后短时间内再次被剔除时剔除时间逐次翻倍（不超过 MAX_EJECTION_NANOS）
+ * HALF_OPEN：一次只放行一个探测请求，连续 PROBE_SUCCESSES 次成功后关闭，探测失败则重新打开
+ * 失败指没有收到响应（连接失败、连接断开、超时），服务方法抛出的异常不算失败
+ * 每次状态变化时代数加一，在上次状态变化之前开始的请求（如剔除时仍在进行的请求）结束时不影响熔断器，
+ * 半开状态下也只有探测请求的结果有效
+ */
+public class CircuitBreaker {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CircuitBreaker.class);
+
+    // 连续失败多少次后打开
+    private static final int CONSECUTIVE_FAILURES = 5;
+
+    // 统计失败率的时间窗口（秒，每秒一个桶）
+    private static final int WINDOW_SECONDS = 10;
+
+    // 时间窗口内至少需要的请求数（请求太少时失败率没有意义）
+    private static final int MIN_REQUESTS = 20;
+
+    // 失败率达到该值时打开
+    private static final double FAILURE_RATE = 0.5;
+
+    // 第一次被剔除的时间（纳秒）
+    private static final long BASE_EJECTION_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+    // 剔除时间的上限（纳秒）
+    private static final long MAX_EJECTION_NANOS = TimeUnit.SECONDS.toNanos(60);
+
+    // 半开状态下连续成功多少次后关闭
+    private static final int PROBE_SUCCESSES = 3;
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final String address;
+
+    // 以下字段由 this 保护
+    private State state = State.CLOSED;
+
+    private long openUntilNanos;
+
+    private int ejections; // 连续被剔除的次数（关闭后持续 MAX_EJECTION_NANOS 没有再被剔除时清零）
+
+    private long closedNanos; // 上次关闭的时间
+
+    private long generation; // 状态变化的次数
+
+    private boolean probing; // 半开状态下是否有探测请求正在进行
+
+    private int probeSuccesses;
+
+    private int consecutiveFailures;
+
+    private final long[] bucketSeconds = new long[WINDOW_SECONDS];
+
+    private final long[] bucketRequests = new long[WINDOW_SECONDS];
+
+    private final long[] bucketFailures = new long[WINDOW_SECONDS];
+
+    CircuitBreaker(String address) {
+        this.address = address;
+    }
+
+    /**
+     * 该地址当前是否可以参与负载均衡（剔除时间结束时转为半开状态）
+     * @return
+     */
+    public synchronized boolean isAvailable() {
+        if (state == State.OPEN) {
+            if (System.nanoTime() - openUntilNanos < 0) {
+                return false;
+            }
+            state = State.HALF_OPEN;
+            generation++;
+            probing = false;
+            probeSuccesses = 0;
+            LOGGER.info("probe address: {}", address);
+        }
+        return state == State.CLOSED || !probing;
+    }
+
+    /**
+     * 请求开始（半开状态下没有进行中的探测请求时作为探测请求）
+     * @return 请求结束时传给 onEnd 的凭证（开始时的代数，以及是否为探测请求）
+     */
+    synchronized long onBegin() {
+        boolean probe = state == State.HALF_OPEN && !probing;
+        if (probe) {
+            probing = true;
+        }
+        return generation << 1 | (probe ? 1 : 0);
+    }
+
+    /**
+     * 请求结束
+     * @param ticket onBegin 返回的凭证
+     * @param succeeded 是否收到响应
+     */
+    synchronized void onEnd(long ticket, boolean succeeded) {
+        if (ticket >>> 1 != generation) {
+            // 请求在上次状态变化之前开始，其结果不能说明当前的状态
+            return;
+        }
+        if (state == State.HALF_OPEN) {
+            if ((ticket & 1) == 0) {
+                return;
+            }
+            probing = false;
+            if (!succeeded) {
+                open("probe failed");
+            } else if (++probeSuccesses >= PROBE_SUCCESSES) {
+                close();
+            }
+            return;
+        }
+        if (state != State.CLOSED) {
+            return;
+        }
+        long second = TimeUnit.NANOSECONDS.toSeconds(System.nanoTime());
+        int index = (int) Math.floorMod(second, (long) WINDOW_SECONDS);
+        if (bucketSeconds[index] != second) {
+            bucketSeconds[index] = second;
+            bucketRequests[index] = 0;
+            bucketFailures[index] = 0;
+        }
+        bucketRequests[index]++;
+        if (succeeded) {
+            consecutiveFailures = 0;
+            return;
+        }
+        bucketFailures[index]++;
+        if (++consecutiveFailures >= CONSECUTIVE_FAILURES) {
+            open(String.format("%d consecutive failures", consecutiveFailures));
+            return;
+        }
+        long requests = 0;
+        long failures = 0;
+        for (int i = 0; i < WINDOW_SECONDS; i++) {
+            if (second - bucketSeconds[i] < WINDOW_SECONDS) {
+                requests += bucketRequests[i];
+                failures += bucketFailures[i];
+            }
+        }
+        if (requests >= MIN_REQUESTS && failures >= requests * FAILURE_RATE) {
+            open(String.format("%d of %d requests failed in %ds", failures, requests, WINDOW_SECONDS));
+        }
+    }
+
+    /**
+     * 作为离群节点剔除（只在关闭状态下生效）
+     * @param reason
+     */
+    synchronized void eject(String reason) {
+        if (state == State.CLOSED) {
+            open(reason);
+        }
+    }
+
+    private void open(String reason) {
+        long now = System.nanoTime();
+        if (state == State.CLOSED && ejections > 0 && now - closedNanos > MAX_EJECTION_NANOS) {
+            ejections = 0;
+        }
+        long ejectionNanos = Math.min(BASE_EJECTION_NANOS << Math.min(ejections, 10), MAX_EJECTION_NANOS);
+        ejections++;
+        state = State.OPEN;
+        generation++;
+        openUntilNanos = now + ejectionNanos;
+        consecutiveFailures = 0;
+        Arrays.fill(bucketSeconds, 0);
+        Arrays.fill(bucketRequests, 0);
+        Arrays.fill(bucketFailures, 0);
+        LOGGER.warn("eject address {} for {}ms: {}", address, TimeUnit.NANOSECONDS.toMillis(ejectionNanos), reason);
+    }
+
+    private void close() {
+        state = State.CLOSED;
+        generation++;
+        closedNanos = System.nanoTime();
+        LOGGER.info("address recovered: {}", address);
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+}
@@ -0,0 +1,122 @@
+package com.cswiki.rpc.client.loadbalance;
+
+import com.cswiki.entity.RpcRequest;
+import com.cswiki.rpc.client.RpcOptions;
+import com.cswiki.rpc.registry.ServiceInstance;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 一致性哈希：按指定参数（RpcOptions.hashArgument）的值选择服务实例，参数相同的请求总是发往同一个实例，
+ * 便于利用服务端的本地缓存；实例增减时只有少部分参数会映射到其他实例
+ */
+public class ConsistentHashLoadBalancer implements LoadBalancer {
+
+    // 每个服务实例在哈希环上的虚拟节点数
+    private static final int VIRTUAL_NODES = 160;
+
+    // 存储服务名称与其哈希环之间的映射关系（出现环上没有的实例时重建）
+    private final Map<String, HashRing> ringMap = new ConcurrentHashMap<>();
+
+    @Override
+    public String getName() {
+        return "consistenthash";
+    }
+
+    @Override
+    public ServiceInstance select(List<ServiceInstance> instances, RpcRequest rpcRequest, RpcOptions options) {
+        if (instances.size() == 1) {
+            return instances.get(0);
+        }
+        Map<String, ServiceInstance> instanceMap = new HashMap<>(instances.size() * 2);
+        for (ServiceInstance instance : instances) {
+            instanceMap.put(instance.getAddress(), instance);
+        }
+        String serviceName = rpcRequest.getInterfaceName() + "-" + rpcRequest.getServiceVersion();
+        HashRing ring = ringMap.get(serviceName);
+        // 列表中只是缺少部分实例（如被熔断排除）时沿用原来的环，查找时跳过不在列表中的实例，结果与按列表重建的环相同
+        if (ring == null || !ring.addresses.containsAll(instanceMap.keySet())) {
+            ring = new HashRing(instanceMap.keySet());
+            ringMap.put(serviceName, ring);
+        }
+        return instanceMap.get(ring.select(hashKey(rpcRequest.getParameters(), options.getHashArgument()), instanceMap.keySet()));
+    }
+
+    private static String hashKey(Object[] parameters, int hashArgument) {
+        if (parameters == null || hashArgument < 0 || hashArgument >= parameters.length) {
+            return "";
+        }
+        Object argument = parameters[hashArgument];
+        return argument instanceof Object[] ? Arrays.deepToString((Object[]) argument) : Objects.toString(argument);
+    }
+
+    /**
+     * 哈希环（虚拟节点只记录服务地址）
+     */
+    private static class HashRing {
+
+        private final Set<String> addresses;
+
+        private final TreeMap<Long, String> virtualNodes = new TreeMap<>();
+
+        HashRing(Set<String> addresses) {
+            this.addresses = new HashSet<>(addresses);
+            for (String address : addresses) {
+                // 每次 MD5 得到 16 字节，可以切分出 4 个虚拟节点的哈希值
+                for (int i = 0; i < VIRTUAL_NODES / 4; i++) {
+                    byte[] digest = md5(address + "#" + i);
+                    for (int j = 0; j < 4; j++) {
+                        virtualNodes.put(hash(digest, j), address);
+                    }
+                }
+            }
+        }
+
+        /**
+         * 从 key 的哈希值开始顺时针查找第一个可用的服务地址
+         * @param key
+         * @param available 可用的服务地址（环上地址的非空子集）
+         * @return
+         */
+        String select(String key, Set<String> available) {
+            long hash = hash(md5(key), 0);
+            for (String address : virtualNodes.tailMap(hash, true).values()) {
+                if (available.contains(address)) {
+                    return address;
+                }
+            }
+            for (String address : virtualNodes.headMap(hash, false).values()) {
+                if (available.contains(address)) {
+                    return address;
+                }
+            }
+            throw new IllegalStateException("no available address on hash ring");
+        }
+    }
+
+    private static long hash(byte[] digest, int index) {
+        return ((long) (digest[3 + index * 4] & 0xFF) << 24)
+                | ((long) (digest[2 + index * 4] & 0xFF) << 16)
+                | ((long) (digest[1 + index * 4] & 0xFF) << 8)
+                | (digest[index * 4] & 0xFF);
+    }
+
+    private static byte[] md5(String value) {
+        try {
+            return MessageDigest.getInstance("MD5").digest(value.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.cswiki.rpc.client.loadbalance;
+
+import com.cswiki.entity.RpcRequest;
+import com.cswiki.rpc.client.RpcOptions;
+import com.cswiki.rpc.registry.ServiceInstance;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 最少活跃请求：选择进行中请求数最少的服务实例（处理得越快的实例积压越少，分到的请求越多）
+ * 进行中请求数相同的实例按权重随机选择
+ */
+public class LeastActiveLoadBalancer implements LoadBalancer {
+
+    @Override
+    public String getName() {
+        return "leastactive";
+    }
+
+    @Override
+    public ServiceInstance select(List<ServiceInstance> instances, RpcRequest rpcRequest, RpcOptions options) {
+        int size = instances.size();
+        if (size == 1) {
+            return instances.get(0);
+        }
+        int leastActive = Integer.MAX_VALUE;
+        int leastCount = 0;
+        int[] leastIndexes = new int[size];
+        int[] weights = new int[size];
+        int totalWeight = 0;
+        for (int i = 0; i < size; i++) {
+            ServiceInstance instance = instances.get(i);
+            int active = AddressStats.get(instance.getAddress()).getActive();
+            int weight = LoadBalancer.weight(instance, options);
+            weights[i] = weight;
+            if (active < leastActive) {
+                leastActive = active;
+                leastCount = 0;
+                totalWeight = 0;
+            }
+            if (active == leastActive) {
+                leastIndexes[leastCount++] = i;
+                totalWeight += weight;
+            }
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (leastCount == 1 || totalWeight <= 0) {
+            return instances.get(leastIndexes[random.nextInt(leastCount)]);
+        }
+        int offset = random.nextInt(totalWeight);
+        for (int i = 0; i < leastCount; i++) {
+            offset -= weights[leastIndexes[i]];
+            if (offset < 0) {
+                return instances.get(leastIndexes[i]);
+            }
+        }
+        return instances.get(leastIndexes[0]);
+    }
+}
@@ -0,0 +1,53 @@
+package com.cswiki.rpc.client.loadbalance;
+
+import com.cswiki.entity.RpcRequest;
+import com.cswiki.rpc.client.RpcOptions;
+import com.cswiki.rpc.registry.ServiceInstance;
+
+import java.util.List;
+
+/**
+ * 负载均衡策略的扩展接口（客户端在每次调用前从服务实例中选择一个）
+ * 实现类会被所有服务共享，必须是线程安全的
+ *
+ * 除内置的策略外，可以通过 LoadBalancers.register 或
+ * META-INF/services/com.cswiki.rpc.client.loadbalance.LoadBalancer 注册自定义的实现
+ */
+public interface LoadBalancer {
+
+    /**
+     * 负载均衡策略的名称（用于配置）
+     * @return
+     */
+    String getName();
+
+    /**
+     * 选择服务实例
+     * @param instances 服务的所有实例（不为空，不可修改）
+     * @param rpcRequest 本次调用的请求
+     * @param options 调用选项
+     * @return
+     */
+    ServiceInstance select(List<ServiceInstance> instances, RpcRequest rpcRequest, RpcOptions options);
+
+    /**
+     * 服务实例当前的权重（按权重分配流量的策略应使用该方法，而不是直接使用注册的权重）
+     * 注册时间在预热时间（RpcOptions.warmup）内的实例，权重随注册时长从 1 线性增加到注册的权重，
+     * 刚启动（JIT、缓存尚未预热）的实例因此逐渐承接流量；注册时间取自服务端的时钟，需要各节点的时钟基本同步
+     * @param instance
+     * @param options
+     * @return
+     */
+    static int weight(ServiceInstance instance, RpcOptions options) {
+        int weight = Math.max(instance.getWeight(), 0);
+        long warmup = options.getWarmup();
+        if (weight == 0 || warmup <= 0 || instance.getRegisteredTime() <= 0) {
+            return weight;
+        }
+        long uptime = System.currentTimeMillis() - instance.getRegisteredTime();
+        if (uptime >= warmup) {
+            return weight;
+        }
+        return (int) Math.max(Math.max(uptime, 0) * weight / warmup, 1);
+    }
+}
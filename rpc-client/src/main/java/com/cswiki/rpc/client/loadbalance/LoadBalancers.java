@@ -0,0 +1,49 @@
+package com.cswiki.rpc.client.loadbalance;
+
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 负载均衡策略的注册表
+ */
+public final class LoadBalancers {
+
+    // 存储策略名称与负载均衡策略之间的映射关系
+    private static final Map<String, LoadBalancer> LOAD_BALANCER_MAP = new ConcurrentHashMap<>();
+
+    static {
+        register(new RandomLoadBalancer());
+        register(new LeastActiveLoadBalancer());
+        register(new P2cLoadBalancer());
+        register(new ConsistentHashLoadBalancer());
+        // 通过 SPI 注册的自定义负载均衡策略（名称相同时覆盖内置实现）
+        for (LoadBalancer loadBalancer : ServiceLoader.load(LoadBalancer.class)) {
+            register(loadBalancer);
+        }
+    }
+
+    private LoadBalancers() {
+    }
+
+    /**
+     * 注册负载均衡策略（名称相同时替换原有的实现）
+     * @param loadBalancer
+     */
+    public static void register(LoadBalancer loadBalancer) {
+        LOAD_BALANCER_MAP.put(loadBalancer.getName(), loadBalancer);
+    }
+
+    /**
+     * 根据名称获取负载均衡策略
+     * @param name
+     * @return
+     */
+    public static LoadBalancer get(String name) {
+        LoadBalancer loadBalancer = LOAD_BALANCER_MAP.get(name);
+        if (loadBalancer == null) {
+            throw new IllegalArgumentException(String.format("can not find load balancer: %s", name));
+        }
+        return loadBalancer;
+    }
+}
@@ -0,0 +1,50 @@
+package com.cswiki.rpc.client.loadbalance;
+
+import com.cswiki.entity.RpcRequest;
+import com.cswiki.rpc.client.RpcOptions;
+import com.cswiki.rpc.registry.ServiceInstance;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 两次随机选择（power of two choices）：随机选出两个服务实例，选择负载较低的那个
+ * 负载 = 延迟的 EWMA × (进行中请求数 + 1) / 权重，慢节点和积压多的节点会自动少分流量
+ * 只比较两个实例，开销固定，且不会像"总是选最优"那样让所有客户端同时涌向同一个节点
+ */
+public class P2cLoadBalancer implements LoadBalancer {
+
+    @Override
+    public String getName() {
+        return "p2c";
+    }
+
+    @Override
+    public ServiceInstance select(List<ServiceInstance> instances, RpcRequest rpcRequest, RpcOptions options) {
+        int size = instances.size();
+        if (size == 1) {
+            return instances.get(0);
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int first = random.nextInt(size);
+        int second = random.nextInt(size - 1);
+        if (second >= first) {
+            second++;
+        }
+        ServiceInstance a = instances.get(first);
+        ServiceInstance b = instances.get(second);
+        ServiceInstance chosen = load(a) <= load(b) ? a : b;
+        // 预热中的实例即使负载更低（如还没有延迟样本）也只按预热进度的比例被选中，否则会立即承接大部分流量
+        int weight = LoadBalancer.weight(chosen, options);
+        if (weight < chosen.getWeight() && random.nextInt(chosen.getWeight()) >= weight) {
+            return chosen == a ? b : a;
+        }
+        return chosen;
+    }
+
+    private static double load(ServiceInstance instance) {
+        AddressStats stats = AddressStats.get(instance.getAddress());
+        // 还没有延迟样本的实例负载为 0，会优先被选中以获取样本
+        return stats.getEwmaNanos() * (stats.getActive() + 1) / Math.max(instance.getWeight(), 1);
+    }
+}
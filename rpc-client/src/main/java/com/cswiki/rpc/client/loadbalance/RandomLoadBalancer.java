@@ -0,0 +1,50 @@
+package com.cswiki.rpc.client.loadbalance;
+
+import com.cswiki.entity.RpcRequest;
+import com.cswiki.rpc.client.RpcOptions;
+import com.cswiki.rpc.registry.ServiceInstance;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 加权随机：按权重比例随机选择服务实例（权重都相同时即为随机选择，新注册的实例按慢启动后的权重计算）
+ */
+public class RandomLoadBalancer implements LoadBalancer {
+
+    @Override
+    public String getName() {
+        return "random";
+    }
+
+    @Override
+    public ServiceInstance select(List<ServiceInstance> instances, RpcRequest rpcRequest, RpcOptions options) {
+        int size = instances.size();
+        if (size == 1) {
+            return instances.get(0);
+        }
+        int[] weights = new int[size];
+        int totalWeight = 0;
+        boolean sameWeight = true;
+        for (int i = 0; i < size; i++) {
+            int weight = LoadBalancer.weight(instances.get(i), options);
+            weights[i] = weight;
+            totalWeight += weight;
+            if (sameWeight && i > 0 && weight != weights[i - 1]) {
+                sameWeight = false;
+            }
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (sameWeight || totalWeight <= 0) {
+            return instances.get(random.nextInt(size));
+        }
+        int offset = random.nextInt(totalWeight);
+        for (int i = 0; i < size; i++) {
+            offset -= weights[i];
+            if (offset < 0) {
+                return instances.get(i);
+            }
+        }
+        return instances.get(random.nextInt(size));
+    }
+}
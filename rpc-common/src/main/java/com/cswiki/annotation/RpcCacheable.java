@@ -0,0 +1,26 @@
+package com.cswiki.annotation;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 标记服务接口中可以在客户端缓存结果的方法（只适用于没有副作用、结果在一段时间内不变的方法，如配置、字典数据查询）
+ * 以方法和参数作为缓存键（参数需要正确实现 equals/hashCode），缓存的结果由所有调用方共享，调用方不应修改返回的对象
+ * 使用示例：
+ *   @RpcCacheable(ttl = 60000, maxSize = 1000)
+ *   String getConfig(String key);
+ */
+@Documented
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface RpcCacheable {
+
+    // 结果的有效时间（毫秒，从收到响应开始计算）
+    long ttl() default 60000;
+
+    // 最多缓存的结果数，超过时淘汰最久未被访问的结果
+    int maxSize() default 1000;
+}
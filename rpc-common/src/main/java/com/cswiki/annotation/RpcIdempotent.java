@@ -0,0 +1,17 @@
+package com.cswiki.annotation;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 标记服务接口中的幂等方法（重复执行没有额外的副作用）
+ * 开启 RpcOptions.hedging 时，客户端可以为这类方法向另一个服务实例发送对冲请求
+ */
+@Documented
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface RpcIdempotent {
+}
@@ -0,0 +1,68 @@
+package com.cswiki.codec;
+
+import com.cswiki.entity.RpcRequest;
+import com.cswiki.entity.RpcResponse;
+import io.netty.channel.Channel;
+import io.netty.util.AttributeKey;
+
+/**
+ * 旧版协议的兼容处理（消息头只有 4 字节的消息体长度，requestId 为字符串且在消息体中）
+ * 旧版客户端每条连接只发送一个请求，并等待服务端关闭连接，因此只需要在连接上记录一个 requestId
+ */
+public final class LegacyProtocol {
+
+    // 在连接上记录旧版请求的 requestId，同时标记该连接使用旧版协议
+    private static final AttributeKey<String> LEGACY_REQUEST_ID = AttributeKey.valueOf("rpc.legacyRequestId");
+
+    private LegacyProtocol() {
+    }
+
+    /**
+     * 连接是否使用旧版协议
+     * @param channel
+     * @return
+     */
+    public static boolean isLegacy(Channel channel) {
+        return channel.hasAttr(LEGACY_REQUEST_ID);
+    }
+
+    static RpcRequest toRequest(Channel channel, LegacyRpcRequest legacyRequest) {
+        channel.attr(LEGACY_REQUEST_ID).set(legacyRequest.requestId);
+        RpcRequest rpcRequest = new RpcRequest();
+        rpcRequest.setInterfaceName(legacyRequest.interfaceName);
+        rpcRequest.setServiceVersion(legacyRequest.serviceVersion);
+        rpcRequest.setMethodName(legacyRequest.methodName);
+        rpcRequest.setParameterTypes(legacyRequest.parameterTypes);
+        rpcRequest.setParameters(legacyRequest.parameters);
+        return rpcRequest;
+    }
+
+    static LegacyRpcResponse toLegacyResponse(Channel channel, RpcResponse rpcResponse) {
+        LegacyRpcResponse legacyResponse = new LegacyRpcResponse();
+        legacyResponse.requestId = channel.attr(LEGACY_REQUEST_ID).get();
+        legacyResponse.exception = (Exception) rpcResponse.getException();
+        legacyResponse.result = rpcResponse.getResult();
+        return legacyResponse;
+    }
+
+    /**
+     * 旧版 RpcRequest 的消息体结构（字段顺序决定序列化格式，不能修改）
+     */
+    static class LegacyRpcRequest {
+        String requestId;
+        String interfaceName;
+        String serviceVersion;
+        String methodName;
+        Class<?>[] parameterTypes;
+        Object[] parameters;
+    }
+
+    /**
+     * 旧版 RpcResponse 的消息体结构（字段顺序决定序列化格式，不能修改）
+     */
+    static class LegacyRpcResponse {
+        String requestId;
+        Exception exception;
+        Object result;
+    }
+}
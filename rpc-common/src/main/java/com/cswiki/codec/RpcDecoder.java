@@ -1,42 +1,248 @@
 package com.cswiki.codec;
 
+import com.cswiki.entity.RpcBatch;
+import com.cswiki.entity.RpcDecodeFailure;
+import com.cswiki.entity.RpcHandshake;
+import com.cswiki.entity.RpcHeartbeat;
+import com.cswiki.entity.RpcMessage;
+import com.cswiki.entity.RpcRequest;
+import com.cswiki.entity.RpcResponse;
+import com.cswiki.entity.RpcStreamChunk;
+import com.cswiki.entity.RpcStreamCredit;
+import com.cswiki.metrics.TransportMetrics;
 import com.cswiki.serializer.CustomSerializer;
+import com.cswiki.serializer.Serializer;
+import com.cswiki.serializer.Serializers;
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.handler.codec.CorruptedFrameException;
+import io.netty.handler.codec.compression.Snappy;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 
 /**
- * 自定义解码器
+ * 自定义解码器（消息格式见 RpcProtocol）
+ * 等到整条消息到达后，直接从累积缓冲区中反序列化消息体
+ * 只有帧本身无效（魔数、版本、长度、序列化方式等）时抛出异常（连接随之关闭）；
+ * 帧有效但消息体无法反序列化时输出 RpcDecodeFailure，由处理器只让这一条消息失败
  */
 public class RpcDecoder extends ByteToMessageDecoder {
 
-    private Class<?> genericClass; // 反序列化成 genericClass 类型的对象
+    private final boolean acceptLegacy; // 是否接受旧格式的请求（服务端使用，兼容旧版客户端）
 
-    public RpcDecoder(Class<?> genericClass) {
-        this.genericClass = genericClass;
+    private final TransportMetrics transportMetrics; // 统计接收的字节数（为 null 时不统计）
+
+    private final boolean[] allowedSerializers; // 按编号标记接受的序列化方式（为 null 时接受所有已注册的序列化方式）
+
+    public RpcDecoder() {
+        this(false);
+    }
+
+    public RpcDecoder(boolean acceptLegacy) {
+        this(acceptLegacy, null);
+    }
+
+    public RpcDecoder(boolean acceptLegacy, TransportMetrics transportMetrics) {
+        this(acceptLegacy, transportMetrics, null);
+    }
+
+    /**
+     * @param acceptLegacy
+     * @param transportMetrics
+     * @param allowedSerializers 接受的序列化方式编号（服务端使用，消息使用其他序列化方式时视为无效的帧），为 null 时不限制
+     */
+    public RpcDecoder(boolean acceptLegacy, TransportMetrics transportMetrics, Collection<Byte> allowedSerializers) {
+        this.acceptLegacy = acceptLegacy;
+        this.transportMetrics = transportMetrics;
+        if (allowedSerializers == null) {
+            this.allowedSerializers = null;
+        } else {
+            this.allowedSerializers = new boolean[128];
+            for (byte id : allowedSerializers) {
+                if (id <= 0) {
+                    throw new IllegalArgumentException(String.format("invalid serializer id: %d", id));
+                }
+                this.allowedSerializers[id] = true;
+            }
+        }
     }
 
     @Override
     protected void decode(ChannelHandlerContext channelHandlerContext, ByteBuf in, List<Object> out) throws Exception {
+        int readerIndex = in.readerIndex();
+        decodeFrame(channelHandlerContext, in, out);
+        if (transportMetrics != null && in.readerIndex() > readerIndex) {
+            transportMetrics.frameIn(in.readerIndex() - readerIndex);
+        }
+    }
+
+    /**
+     * 解码一帧（数据不完整时不读取任何字节）
+     * @param channelHandlerContext
+     * @param in
+     * @param out
+     */
+    private void decodeFrame(ChannelHandlerContext channelHandlerContext, ByteBuf in, List<Object> out) {
+        if (in.readableBytes() < 2) {
+            return ;
+        }
+        if (in.getShort(in.readerIndex()) != RpcProtocol.MAGIC) {
+            if (!acceptLegacy) {
+                throw new CorruptedFrameException("invalid magic number");
+            }
+            decodeLegacy(channelHandlerContext, in, out);
+            return ;
+        }
+        // 消息头不完整
+        if (in.readableBytes() < RpcProtocol.HEADER_LENGTH) {
+            return ;
+        }
+        int dataLength = in.getInt(in.readerIndex() + 14);
+        if (dataLength < 0 || dataLength > RpcProtocol.MAX_BODY_LENGTH) {
+            throw new CorruptedFrameException("invalid body length: " + dataLength);
+        }
+        // 如果可读字节数小于消息长度，说明是不完整的消息
+        if (in.readableBytes() < RpcProtocol.HEADER_LENGTH + dataLength) {
+            return ;
+        }
+        out.add(decodeMessage(in, true));
+    }
+
+    /**
+     * 解码一条完整的消息（消息头 + 消息体），解码后 in 的读指针位于这条消息之后
+     * @param in
+     * @param batchAllowed 是否允许批量消息（批量消息不能嵌套）
+     * @return
+     */
+    private RpcMessage decodeMessage(ByteBuf in, boolean batchAllowed) {
+        int readerIndex = in.readerIndex();
+        if (in.getShort(readerIndex) != RpcProtocol.MAGIC) {
+            throw new CorruptedFrameException("invalid magic number");
+        }
+        byte version = in.getByte(readerIndex + 2);
+        if (version != RpcProtocol.VERSION) {
+            throw new CorruptedFrameException("unsupported protocol version: " + version);
+        }
+        byte messageType = in.getByte(readerIndex + 3);
+        byte serializerId = in.getByte(readerIndex + 4);
+        byte flags = in.getByte(readerIndex + 5);
+        long requestId = in.getLong(readerIndex + 6);
+        int dataLength = in.getInt(readerIndex + 14);
+        if (dataLength < 0 || in.readableBytes() < RpcProtocol.HEADER_LENGTH + dataLength) {
+            throw new CorruptedFrameException("invalid body length: " + dataLength);
+        }
+        in.skipBytes(RpcProtocol.HEADER_LENGTH);
+        if (messageType == RpcProtocol.TYPE_HEARTBEAT) {
+            in.skipBytes(dataLength);
+            return RpcHeartbeat.INSTANCE;
+        }
+        if (messageType == RpcProtocol.TYPE_BATCH) {
+            if (!batchAllowed) {
+                in.skipBytes(dataLength);
+                throw new CorruptedFrameException("nested batch message");
+            }
+            // 逐条解码消息体中拼接的消息
+            ByteBuf body = in.readSlice(dataLength);
+            List<RpcMessage> messages = new ArrayList<>();
+            while (body.isReadable()) {
+                if (body.readableBytes() < RpcProtocol.HEADER_LENGTH) {
+                    throw new CorruptedFrameException("truncated message in batch");
+                }
+                messages.add(decodeMessage(body, false));
+            }
+            return new RpcBatch(messages);
+        }
+        // 按消息头中的编号选择序列化方式（只接受已注册且被允许的序列化方式）
+        Serializer serializer = Serializers.get(serializerId);
+        if (serializerId <= 0 || serializer == null || (allowedSerializers != null && !allowedSerializers[serializerId])) {
+            in.skipBytes(dataLength);
+            throw new CorruptedFrameException("unsupported serializer: " + serializerId);
+        }
+        Class<? extends RpcMessage> messageClass;
+        switch (messageType) {
+            case RpcProtocol.TYPE_REQUEST:
+                messageClass = RpcRequest.class;
+                break;
+            case RpcProtocol.TYPE_RESPONSE:
+                messageClass = RpcResponse.class;
+                break;
+            case RpcProtocol.TYPE_HANDSHAKE:
+                messageClass = RpcHandshake.class;
+                break;
+            case RpcProtocol.TYPE_STREAM_CHUNK:
+                messageClass = RpcStreamChunk.class;
+                break;
+            case RpcProtocol.TYPE_STREAM_CREDIT:
+                messageClass = RpcStreamCredit.class;
+                break;
+            default:
+                in.skipBytes(dataLength);
+                throw new CorruptedFrameException("unknown message type: " + messageType);
+        }
+        int bodyEnd = in.readerIndex() + dataLength;
+        RpcMessage message;
+        if ((flags & RpcProtocol.FLAG_COMPRESSED) != 0) {
+            // 先解压到临时缓冲区（容量上限为消息体的最大长度）再反序列化
+            ByteBuf compressed = in.readSlice(dataLength);
+            ByteBuf body = in.alloc().buffer(Math.min(dataLength * 2, RpcProtocol.MAX_BODY_LENGTH), RpcProtocol.MAX_BODY_LENGTH);
+            try {
+                Snappy snappy = new Snappy();
+                while (compressed.isReadable()) {
+                    int blockLength = compressed.readInt();
+                    snappy.decode(compressed.readSlice(blockLength), body);
+                    snappy.reset();
+                }
+                message = deserialize(serializer, body, body.readableBytes(), messageType, messageClass);
+            } catch (IndexOutOfBoundsException e) {
+                throw new CorruptedFrameException("invalid compressed body", e);
+            } finally {
+                body.release();
+            }
+        } else {
+            message = deserialize(serializer, in, dataLength, messageType, messageClass);
+            // 反序列化失败时消息体可能没有读完
+            in.readerIndex(bodyEnd);
+        }
+        message.setRequestId(requestId);
+        message.setSerializer(serializerId);
+        message.setDecodedNanos(System.nanoTime());
+        return message;
+    }
+
+    /**
+     * 反序列化消息体，失败时返回 RpcDecodeFailure（帧的边界已经确定，不影响后续消息的解码）
+     */
+    private static RpcMessage deserialize(Serializer serializer, ByteBuf in, int length, byte messageType,
+                                          Class<? extends RpcMessage> messageClass) {
+        try {
+            return serializer.deserialize(in, length, messageClass);
+        } catch (RuntimeException e) {
+            return new RpcDecodeFailure(messageType, e);
+        }
+    }
+
+    /**
+     * 解码旧格式的请求：4 字节的消息体长度 + 消息体
+     * 旧版请求的 requestId 在消息体中，无法反序列化时不能返回对应的响应，只能关闭连接（旧版客户端每条连接只发送一个请求）
+     */
+    private void decodeLegacy(ChannelHandlerContext channelHandlerContext, ByteBuf in, List<Object> out) {
         // 消息头占 4B，所以 "入站"数据（待解码的字节序列）的可读字节必须大于 4
         if (in.readableBytes() < 4){
             return ;
         }
-        // 标记当前readIndex的位置，以便后面重置 readIndex 的时候使用
-        in.markReaderIndex();
-        // 读取消息体（消息的长度）. readInt 操作会增加 readerIndex
-        int dataLength = in.readInt();
+        int dataLength = in.getInt(in.readerIndex());
+        if (dataLength < 0 || dataLength > RpcProtocol.MAX_BODY_LENGTH) {
+            throw new CorruptedFrameException("invalid body length: " + dataLength);
+        }
         // 如果可读字节数小于消息长度，说明是不完整的消息
-        if (in.readableBytes() < dataLength) {
-            in.resetReaderIndex();
+        if (in.readableBytes() < 4 + dataLength) {
             return ;
         }
-        // 开始反序列化
-        byte[] body = new byte[dataLength];
-        in.readBytes(body);
-        Object obj = CustomSerializer.deserialize(body, genericClass);
-        out.add(obj);
+        in.skipBytes(4);
+        LegacyProtocol.LegacyRpcRequest legacyRequest = CustomSerializer.deserialize(in, dataLength, LegacyProtocol.LegacyRpcRequest.class);
+        out.add(LegacyProtocol.toRequest(channelHandlerContext.channel(), legacyRequest));
     }
 }
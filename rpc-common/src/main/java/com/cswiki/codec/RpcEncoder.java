@@ -1,28 +1,118 @@
 package com.cswiki.codec;
 
-import com.cswiki.entity.RpcRequest;
+import com.cswiki.entity.RpcBatch;
+import com.cswiki.entity.RpcMessage;
+import com.cswiki.entity.RpcResponse;
+import com.cswiki.metrics.TransportMetrics;
 import com.cswiki.serializer.CustomSerializer;
+import com.cswiki.serializer.Serializer;
+import com.cswiki.serializer.Serializers;
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.MessageToByteEncoder;
+import io.netty.handler.codec.compression.Snappy;
 
 /**
- * 自定义编码器
+ * 自定义编码器（消息格式见 RpcProtocol）
+ * 消息体直接序列化到 out（默认由池化的直接内存分配），写完后再回填消息体长度，不产生中间的 byte[]
+ * 消息体使用消息指定的序列化方式（未指定时使用默认的序列化方式），其编号写在消息头中
+ * 消息体达到消息指定的压缩阈值时使用 Snappy 压缩（只有压缩后更小时才使用压缩结果），小消息不受影响
  */
-public class RpcEncoder extends MessageToByteEncoder {
+public class RpcEncoder extends MessageToByteEncoder<RpcMessage> {
 
-    private  Class<?> genericClass; // 待编码的对象类型
+    private final TransportMetrics transportMetrics; // 统计发送的字节数（为 null 时不统计）
 
-    public RpcEncoder(Class<?> genericClass) {
-        this.genericClass = genericClass;
+    public RpcEncoder() {
+        this(null);
+    }
+
+    public RpcEncoder(TransportMetrics transportMetrics) {
+        this.transportMetrics = transportMetrics;
     }
 
     @Override
-    protected void encode(ChannelHandlerContext channelHandlerContext, Object in, ByteBuf out) throws Exception {
-        if (genericClass.isInstance(in)) {
-            byte[] data = CustomSerializer.serialize(in); // 将对象序列化为字节数组
-            out.writeInt(data.length); // 将消息体长度写入消息头
-            out.writeBytes(data); // 将数据写入消息体
+    protected void encode(ChannelHandlerContext channelHandlerContext, RpcMessage in, ByteBuf out) throws Exception {
+        int writerIndex = out.writerIndex();
+        // 对使用旧版协议的连接按旧格式写入响应
+        if (in instanceof RpcResponse && LegacyProtocol.isLegacy(channelHandlerContext.channel())) {
+            int lengthIndex = out.writerIndex();
+            out.writeInt(0);
+            int length = CustomSerializer.serialize(LegacyProtocol.toLegacyResponse(channelHandlerContext.channel(), (RpcResponse) in), out);
+            out.setInt(lengthIndex, length);
+        } else {
+            encodeMessage(in, out);
+        }
+        if (transportMetrics != null) {
+            transportMetrics.frameOut(out.writerIndex() - writerIndex);
+        }
+    }
+
+    /**
+     * 写入一条完整的消息（消息头 + 消息体）
+     * @param in
+     * @param out
+     */
+    private static void encodeMessage(RpcMessage in, ByteBuf out) {
+        byte messageType = in.getMessageType();
+        Serializer serializer = Serializers.get(in.getSerializer());
+        if (serializer == null) {
+            throw new IllegalStateException("unknown serializer: " + in.getSerializer());
+        }
+        out.writeShort(RpcProtocol.MAGIC);
+        out.writeByte(RpcProtocol.VERSION);
+        out.writeByte(messageType);
+        out.writeByte(serializer.getId());
+        int flagsIndex = out.writerIndex();
+        out.writeByte(0); // flags
+        out.writeLong(in.getRequestId());
+        int lengthIndex = out.writerIndex();
+        out.writeInt(0); // 消息体长度，序列化完成后回填
+        if (messageType == RpcProtocol.TYPE_BATCH) {
+            // 批量消息的消息体由其中的每条消息依次写入
+            for (RpcMessage message : ((RpcBatch) in).getMessages()) {
+                encodeMessage(message, out);
+            }
+            out.setInt(lengthIndex, out.writerIndex() - lengthIndex - 4);
+        } else if (messageType != RpcProtocol.TYPE_HEARTBEAT) {
+            int length = serializer.serialize(in, out); // 将对象直接序列化到 out
+            if (in.getCompressThreshold() > 0 && length >= in.getCompressThreshold()) {
+                length = compress(out, lengthIndex + 4, length, flagsIndex);
+            }
+            out.setInt(lengthIndex, length);
+            in.setEncodedNanos(System.nanoTime());
+        }
+    }
+
+    /**
+     * 压缩 out 中已写入的消息体，压缩后更小时用压缩结果替换原消息体并设置压缩标志
+     * @param out
+     * @param bodyIndex 消息体的起始位置
+     * @param length 消息体的长度
+     * @param flagsIndex 消息头中 flags 的位置
+     * @return 替换后的消息体长度
+     */
+    private static int compress(ByteBuf out, int bodyIndex, int length, int flagsIndex) {
+        ByteBuf compressed = out.alloc().buffer(length);
+        try {
+            Snappy snappy = new Snappy();
+            for (int offset = 0; offset < length; offset += RpcProtocol.COMPRESS_BLOCK_SIZE) {
+                int blockLength = Math.min(RpcProtocol.COMPRESS_BLOCK_SIZE, length - offset);
+                int blockLengthIndex = compressed.writerIndex();
+                compressed.writeInt(0); // 压缩块长度，压缩完成后回填
+                snappy.encode(out.slice(bodyIndex + offset, blockLength), compressed, blockLength);
+                snappy.reset();
+                compressed.setInt(blockLengthIndex, compressed.writerIndex() - blockLengthIndex - 4);
+            }
+            int compressedLength = compressed.readableBytes();
+            if (compressedLength >= length) {
+                return length;
+            }
+            out.writerIndex(bodyIndex);
+            out.writeBytes(compressed);
+            out.setByte(flagsIndex, RpcProtocol.FLAG_COMPRESSED);
+            return compressedLength;
+        } finally {
+            compressed.release();
         }
     }
 }
@@ -0,0 +1,50 @@
+package com.cswiki.codec;
+
+/**
+ * RPC 协议定义
+ *
+ * 消息格式（消息头共 18 字节）：
+ * +-------+---------+------+------------+-------+-----------+------------+----------+
+ * | magic | version | type | serializer | flags | requestId | bodyLength |   body   |
+ * |  2B   |   1B    |  1B  |     1B     |  1B   |    8B     |     4B     |  变长    |
+ * +-------+---------+------+------------+-------+-----------+------------+----------+
+ *
+ * flags 的最低位（FLAG_COMPRESSED）表示消息体经过 Snappy 压缩：原消息体按 COMPRESS_BLOCK_SIZE 切分为多个块分别压缩，
+ * 压缩后的消息体由多个（4 字节的块长度 + 压缩块）组成，压缩前的长度记录在每个压缩块中
+ *
+ * 批量消息（TYPE_BATCH）的消息体由多条完整的消息（消息头 + 消息体）依次拼接而成，批量消息不能嵌套
+ *
+ * 旧格式（只有 4 字节的消息体长度 + 消息体）的消息头以长度的高 16 位开头，不可能等于 MAGIC，
+ * 因此解码器可以通过前两个字节区分两种格式
+ */
+public interface RpcProtocol {
+
+    short MAGIC = (short) 0xCAFE;
+
+    byte VERSION = 1;
+
+    int HEADER_LENGTH = 18;
+
+    // 消息体的最大长度
+    int MAX_BODY_LENGTH = 16 * 1024 * 1024;
+
+    // 消息类型
+    byte TYPE_REQUEST = 1;
+    byte TYPE_RESPONSE = 2;
+    byte TYPE_HEARTBEAT = 3;
+    byte TYPE_HANDSHAKE = 4;
+    byte TYPE_BATCH = 5;
+    byte TYPE_STREAM_CHUNK = 6;
+    byte TYPE_STREAM_CREDIT = 7;
+
+    // 消息标志位
+    byte FLAG_COMPRESSED = 0x01;
+
+    // 压缩块的最大长度（Netty 的 Snappy 实现用 short 记录块内偏移，单次压缩的输入不能超过 Short.MAX_VALUE）
+    int COMPRESS_BLOCK_SIZE = Short.MAX_VALUE;
+
+    // 序列化方式（见 Serializers）
+    byte SERIALIZER_PROTOSTUFF = 1;
+    byte SERIALIZER_KRYO = 2;
+    byte SERIALIZER_JAVA = 3;
+}
@@ -0,0 +1,164 @@
+package com.cswiki.context;
+
+import com.cswiki.entity.RpcAttachments;
+import com.cswiki.metrics.CallTiming;
+import io.netty.util.concurrent.FastThreadLocal;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 当前线程的 RPC 上下文
+ * 客户端：setAttachment 设置的附加信息随这个线程之后发起的每个请求发送，getLastTiming 返回这个线程最近一次同步调用的各阶段耗时
+ * 服务端：执行服务方法期间，getRequestAttachments 返回请求携带的附加信息，traceId/spanId 为这次调用的编号；
+ * 服务方法中发起的调用沿用同一个 traceId 并以当前 spanId 作为 parentSpanId，从而把多跳的调用串成一条调用链；
+ * 请求有截止时间时，服务方法中发起的调用也不会超过这个截止时间（继承剩余的时间）
+ */
+public class RpcContext {
+
+    private static final FastThreadLocal<RpcContext> CONTEXT = new FastThreadLocal<RpcContext>() {
+        @Override
+        protected RpcContext initialValue() {
+            return new RpcContext();
+        }
+    };
+
+    private Map<String, String> attachments; // 随请求发送的附加信息（第一次设置时创建）
+
+    private Map<String, String> requestAttachments = Collections.emptyMap(); // 正在处理的请求携带的附加信息
+
+    private String traceId; // 调用链编号
+
+    private String spanId; // 当前调用的编号（服务端处理请求时有效）
+
+    private CallTiming lastTiming; // 最近一次同步调用的各阶段耗时
+
+    private long deadlineNanos; // 正在处理的请求的截止时间（System.nanoTime），0 表示不限
+
+    private long nextCallTimeout; // 只对这个线程发起的下一次调用生效的超时时间（毫秒），0 表示未指定
+
+    private RpcContext previous; // 服务端开始处理请求之前这个线程的上下文（exit 时恢复）
+
+    public static RpcContext current() {
+        return CONTEXT.get();
+    }
+
+    /**
+     * 服务端开始处理请求（由 RpcServerHandler 在执行服务方法前调用）
+     * 服务方法使用一个新的上下文，其中设置的附加信息、下一次调用的超时时间等不会遗留给这个线程之后处理的请求
+     * @param requestAttachments 请求携带的附加信息，可以为 null
+     * @param deadlineNanos 请求的截止时间，0 表示不限
+     * @return 当前线程的上下文，处理完成后调用其 exit
+     */
+    public static RpcContext enter(Map<String, String> requestAttachments, long deadlineNanos) {
+        RpcContext context = new RpcContext();
+        context.previous = CONTEXT.get();
+        CONTEXT.set(context);
+        context.deadlineNanos = deadlineNanos;
+        if (requestAttachments != null) {
+            context.requestAttachments = requestAttachments;
+            context.traceId = requestAttachments.get(RpcAttachments.TRACE_ID);
+            context.spanId = requestAttachments.get(RpcAttachments.SPAN_ID);
+        }
+        return context;
+    }
+
+    /**
+     * 服务端处理完请求，恢复这个线程原来的上下文（业务线程会被其他请求复用）
+     */
+    public void exit() {
+        if (previous != null) {
+            CONTEXT.set(previous);
+            previous = null;
+        }
+    }
+
+    /**
+     * @return 随机生成的编号（16 位十六进制数）
+     */
+    public static String newId() {
+        long id = ThreadLocalRandom.current().nextLong();
+        String hex = Long.toHexString(id);
+        return hex.length() == 16 ? hex : "0000000000000000".substring(hex.length()) + hex;
+    }
+
+    public void setAttachment(String key, String value) {
+        if (attachments == null) {
+            attachments = new HashMap<>();
+        }
+        attachments.put(key, value);
+    }
+
+    public String getAttachment(String key) {
+        return attachments != null ? attachments.get(key) : null;
+    }
+
+    public void removeAttachment(String key) {
+        if (attachments != null) {
+            attachments.remove(key);
+        }
+    }
+
+    /**
+     * @return 随请求发送的附加信息（没有时为空）
+     */
+    public Map<String, String> getAttachments() {
+        return attachments != null ? attachments : Collections.emptyMap();
+    }
+
+    public Map<String, String> getRequestAttachments() {
+        return requestAttachments;
+    }
+
+    public String getRequestAttachment(String key) {
+        return requestAttachments.get(key);
+    }
+
+    public String getTraceId() {
+        return traceId;
+    }
+
+    /**
+     * 指定调用链编号（客户端发起一条新的调用链时使用，之后这个线程发起的调用都属于这条调用链，直到设置为 null）
+     * @param traceId
+     */
+    public void setTraceId(String traceId) {
+        this.traceId = traceId;
+    }
+
+    public String getSpanId() {
+        return spanId;
+    }
+
+    public CallTiming getLastTiming() {
+        return lastTiming;
+    }
+
+    public void setLastTiming(CallTiming lastTiming) {
+        this.lastTiming = lastTiming;
+    }
+
+    public long getDeadlineNanos() {
+        return deadlineNanos;
+    }
+
+    /**
+     * 指定这个线程发起的下一次调用的超时时间（优先于 RpcOptions.timeout，仍不会超过所继承的截止时间）
+     * @param timeout 超时时间（毫秒）
+     */
+    public void setNextCallTimeout(long timeout) {
+        this.nextCallTimeout = timeout;
+    }
+
+    /**
+     * 取出下一次调用的超时时间（取出后清除）
+     * @return 未指定时返回 0
+     */
+    public long takeNextCallTimeout() {
+        long timeout = nextCallTimeout;
+        nextCallTimeout = 0;
+        return timeout;
+    }
+}
@@ -0,0 +1,34 @@
+package com.cswiki.entity;
+
+/**
+ * 框架使用的附加信息（RpcRequest/RpcResponse 的 attachments）的键，用户自定义的键不要以 "rpc." 开头
+ */
+public final class RpcAttachments {
+
+    // 调用链的编号（同一个调用链上的所有调用相同）
+    public static final String TRACE_ID = "rpc.traceId";
+
+    // 这一次调用的编号
+    public static final String SPAN_ID = "rpc.spanId";
+
+    // 发起这一次调用的上一级调用的编号（调用链的起点没有）
+    public static final String PARENT_SPAN_ID = "rpc.parentSpanId";
+
+    // 请求中包含该键时，客户端可能取消这个请求（如对冲请求中较慢的一个），服务端会记录尚未执行的这类请求
+    public static final String CANCELLABLE = "rpc.cancellable";
+
+    // 请求中包含该键时，服务端在响应中返回下面各阶段的耗时
+    public static final String TIMING = "rpc.timing";
+
+    // 服务端：从解码完请求到开始执行（在业务线程池中排队）的耗时（纳秒）
+    public static final String SERVER_QUEUE_NANOS = "rpc.server.queue";
+
+    // 服务端：执行服务方法的耗时（纳秒）
+    public static final String SERVER_INVOKE_NANOS = "rpc.server.invoke";
+
+    // 服务端：从解码完请求到响应交给 I/O 线程的耗时（纳秒）
+    public static final String SERVER_TOTAL_NANOS = "rpc.server.total";
+
+    private RpcAttachments() {
+    }
+}
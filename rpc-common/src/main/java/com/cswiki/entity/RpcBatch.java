@@ -0,0 +1,27 @@
+package com.cswiki.entity;
+
+import com.cswiki.codec.RpcProtocol;
+
+import java.util.List;
+
+/**
+ * 批量消息，一帧中携带多条完整的消息（每条消息有自己的消息头，见 RpcProtocol）
+ * 客户端把同一时刻排队的多个请求合并为一个批量请求，服务端以包含对应响应的批量响应回复
+ */
+public final class RpcBatch extends RpcMessage {
+
+    private final List<RpcMessage> messages;
+
+    public RpcBatch(List<RpcMessage> messages) {
+        this.messages = messages;
+    }
+
+    @Override
+    public byte getMessageType() {
+        return RpcProtocol.TYPE_BATCH;
+    }
+
+    public List<RpcMessage> getMessages() {
+        return messages;
+    }
+}
@@ -0,0 +1,30 @@
+package com.cswiki.entity;
+
+/**
+ * 消息体无法反序列化（如类型不在 Kryo 的白名单中）时 RpcDecoder 输出的消息，只在本端传递，不会被编码
+ * 消息头完整且有效，因此只让这一条消息（根据 requestId）失败，不必关闭连接影响其他请求
+ */
+public final class RpcDecodeFailure extends RpcMessage {
+
+    private final byte messageType; // 无法反序列化的消息的类型
+
+    private final Throwable cause; // 反序列化时抛出的异常
+
+    public RpcDecodeFailure(byte messageType, Throwable cause) {
+        this.messageType = messageType;
+        this.cause = cause;
+    }
+
+    /**
+     * 无法反序列化的消息的类型（见 RpcProtocol 中的 TYPE_* 常量）
+     * @return
+     */
+    @Override
+    public byte getMessageType() {
+        return messageType;
+    }
+
+    public Throwable getCause() {
+        return cause;
+    }
+}
@@ -0,0 +1,61 @@
+package com.cswiki.entity;
+
+import com.cswiki.codec.RpcProtocol;
+
+import java.util.Map;
+
+/**
+ * 握手消息，连接建立后由客户端发起
+ * 客户端发送的握手消息为空，服务端在响应中返回它暴露的所有方法及其编号，
+ * 之后客户端在这条连接上只需用编号（methodId）引用方法，不必再传输接口名称、方法名称和参数类型
+ * 服务端同时告知它支持的协议特性（旧版服务端不返回这些字段，客户端即认为不支持）
+ */
+public class RpcHandshake extends RpcMessage {
+
+    private Map<String, Integer> methodIds; // 方法标识（见 methodKey）与方法编号之间的映射关系
+
+    private boolean batchSupported; // 服务端是否支持批量消息（TYPE_BATCH）
+
+    @Override
+    public byte getMessageType() {
+        return RpcProtocol.TYPE_HANDSHAKE;
+    }
+
+    public Map<String, Integer> getMethodIds() {
+        return methodIds;
+    }
+
+    public void setMethodIds(Map<String, Integer> methodIds) {
+        this.methodIds = methodIds;
+    }
+
+    public boolean isBatchSupported() {
+        return batchSupported;
+    }
+
+    public void setBatchSupported(boolean batchSupported) {
+        this.batchSupported = batchSupported;
+    }
+
+    /**
+     * 生成方法标识，客户端与服务端必须使用同样的规则
+     * 格式：接口名称-版本号#方法名称(参数类型1,参数类型2)
+     * @param interfaceName 接口名称
+     * @param serviceVersion 服务版本（无版本为 ""）
+     * @param methodName 方法名称
+     * @param parameterTypes 参数类型
+     * @return
+     */
+    public static String methodKey(String interfaceName, String serviceVersion, String methodName, Class<?>[] parameterTypes) {
+        StringBuilder builder = new StringBuilder(interfaceName).append('-')
+                .append(serviceVersion == null ? "" : serviceVersion.trim())
+                .append('#').append(methodName).append('(');
+        for (int i = 0; i < parameterTypes.length; i++) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            builder.append(parameterTypes[i].getName());
+        }
+        return builder.append(')').toString();
+    }
+}
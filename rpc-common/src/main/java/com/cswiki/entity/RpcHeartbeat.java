@@ -0,0 +1,24 @@
+package com.cswiki.entity;
+
+import com.cswiki.codec.RpcProtocol;
+
+/**
+ * 心跳消息（没有消息体，只用于保持连接，服务端不做响应）
+ */
+public final class RpcHeartbeat extends RpcMessage {
+
+    public static final RpcHeartbeat INSTANCE = new RpcHeartbeat();
+
+    private RpcHeartbeat() {
+    }
+
+    @Override
+    public byte getMessageType() {
+        return RpcProtocol.TYPE_HEARTBEAT;
+    }
+
+    @Override
+    public void setRequestId(long requestId) {
+        // 心跳消息是共享的单例，不记录 requestId
+    }
+}
@@ -0,0 +1,66 @@
+package com.cswiki.entity;
+
+import java.io.Serializable;
+
+/**
+ * RPC 协议消息的基类
+ * requestId 与 serializer 在消息头中传输，不参与消息体的序列化（transient 字段不会被序列化）
+ */
+public abstract class RpcMessage implements Serializable {
+
+    private transient long requestId; // 请求的Id, 在同一条连接上唯一标识该请求
+
+    private transient byte serializer; // 消息体的序列化方式编号（0 表示默认的序列化方式）
+
+    private transient int compressThreshold; // 消息体达到该长度（字节）时压缩后发送（小于等于 0 表示不压缩）
+
+    private transient long encodedNanos; // 编码完成的时间（System.nanoTime，由 RpcEncoder 设置）
+
+    private transient long decodedNanos; // 解码完成的时间（System.nanoTime，由 RpcDecoder 设置）
+
+    /**
+     * 消息类型（见 RpcProtocol 中的 TYPE_* 常量）
+     * @return
+     */
+    public abstract byte getMessageType();
+
+    public long getRequestId() {
+        return requestId;
+    }
+
+    public void setRequestId(long requestId) {
+        this.requestId = requestId;
+    }
+
+    public byte getSerializer() {
+        return serializer;
+    }
+
+    public void setSerializer(byte serializer) {
+        this.serializer = serializer;
+    }
+
+    public int getCompressThreshold() {
+        return compressThreshold;
+    }
+
+    public void setCompressThreshold(int compressThreshold) {
+        this.compressThreshold = compressThreshold;
+    }
+
+    public long getEncodedNanos() {
+        return encodedNanos;
+    }
+
+    public void setEncodedNanos(long encodedNanos) {
+        this.encodedNanos = encodedNanos;
+    }
+
+    public long getDecodedNanos() {
+        return decodedNanos;
+    }
+
+    public void setDecodedNanos(long decodedNanos) {
+        this.decodedNanos = decodedNanos;
+    }
+}
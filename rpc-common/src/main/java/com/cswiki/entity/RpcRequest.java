@@ -1,23 +1,95 @@
 package com.cswiki.entity;
 
+import com.cswiki.codec.RpcProtocol;
+
+import java.util.Map;
+
 /**
  * 封装 RPC 请求
+ * 若握手时服务端为该方法分配了编号（methodId > 0），则 interfaceName/serviceVersion/methodName/parameterTypes
+ * 不需要传输（为 null 的字段不会被序列化）；握手完成前使用注册中心中登记的编号时仍然传输这些字段，服务端按它们查找方法
+ * initialCredits > 0 表示流式调用：服务方法返回 Iterator/Stream 时，服务端以一系列 RpcStreamChunk 响应
+ * attachments 为随请求传递的附加信息（如调用链的 traceId，见 RpcAttachments），没有附加信息时为 null
+ * timeout 为发送时距离截止时间的剩余毫秒数（两端的时钟不一定一致，因此不传输绝对时间），
+ * 收发两端各自换算为本地的截止时间 deadlineNanos
  */
-public class RpcRequest {
+public class RpcRequest extends RpcMessage {
 
-    private String requestId; // 请求的Id, 唯一标识该请求
+    private int methodId; // 方法编号（握手时或注册中心中由服务端分配，0 表示未分配）
     private String interfaceName; // 接口名称
     private String serviceVersion; // 版本
     private String methodName; // 方法名称
     private Class<?>[] parameterTypes; // 参数类型
     private Object[] parameters; // 具体参数
+    private int initialCredits; // 流式调用时客户端的初始信用（可以接收的元素数），0 表示普通调用
+    private Map<String, String> attachments; // 附加信息
+    private long timeout; // 剩余的超时时间（毫秒），0 表示不限
+
+    private transient long deadlineNanos; // 本地的截止时间（System.nanoTime），0 表示不限
+
+    private transient volatile boolean cancelled; // 服务端：客户端已取消这个请求（尚未执行时不再执行）
+
+    private transient String methodKey; // 方法标识（见 RpcHandshake.methodKey），用于查找方法编号，不传输
+
+    @Override
+    public byte getMessageType() {
+        return RpcProtocol.TYPE_REQUEST;
+    }
+
+    public int getInitialCredits() {
+        return initialCredits;
+    }
+
+    public void setInitialCredits(int initialCredits) {
+        this.initialCredits = initialCredits;
+    }
+
+    public Map<String, String> getAttachments() {
+        return attachments;
+    }
+
+    public void setAttachments(Map<String, String> attachments) {
+        this.attachments = attachments;
+    }
+
+    /**
+     * @param key
+     * @return 没有该附加信息时返回 null
+     */
+    public String getAttachment(String key) {
+        return attachments != null ? attachments.get(key) : null;
+    }
 
-    public String getRequestId() {
-        return requestId;
+    public long getTimeout() {
+        return timeout;
     }
 
-    public void setRequestId(String requestId) {
-        this.requestId = requestId;
+    public void setTimeout(long timeout) {
+        this.timeout = timeout;
+    }
+
+    public long getDeadlineNanos() {
+        return deadlineNanos;
+    }
+
+    public void setDeadlineNanos(long deadlineNanos) {
+        this.deadlineNanos = deadlineNanos;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    public void setCancelled(boolean cancelled) {
+        this.cancelled = cancelled;
+    }
+
+    public int getMethodId() {
+        return methodId;
+    }
+
+    public void setMethodId(int methodId) {
+        this.methodId = methodId;
     }
 
     public String getInterfaceName() {
@@ -60,4 +132,12 @@ public class RpcRequest {
         this.parameters = parameters;
     }
 
-}
\ No newline at end of file
+    public String getMethodKey() {
+        return methodKey;
+    }
+
+    public void setMethodKey(String methodKey) {
+        this.methodKey = methodKey;
+    }
+
+}
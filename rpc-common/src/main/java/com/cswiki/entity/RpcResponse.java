@@ -1,24 +1,26 @@
 package com.cswiki.entity;
 
+import com.cswiki.codec.RpcProtocol;
+
+import java.util.Map;
+
 /**
- * 封装 RPC 响应
+ * 封装 RPC 响应（requestId 表示对该 requestId 的请求进行响应）
+ * attachments 为附加信息（如服务端各阶段的耗时，见 RpcAttachments），没有附加信息时为 null
  */
-public class RpcResponse {
+public class RpcResponse extends RpcMessage {
 
-    private String requestId; // 表示对该 requestId 的请求进行响应
     private Exception exception;
     private Object result;
+    private Map<String, String> attachments; // 附加信息
 
-    public boolean hasException() {
-        return exception != null;
+    @Override
+    public byte getMessageType() {
+        return RpcProtocol.TYPE_RESPONSE;
     }
 
-    public String getRequestId() {
-        return requestId;
-    }
-
-    public void setRequestId(String requestId) {
-        this.requestId = requestId;
+    public boolean hasException() {
+        return exception != null;
     }
 
     public Throwable getException() {
@@ -36,4 +38,20 @@ public class RpcResponse {
     public void setResult(Object result) {
         this.result = result;
     }
-}
\ No newline at end of file
+
+    public Map<String, String> getAttachments() {
+        return attachments;
+    }
+
+    public void setAttachments(Map<String, String> attachments) {
+        this.attachments = attachments;
+    }
+
+    /**
+     * @param key
+     * @return 没有该附加信息时返回 null
+     */
+    public String getAttachment(String key) {
+        return attachments != null ? attachments.get(key) : null;
+    }
+}
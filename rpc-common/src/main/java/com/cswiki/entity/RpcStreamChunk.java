@@ -0,0 +1,45 @@
+package com.cswiki.entity;
+
+import com.cswiki.codec.RpcProtocol;
+
+import java.util.List;
+
+/**
+ * 流式响应的一个分块（requestId 与流式请求相同）
+ * 服务端按客户端授予的信用发送分块，最后一个分块的 last 为 true；迭代过程中出错时最后一个分块携带异常
+ */
+public class RpcStreamChunk extends RpcMessage {
+
+    private List<Object> items; // 本分块中的元素
+    private boolean last; // 是否为最后一个分块
+    private Exception exception; // 服务端迭代过程中抛出的异常
+
+    @Override
+    public byte getMessageType() {
+        return RpcProtocol.TYPE_STREAM_CHUNK;
+    }
+
+    public List<Object> getItems() {
+        return items;
+    }
+
+    public void setItems(List<Object> items) {
+        this.items = items;
+    }
+
+    public boolean isLast() {
+        return last;
+    }
+
+    public void setLast(boolean last) {
+        this.last = last;
+    }
+
+    public Throwable getException() {
+        return exception;
+    }
+
+    public void setException(Exception exception) {
+        this.exception = exception;
+    }
+}
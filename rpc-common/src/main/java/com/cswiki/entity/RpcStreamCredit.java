@@ -0,0 +1,41 @@
+package com.cswiki.entity;
+
+import com.cswiki.codec.RpcProtocol;
+
+/**
+ * 流式调用的信用消息（客户端 -> 服务端，requestId 与流式请求相同）
+ * 客户端每消费一部分元素就授予服务端相应数量的信用，服务端已发送但未被授予信用的元素数不会超过客户端的窗口，
+ * 因此慢消费者不会被大量数据淹没；credits 为负数时表示客户端取消这个流
+ * 客户端也用取消消息取消可取消的普通请求（见 RpcAttachments.CANCELLABLE），服务端不再执行尚未开始执行的请求
+ */
+public class RpcStreamCredit extends RpcMessage {
+
+    // 取消流
+    public static final int CANCEL = -1;
+
+    private int credits; // 新授予的信用（可以再发送的元素数）
+
+    public RpcStreamCredit() {
+    }
+
+    public RpcStreamCredit(int credits) {
+        this.credits = credits;
+    }
+
+    @Override
+    public byte getMessageType() {
+        return RpcProtocol.TYPE_STREAM_CREDIT;
+    }
+
+    public int getCredits() {
+        return credits;
+    }
+
+    public void setCredits(int credits) {
+        this.credits = credits;
+    }
+
+    public boolean isCancel() {
+        return credits < 0;
+    }
+}
@@ -0,0 +1,15 @@
+package com.cswiki.exception;
+
+/**
+ * 服务端过载，请求在执行之前就被拒绝（超过服务的并发上限或业务线程池已满）
+ * 请求没有被执行，可以安全地重试其他服务实例；客户端收到后会在一段时间内避开该服务地址
+ */
+public class RpcOverloadedException extends RuntimeException {
+
+    public RpcOverloadedException() {
+    }
+
+    public RpcOverloadedException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,11 @@
+package com.cswiki.exception;
+
+/**
+ * 调用超过了截止时间（客户端等待响应超时，或者服务端在开始执行前发现请求已经过期）
+ */
+public class RpcTimeoutException extends RuntimeException {
+
+    public RpcTimeoutException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,93 @@
+package com.cswiki.metrics;
+
+/**
+ * 一次调用各阶段的耗时（纳秒，客户端开启 RpcOptions.timing 时记录）
+ * 客户端与服务端的时钟不同，因此服务端只返回耗时，网络耗时 = 请求编码完成到响应解码完成的时间 - 服务端总耗时
+ * 服务端未返回的阶段（如旧版服务端）为 -1
+ */
+public class CallTiming {
+
+    private final String traceId;
+
+    private final String spanId;
+
+    private final long totalNanos; // 整个调用的耗时
+
+    private final long discoveryNanos; // 服务发现与负载均衡
+
+    private final long encodeNanos; // 交给 I/O 线程并编码请求（包括等待批量发送、建立连接的时间）
+
+    private final long networkNanos; // 网络传输（往返）以及服务端解码请求、编码响应
+
+    private final long serverQueueNanos; // 服务端在业务线程池中排队
+
+    private final long serverInvokeNanos; // 服务端执行服务方法
+
+    private final long serverTotalNanos; // 服务端从解码完请求到响应交给 I/O 线程
+
+    private final long deliverNanos; // 响应解码完成到调用方拿到结果（唤醒调用线程）
+
+    public CallTiming(String traceId, String spanId, long totalNanos, long discoveryNanos, long encodeNanos,
+                      long networkNanos, long serverQueueNanos, long serverInvokeNanos, long serverTotalNanos,
+                      long deliverNanos) {
+        this.traceId = traceId;
+        this.spanId = spanId;
+        this.totalNanos = totalNanos;
+        this.discoveryNanos = discoveryNanos;
+        this.encodeNanos = encodeNanos;
+        this.networkNanos = networkNanos;
+        this.serverQueueNanos = serverQueueNanos;
+        this.serverInvokeNanos = serverInvokeNanos;
+        this.serverTotalNanos = serverTotalNanos;
+        this.deliverNanos = deliverNanos;
+    }
+
+    public String getTraceId() {
+        return traceId;
+    }
+
+    public String getSpanId() {
+        return spanId;
+    }
+
+    public long getTotalNanos() {
+        return totalNanos;
+    }
+
+    public long getDiscoveryNanos() {
+        return discoveryNanos;
+    }
+
+    public long getEncodeNanos() {
+        return encodeNanos;
+    }
+
+    public long getNetworkNanos() {
+        return networkNanos;
+    }
+
+    public long getServerQueueNanos() {
+        return serverQueueNanos;
+    }
+
+    public long getServerInvokeNanos() {
+        return serverInvokeNanos;
+    }
+
+    public long getServerTotalNanos() {
+        return serverTotalNanos;
+    }
+
+    public long getDeliverNanos() {
+        return deliverNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("trace=%s span=%s total=%.1fus discovery=%.1fus encode=%.1fus network=%.1fus "
+                        + "serverQueue=%.1fus serverInvoke=%.1fus serverTotal=%.1fus deliver=%.1fus",
+                traceId, spanId, totalNanos / 1000.0, discoveryNanos / 1000.0, encodeNanos / 1000.0,
+                networkNanos / 1000.0, serverQueueNanos / 1000.0, serverInvokeNanos / 1000.0,
+                serverTotalNanos / 1000.0, deliverNanos / 1000.0);
+    }
+}
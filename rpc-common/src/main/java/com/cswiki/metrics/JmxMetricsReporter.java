@@ -0,0 +1,79 @@
+package com.cswiki.metrics;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 以 MXBean 的形式输出指标（可以用 JConsole/VisualVM 查看），ObjectName 为：
+ * com.cswiki.rpc:type=Method,side=server,service="...",version="...",method="..."
+ * com.cswiki.rpc:type=Transport,side=client
+ * com.cswiki.rpc:type=Gauges
+ */
+public class JmxMetricsReporter implements MetricsReporter {
+
+    public static final String DOMAIN = "com.cswiki.rpc";
+
+    private final MBeanServer mBeanServer;
+
+    // 已注册的 MBean，stop 时注销
+    private final Set<ObjectName> registeredNames = ConcurrentHashMap.newKeySet();
+
+    public JmxMetricsReporter() {
+        this(ManagementFactory.getPlatformMBeanServer());
+    }
+
+    public JmxMetricsReporter(MBeanServer mBeanServer) {
+        this.mBeanServer = mBeanServer;
+    }
+
+    @Override
+    public void start(RpcMetrics metrics) {
+        register(metrics, DOMAIN + ":type=Gauges");
+        for (RpcMetrics.Side side : RpcMetrics.Side.values()) {
+            register(metrics.transport(side), DOMAIN + ":type=Transport,side=" + side.name().toLowerCase());
+        }
+        for (MethodMetrics methodMetrics : metrics.getMethodMetrics()) {
+            methodAdded(methodMetrics);
+        }
+    }
+
+    @Override
+    public void methodAdded(MethodMetrics methodMetrics) {
+        register(methodMetrics, DOMAIN + ":type=Method,side=" + methodMetrics.getSide().name().toLowerCase()
+                + ",service=" + ObjectName.quote(methodMetrics.getService())
+                + ",version=" + ObjectName.quote(methodMetrics.getVersion())
+                + ",method=" + ObjectName.quote(methodMetrics.getMethod()));
+    }
+
+    @Override
+    public void stop() {
+        for (ObjectName name : registeredNames) {
+            try {
+                mBeanServer.unregisterMBean(name);
+            } catch (InstanceNotFoundException e) {
+                // 已被其他人注销
+            } catch (JMException e) {
+                throw new RuntimeException(String.format("unregister mbean failure: %s", name), e);
+            }
+        }
+        registeredNames.clear();
+    }
+
+    private void register(Object mBean, String name) {
+        try {
+            ObjectName objectName = new ObjectName(name);
+            mBeanServer.registerMBean(mBean, objectName);
+            registeredNames.add(objectName);
+        } catch (InstanceAlreadyExistsException e) {
+            // 同名的 MBean 已注册（如重复调用 start），保留原有的
+        } catch (JMException e) {
+            throw new RuntimeException(String.format("register mbean failure: %s", name), e);
+        }
+    }
+}
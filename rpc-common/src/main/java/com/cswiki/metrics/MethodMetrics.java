@@ -0,0 +1,153 @@
+package com.cswiki.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 一个服务方法（服务名称 + 版本号 + 方法名称）在客户端或服务端的指标：
+ * 请求数、失败数、进行中的请求数以及耗时分布
+ * 调用方应缓存该对象（如服务端的 ServiceInvoker、客户端代理的方法缓存），记录时不再查找
+ */
+public class MethodMetrics implements MethodMetricsMXBean {
+
+    private final RpcMetrics.Side side;
+
+    private final String service; // 接口名称
+
+    private final String version; // 版本号（无版本为 ""）
+
+    private final String method; // 方法名称
+
+    private final LongAdder requests = new LongAdder();
+
+    private final LongAdder errors = new LongAdder();
+
+    private final LongAdder inFlight = new LongAdder();
+
+    private final LongAdder expired = new LongAdder();
+
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    MethodMetrics(RpcMetrics.Side side, String service, String version, String method) {
+        this.side = side;
+        this.service = service;
+        this.version = version;
+        this.method = method;
+    }
+
+    /**
+     * 请求开始
+     * @return 开始时间（System.nanoTime），结束时传给 end
+     */
+    public long begin() {
+        inFlight.increment();
+        return System.nanoTime();
+    }
+
+    /**
+     * 请求结束
+     * @param startNanos begin 返回的开始时间
+     * @param succeeded 是否成功
+     */
+    public void end(long startNanos, boolean succeeded) {
+        inFlight.decrement();
+        requests.increment();
+        if (!succeeded) {
+            errors.increment();
+        }
+        latency.record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * 请求在开始执行前就已经过期（或被客户端取消）而被丢弃（计为失败，不记录耗时）
+     */
+    public void expire() {
+        inFlight.decrement();
+        requests.increment();
+        errors.increment();
+        expired.increment();
+    }
+
+    /**
+     * @return 当前各项指标的快照
+     */
+    public MethodSnapshot snapshot() {
+        long[] percentiles = latency.getValuesAtPercentiles(50, 90, 99, 99.9);
+        return new MethodSnapshot(side, service, version, method, requests.sum(), errors.sum(), inFlight.sum(), expired.sum(),
+                latency.getMeanNanos() / 1000, percentiles[0] / 1000.0, percentiles[1] / 1000.0,
+                percentiles[2] / 1000.0, percentiles[3] / 1000.0, latency.getMaxNanos() / 1000.0);
+    }
+
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    @Override
+    public RpcMetrics.Side getSide() {
+        return side;
+    }
+
+    @Override
+    public String getService() {
+        return service;
+    }
+
+    @Override
+    public String getVersion() {
+        return version;
+    }
+
+    @Override
+    public String getMethod() {
+        return method;
+    }
+
+    @Override
+    public long getRequests() {
+        return requests.sum();
+    }
+
+    @Override
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    @Override
+    public long getInFlight() {
+        return inFlight.sum();
+    }
+
+    @Override
+    public long getExpired() {
+        return expired.sum();
+    }
+
+    @Override
+    public double getMeanMicros() {
+        return latency.getMeanNanos() / 1000;
+    }
+
+    @Override
+    public double getP50Micros() {
+        return latency.getValueAtPercentile(50) / 1000.0;
+    }
+
+    @Override
+    public double getP90Micros() {
+        return latency.getValueAtPercentile(90) / 1000.0;
+    }
+
+    @Override
+    public double getP99Micros() {
+        return latency.getValueAtPercentile(99) / 1000.0;
+    }
+
+    @Override
+    public double getP999Micros() {
+        return latency.getValueAtPercentile(99.9) / 1000.0;
+    }
+
+    @Override
+    public double getMaxMicros() {
+        return latency.getMaxNanos() / 1000.0;
+    }
+}
@@ -0,0 +1,35 @@
+package com.cswiki.metrics;
+
+/**
+ * 方法指标的 JMX 视图（耗时单位为微秒）
+ */
+public interface MethodMetricsMXBean {
+
+    RpcMetrics.Side getSide();
+
+    String getService();
+
+    String getVersion();
+
+    String getMethod();
+
+    long getRequests();
+
+    long getErrors();
+
+    long getInFlight();
+
+    long getExpired();
+
+    double getMeanMicros();
+
+    double getP50Micros();
+
+    double getP90Micros();
+
+    double getP99Micros();
+
+    double getP999Micros();
+
+    double getMaxMicros();
+}
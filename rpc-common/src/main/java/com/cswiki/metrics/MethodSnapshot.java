@@ -0,0 +1,117 @@
+package com.cswiki.metrics;
+
+/**
+ * 方法指标的快照（不可变，耗时单位为微秒）
+ */
+public class MethodSnapshot {
+
+    private final RpcMetrics.Side side;
+
+    private final String service;
+
+    private final String version;
+
+    private final String method;
+
+    private final long requests;
+
+    private final long errors;
+
+    private final long inFlight;
+
+    private final long expired; // 过期（或被取消）而被丢弃的请求数（包含在 errors 中）
+
+    private final double meanMicros;
+
+    private final double p50Micros;
+
+    private final double p90Micros;
+
+    private final double p99Micros;
+
+    private final double p999Micros;
+
+    private final double maxMicros;
+
+    public MethodSnapshot(RpcMetrics.Side side, String service, String version, String method, long requests, long errors,
+                          long inFlight, long expired, double meanMicros, double p50Micros, double p90Micros, double p99Micros,
+                          double p999Micros, double maxMicros) {
+        this.side = side;
+        this.service = service;
+        this.version = version;
+        this.method = method;
+        this.requests = requests;
+        this.errors = errors;
+        this.inFlight = inFlight;
+        this.expired = expired;
+        this.meanMicros = meanMicros;
+        this.p50Micros = p50Micros;
+        this.p90Micros = p90Micros;
+        this.p99Micros = p99Micros;
+        this.p999Micros = p999Micros;
+        this.maxMicros = maxMicros;
+    }
+
+    public RpcMetrics.Side getSide() {
+        return side;
+    }
+
+    public String getService() {
+        return service;
+    }
+
+    public String getVersion() {
+        return version;
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    public long getRequests() {
+        return requests;
+    }
+
+    public long getErrors() {
+        return errors;
+    }
+
+    public long getInFlight() {
+        return inFlight;
+    }
+
+    public long getExpired() {
+        return expired;
+    }
+
+    public double getMeanMicros() {
+        return meanMicros;
+    }
+
+    public double getP50Micros() {
+        return p50Micros;
+    }
+
+    public double getP90Micros() {
+        return p90Micros;
+    }
+
+    public double getP99Micros() {
+        return p99Micros;
+    }
+
+    public double getP999Micros() {
+        return p999Micros;
+    }
+
+    public double getMaxMicros() {
+        return maxMicros;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s %s%s#%s requests=%d errors=%d inFlight=%d expired=%d mean=%.1fus p50=%.1fus p90=%.1fus p99=%.1fus p999=%.1fus max=%.1fus",
+                side.name().toLowerCase(), service, version.isEmpty() ? "" : "-" + version, method, requests, errors,
+                inFlight, expired, meanMicros, p50Micros, p90Micros, p99Micros, p999Micros, maxMicros);
+    }
+}
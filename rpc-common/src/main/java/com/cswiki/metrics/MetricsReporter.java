@@ -0,0 +1,32 @@
+package com.cswiki.metrics;
+
+/**
+ * 指标输出方式（如 JMX），通过 RpcMetrics.addReporter 注册
+ */
+public interface MetricsReporter {
+
+    /**
+     * 注册到 RpcMetrics 时调用（此时可以输出已有的指标）
+     * @param metrics
+     */
+    void start(RpcMetrics metrics);
+
+    /**
+     * 创建了新的方法指标（第一次调用某个服务方法时）
+     * @param methodMetrics
+     */
+    void methodAdded(MethodMetrics methodMetrics);
+
+    /**
+     * 客户端完成了一次记录各阶段耗时的调用（见 RpcOptions.timing），在完成调用的线程中执行，不要阻塞
+     * @param methodMetrics 所调用方法的指标
+     * @param timing 各阶段的耗时
+     */
+    default void timingRecorded(MethodMetrics methodMetrics, CallTiming timing) {
+    }
+
+    /**
+     * 从 RpcMetrics 移除时调用
+     */
+    void stop();
+}
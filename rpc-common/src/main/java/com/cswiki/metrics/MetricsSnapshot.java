@@ -0,0 +1,72 @@
+package com.cswiki.metrics;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * RpcMetrics 中所有指标的快照
+ */
+public class MetricsSnapshot {
+
+    private final List<MethodSnapshot> methods;
+
+    // 客户端收发的字节数
+    private final long clientBytesIn;
+
+    private final long clientBytesOut;
+
+    // 服务端收发的字节数
+    private final long serverBytesIn;
+
+    private final long serverBytesOut;
+
+    private final Map<String, Long> gauges;
+
+    public MetricsSnapshot(List<MethodSnapshot> methods, long clientBytesIn, long clientBytesOut,
+                           long serverBytesIn, long serverBytesOut, Map<String, Long> gauges) {
+        this.methods = methods;
+        this.clientBytesIn = clientBytesIn;
+        this.clientBytesOut = clientBytesOut;
+        this.serverBytesIn = serverBytesIn;
+        this.serverBytesOut = serverBytesOut;
+        this.gauges = gauges;
+    }
+
+    public List<MethodSnapshot> getMethods() {
+        return methods;
+    }
+
+    public long getClientBytesIn() {
+        return clientBytesIn;
+    }
+
+    public long getClientBytesOut() {
+        return clientBytesOut;
+    }
+
+    public long getServerBytesIn() {
+        return serverBytesIn;
+    }
+
+    public long getServerBytesOut() {
+        return serverBytesOut;
+    }
+
+    public Map<String, Long> getGauges() {
+        return gauges;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (MethodSnapshot method : methods) {
+            builder.append(method).append('\n');
+        }
+        builder.append(String.format("client bytes in=%d out=%d, server bytes in=%d out=%d",
+                clientBytesIn, clientBytesOut, serverBytesIn, serverBytesOut));
+        for (Map.Entry<String, Long> entry : gauges.entrySet()) {
+            builder.append('\n').append(entry.getKey()).append('=').append(entry.getValue());
+        }
+        return builder.toString();
+    }
+}
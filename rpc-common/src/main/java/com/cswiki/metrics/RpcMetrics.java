@@ -0,0 +1,153 @@
+package com.cswiki.metrics;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.LongSupplier;
+
+/**
+ * RPC 指标注册表：按 调用方/服务名称/版本号/方法名称 区分的方法指标、客户端与服务端的传输层指标，以及各项瞬时值
+ * 框架内部使用 getDefault() 返回的实例；指标可以通过 snapshot() 获取，也可以注册 MetricsReporter 输出（见 enableJmx）
+ */
+public class RpcMetrics implements RpcMetricsMXBean {
+
+    /**
+     * 指标所属的一方
+     */
+    public enum Side {
+        CLIENT,
+        SERVER
+    }
+
+    private static final RpcMetrics DEFAULT = new RpcMetrics();
+
+    // 方法标识与方法指标之间的映射关系
+    private final ConcurrentMap<String, MethodMetrics> methodMap = new ConcurrentHashMap<>();
+
+    private final TransportMetrics clientTransport = new TransportMetrics();
+
+    private final TransportMetrics serverTransport = new TransportMetrics();
+
+    // 瞬时值的名称与其读取方法之间的映射关系
+    private final ConcurrentMap<String, LongSupplier> gaugeMap = new ConcurrentHashMap<>();
+
+    private final List<MetricsReporter> reporters = new CopyOnWriteArrayList<>();
+
+    private JmxMetricsReporter jmxReporter;
+
+    public static RpcMetrics getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * 获取（不存在时创建）方法指标，返回的对象应由调用方缓存
+     * @param side 调用方
+     * @param service 接口名称
+     * @param version 版本号
+     * @param method 方法名称
+     * @return
+     */
+    public MethodMetrics methodMetrics(Side side, String service, String version, String method) {
+        String serviceVersion = version == null ? "" : version.trim();
+        String key = side.name() + ':' + service + '-' + serviceVersion + '#' + method;
+        MethodMetrics methodMetrics = methodMap.get(key);
+        if (methodMetrics != null) {
+            return methodMetrics;
+        }
+        MethodMetrics created = new MethodMetrics(side, service, serviceVersion, method);
+        methodMetrics = methodMap.putIfAbsent(key, created);
+        if (methodMetrics != null) {
+            return methodMetrics;
+        }
+        for (MetricsReporter reporter : reporters) {
+            reporter.methodAdded(created);
+        }
+        return created;
+    }
+
+    public Collection<MethodMetrics> getMethodMetrics() {
+        return methodMap.values();
+    }
+
+    /**
+     * @param side
+     * @return 客户端或服务端的传输层指标
+     */
+    public TransportMetrics transport(Side side) {
+        return side == Side.CLIENT ? clientTransport : serverTransport;
+    }
+
+    /**
+     * 注册一个瞬时值（同名的会被替换）
+     * @param name 名称
+     * @param supplier 读取方法（读取时调用，应当足够快）
+     */
+    public void registerGauge(String name, LongSupplier supplier) {
+        gaugeMap.put(name, supplier);
+    }
+
+    public void removeGauge(String name) {
+        gaugeMap.remove(name);
+    }
+
+    /**
+     * @return 所有瞬时值的当前值（按名称排序）
+     */
+    @Override
+    public Map<String, Long> getGauges() {
+        Map<String, Long> gauges = new TreeMap<>();
+        for (Map.Entry<String, LongSupplier> entry : gaugeMap.entrySet()) {
+            gauges.put(entry.getKey(), entry.getValue().getAsLong());
+        }
+        return gauges;
+    }
+
+    /**
+     * @return 所有指标的快照
+     */
+    public MetricsSnapshot snapshot() {
+        List<MethodSnapshot> methods = new ArrayList<>(methodMap.size());
+        for (MethodMetrics methodMetrics : methodMap.values()) {
+            methods.add(methodMetrics.snapshot());
+        }
+        return new MetricsSnapshot(methods, clientTransport.getBytesIn(), clientTransport.getBytesOut(),
+                serverTransport.getBytesIn(), serverTransport.getBytesOut(), getGauges());
+    }
+
+    /**
+     * 将一次调用各阶段的耗时交给所有 MetricsReporter
+     * @param methodMetrics
+     * @param timing
+     */
+    public void recordTiming(MethodMetrics methodMetrics, CallTiming timing) {
+        for (MetricsReporter reporter : reporters) {
+            reporter.timingRecorded(methodMetrics, timing);
+        }
+    }
+
+    public void addReporter(MetricsReporter reporter) {
+        reporters.add(reporter);
+        reporter.start(this);
+    }
+
+    public void removeReporter(MetricsReporter reporter) {
+        if (reporters.remove(reporter)) {
+            reporter.stop();
+        }
+    }
+
+    /**
+     * 将指标注册到平台 MBeanServer（重复调用只注册一次）
+     */
+    public synchronized void enableJmx() {
+        if (jmxReporter == null) {
+            jmxReporter = new JmxMetricsReporter();
+            addReporter(jmxReporter);
+        }
+    }
+}
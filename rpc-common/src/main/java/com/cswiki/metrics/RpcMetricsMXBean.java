@@ -0,0 +1,11 @@
+package com.cswiki.metrics;
+
+import java.util.Map;
+
+/**
+ * 注册到 RpcMetrics 的各项瞬时值（如业务线程池的队列长度）的 JMX 视图
+ */
+public interface RpcMetricsMXBean {
+
+    Map<String, Long> getGauges();
+}
@@ -0,0 +1,55 @@
+package com.cswiki.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 客户端或服务端编解码器收发的字节数与帧数（批量消息按一帧计算）
+ */
+public class TransportMetrics implements TransportMetricsMXBean {
+
+    private final LongAdder bytesIn = new LongAdder();
+
+    private final LongAdder bytesOut = new LongAdder();
+
+    private final LongAdder framesIn = new LongAdder();
+
+    private final LongAdder framesOut = new LongAdder();
+
+    /**
+     * 解码了一帧
+     * @param bytes 帧的长度（消息头 + 消息体）
+     */
+    public void frameIn(int bytes) {
+        framesIn.increment();
+        bytesIn.add(bytes);
+    }
+
+    /**
+     * 编码了一帧
+     * @param bytes 帧的长度（消息头 + 消息体）
+     */
+    public void frameOut(int bytes) {
+        framesOut.increment();
+        bytesOut.add(bytes);
+    }
+
+    @Override
+    public long getBytesIn() {
+        return bytesIn.sum();
+    }
+
+    @Override
+    public long getBytesOut() {
+        return bytesOut.sum();
+    }
+
+    @Override
+    public long getFramesIn() {
+        return framesIn.sum();
+    }
+
+    @Override
+    public long getFramesOut() {
+        return framesOut.sum();
+    }
+}
@@ -0,0 +1,15 @@
+package com.cswiki.metrics;
+
+/**
+ * 传输层指标的 JMX 视图
+ */
+public interface TransportMetricsMXBean {
+
+    long getBytesIn();
+
+    long getBytesOut();
+
+    long getFramesIn();
+
+    long getFramesOut();
+}
@@ -3,17 +3,24 @@ package com.cswiki.serializer;
 import com.dyuproject.protostuff.LinkedBuffer;
 import com.dyuproject.protostuff.ProtostuffIOUtil;
 import com.dyuproject.protostuff.Schema;
+
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
 import com.dyuproject.protostuff.runtime.RuntimeSchema;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.ByteBufOutputStream;
+import io.netty.util.concurrent.FastThreadLocal;
 import org.objenesis.Objenesis;
 import org.objenesis.ObjenesisStd;
 
 /**
  * 自定义序列化/反序列化方法（基于 Protostuff）
  *
- * 如果你需要更改序列化的方式，只需要修改这个文件就可以
+ * 这是默认序列化方式 ProtostuffSerializer 的具体实现，其他序列化方式见 Serializer
  */
 public class CustomSerializer {
 
@@ -23,6 +30,22 @@ public class CustomSerializer {
     // 使用 Objenesis 来实例化对象，它比 Java 反射更加强大
     private static  Objenesis objenesis = new ObjenesisStd(true);
 
+    // 每个线程复用的序列化缓冲区（用完后 clear，不必每次重新分配）
+    private static final FastThreadLocal<LinkedBuffer> SERIALIZE_BUFFER = new FastThreadLocal<LinkedBuffer>() {
+        @Override
+        protected LinkedBuffer initialValue() {
+            return LinkedBuffer.allocate(LinkedBuffer.DEFAULT_BUFFER_SIZE);
+        }
+    };
+
+    // 每个线程复用的反序列化读缓冲区（从流中反序列化时使用）
+    private static final FastThreadLocal<LinkedBuffer> DESERIALIZE_BUFFER = new FastThreadLocal<LinkedBuffer>() {
+        @Override
+        protected LinkedBuffer initialValue() {
+            return LinkedBuffer.allocate(LinkedBuffer.DEFAULT_BUFFER_SIZE);
+        }
+    };
+
     private static <T> Schema<T> getSchema(Class<T> cls) {
         Schema<T> schema = (Schema<T>) cachedSchema.get(cls);
         if (schema == null) {
@@ -32,6 +55,15 @@ public class CustomSerializer {
         return schema;
     }
 
+    /**
+     * 预先创建类型的 Schema：作为消息本身序列化时使用的 Schema，以及作为其他对象的字段或参数时由 Protostuff 内部缓存的 Schema
+     * @param cls
+     */
+    public static void prepare(Class<?> cls) {
+        getSchema(cls);
+        RuntimeSchema.getSchema(cls);
+    }
+
     /**
      * 序列化 obj ——> byte[]
      * @param obj
@@ -40,7 +72,7 @@ public class CustomSerializer {
      */
     public static <T> byte[] serialize(T obj) {
         Class<T> cls = (Class<T>) obj.getClass();
-        LinkedBuffer buffer = LinkedBuffer.allocate(LinkedBuffer.DEFAULT_BUFFER_SIZE);
+        LinkedBuffer buffer = SERIALIZE_BUFFER.get();
         try {
             Schema<T> schema = getSchema(cls);
             return ProtostuffIOUtil.toByteArray(obj, schema, buffer);
@@ -51,6 +83,27 @@ public class CustomSerializer {
         }
     }
 
+    /**
+     * 序列化 obj ——> ByteBuf（直接写入 out，不产生中间的 byte[]）
+     * @param obj
+     * @param out
+     * @param <T>
+     * @return 写入的字节数
+     */
+    public static <T> int serialize(T obj, ByteBuf out) {
+        Class<T> cls = (Class<T>) obj.getClass();
+        LinkedBuffer buffer = SERIALIZE_BUFFER.get();
+        try {
+            Schema<T> schema = getSchema(cls);
+            OutputStream outputStream = new ByteBufOutputStream(out);
+            return ProtostuffIOUtil.writeTo(outputStream, obj, schema, buffer);
+        } catch (Exception e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        } finally {
+            buffer.clear();
+        }
+    }
+
     /**
      * 反序列化 byte[] ——> obj
      * @param data
@@ -69,5 +122,33 @@ public class CustomSerializer {
         }
     }
 
+    /**
+     * 反序列化 ByteBuf 中接下来的 length 个字节 ——> obj（不复制出中间的 byte[]）
+     * 堆内存直接读取其底层数组，直接内存通过 ByteBufInputStream 读取
+     * @param in
+     * @param length
+     * @param cls
+     * @param <T>
+     * @return
+     */
+    public static <T> T deserialize(ByteBuf in, int length, Class<T> cls) {
+        int readerIndex = in.readerIndex();
+        try {
+            T message = objenesis.newInstance(cls);
+            Schema<T> schema = getSchema(cls);
+            if (in.hasArray()) {
+                ProtostuffIOUtil.mergeFrom(in.array(), in.arrayOffset() + readerIndex, length, message, schema);
+            } else {
+                InputStream inputStream = new ByteBufInputStream(in, length);
+                ProtostuffIOUtil.mergeFrom(inputStream, message, schema, DESERIALIZE_BUFFER.get());
+            }
+            return message;
+        } catch (Exception e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        } finally {
+            in.readerIndex(readerIndex + length);
+        }
+    }
+
 
 }
@@ -0,0 +1,52 @@
+package com.cswiki.serializer;
+
+import com.cswiki.codec.RpcProtocol;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.ByteBufOutputStream;
+
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+/**
+ * 基于 JDK 自带序列化的序列化方式（兜底方案，参数与返回值必须实现 Serializable）
+ * 速度慢、体积大，但可以处理其他序列化方式不支持的类型
+ *
+ * 反序列化时会实例化消息中的任意类，对端不可信时存在远程代码执行的风险，因此默认不注册，
+ * 只在双方都可信时通过 Serializers.register(new JavaSerializer()) 显式启用（服务端还需在 serializers 中配置 java）
+ */
+public class JavaSerializer implements Serializer {
+
+    @Override
+    public byte getId() {
+        return RpcProtocol.SERIALIZER_JAVA;
+    }
+
+    @Override
+    public String getName() {
+        return "java";
+    }
+
+    @Override
+    public <T> int serialize(T obj, ByteBuf out) {
+        int writerIndex = out.writerIndex();
+        try (ObjectOutputStream outputStream = new ObjectOutputStream(new ByteBufOutputStream(out))) {
+            outputStream.writeObject(obj);
+        } catch (Exception e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+        return out.writerIndex() - writerIndex;
+    }
+
+    @Override
+    public <T> T deserialize(ByteBuf in, int length, Class<T> cls) {
+        int readerIndex = in.readerIndex();
+        try (ObjectInputStream inputStream = new ObjectInputStream(new ByteBufInputStream(in, length))) {
+            return cls.cast(inputStream.readObject());
+        } catch (Exception e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        } finally {
+            in.readerIndex(readerIndex + length);
+        }
+    }
+}
@@ -0,0 +1,393 @@
+package com.cswiki.serializer;
+
+import com.cswiki.codec.RpcProtocol;
+import com.cswiki.entity.RpcHandshake;
+import com.cswiki.entity.RpcRequest;
+import com.cswiki.entity.RpcResponse;
+import com.cswiki.entity.RpcStreamChunk;
+import com.cswiki.entity.RpcStreamCredit;
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.KryoException;
+import com.esotericsoftware.kryo.Registration;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import com.esotericsoftware.kryo.util.DefaultClassResolver;
+import com.esotericsoftware.kryo.util.DefaultInstantiatorStrategy;
+import com.esotericsoftware.kryo.util.MapReferenceResolver;
+import com.esotericsoftware.kryo.util.Pool;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.ByteBufOutputStream;
+import org.objenesis.strategy.StdInstantiatorStrategy;
+
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Function;
+
+/**
+ * 基于 Kryo 的序列化方式
+ * Kryo 实例不是线程安全的，因此 Kryo 以及读写缓冲区都从线程安全的对象池中获取，用完归还
+ *
+ * 注册的类只写入编号而不是类名，客户端与服务端必须以相同的顺序注册相同的类；
+ * 未注册的类写入完整类名，但只有白名单中的类才能（反）序列化，避免对端通过类名实例化任意的类：
+ * 预先准备过的类（见 Serializers.prepare，即服务方法的参数、返回值与声明的异常类型及其字段的类型）、
+ * SAFE_CLASSES 中的 JDK 类型、枚举、这些类型的数组，以及异常（只传输类型、消息、调用栈和 cause，
+ * 只有预先准备过的异常和 java.* 中的异常通过构造方法创建，其他异常以 RuntimeException 代替）
+ */
+public class KryoSerializer implements Serializer {
+
+    // 默认注册的类（顺序决定编号，不能修改，新增的类只能追加在末尾）
+    private static final List<Class<?>> DEFAULT_CLASSES = Arrays.asList(
+            RpcRequest.class, RpcResponse.class, RpcHandshake.class,
+            Object[].class, Class.class, Class[].class, String[].class,
+            HashMap.class, ArrayList.class, RpcStreamChunk.class, RpcStreamCredit.class);
+
+    // Collections 中不可修改的/同步的集合包装类与其序列化方式之间的映射关系
+    private static final Map<Class<?>, CollectionWrapperSerializer> WRAPPER_SERIALIZERS = new HashMap<>();
+
+    static {
+        Function<Object, Object> list = c -> new ArrayList<>((Collection<?>) c);
+        Function<Object, Object> set = c -> new LinkedHashSet<>((Collection<?>) c);
+        Function<Object, Object> sortedSet = c -> new TreeSet<>((SortedSet<Object>) c);
+        Function<Object, Object> map = m -> new LinkedHashMap<>((Map<?, ?>) m);
+        Function<Object, Object> sortedMap = m -> new TreeMap<>((SortedMap<Object, ?>) m);
+        addWrapper(Collections.unmodifiableCollection(new ArrayList<>()), list, c -> Collections.unmodifiableCollection((Collection<?>) c));
+        addWrapper(Collections.unmodifiableList(new ArrayList<>()), list, c -> Collections.unmodifiableList((List<?>) c));
+        addWrapper(Collections.unmodifiableList(new LinkedList<>()), list, c -> Collections.unmodifiableList((List<?>) c));
+        addWrapper(Collections.unmodifiableSet(new HashSet<>()), set, c -> Collections.unmodifiableSet((Set<?>) c));
+        addWrapper(Collections.unmodifiableSortedSet(new TreeSet<>()), sortedSet, c -> Collections.unmodifiableSortedSet((SortedSet<?>) c));
+        addWrapper(Collections.unmodifiableNavigableSet(new TreeSet<>()), sortedSet, c -> Collections.unmodifiableNavigableSet((NavigableSet<?>) c));
+        addWrapper(Collections.unmodifiableMap(new HashMap<>()), map, m -> Collections.unmodifiableMap((Map<?, ?>) m));
+        addWrapper(Collections.unmodifiableSortedMap(new TreeMap<>()), sortedMap, m -> Collections.unmodifiableSortedMap((SortedMap<?, ?>) m));
+        addWrapper(Collections.unmodifiableNavigableMap(new TreeMap<>()), sortedMap, m -> Collections.unmodifiableNavigableMap((NavigableMap<?, ?>) m));
+        // 同步的集合以自身为锁，复制时持有锁
+        addWrapper(Collections.synchronizedCollection(new ArrayList<>()), synchronizedCopy(list), c -> Collections.synchronizedCollection((Collection<?>) c));
+        addWrapper(Collections.synchronizedList(new ArrayList<>()), synchronizedCopy(list), c -> Collections.synchronizedList((List<?>) c));
+        addWrapper(Collections.synchronizedList(new LinkedList<>()), synchronizedCopy(list), c -> Collections.synchronizedList((List<?>) c));
+        addWrapper(Collections.synchronizedSet(new HashSet<>()), synchronizedCopy(set), c -> Collections.synchronizedSet((Set<?>) c));
+        addWrapper(Collections.synchronizedSortedSet(new TreeSet<>()), synchronizedCopy(sortedSet), c -> Collections.synchronizedSortedSet((SortedSet<?>) c));
+        addWrapper(Collections.synchronizedNavigableSet(new TreeSet<>()), synchronizedCopy(sortedSet), c -> Collections.synchronizedNavigableSet((NavigableSet<?>) c));
+        addWrapper(Collections.synchronizedMap(new HashMap<>()), synchronizedCopy(map), m -> Collections.synchronizedMap((Map<?, ?>) m));
+        addWrapper(Collections.synchronizedSortedMap(new TreeMap<>()), synchronizedCopy(sortedMap), m -> Collections.synchronizedSortedMap((SortedMap<?, ?>) m));
+        addWrapper(Collections.synchronizedNavigableMap(new TreeMap<>()), synchronizedCopy(sortedMap), m -> Collections.synchronizedNavigableMap((NavigableMap<?, ?>) m));
+    }
+
+    // 允许（反）序列化的 JDK 类型（基本类型的包装类和 String 已由 Kryo 默认注册）
+    private static final Set<Class<?>> SAFE_CLASSES = new HashSet<>(Arrays.asList(
+            Object.class, BigDecimal.class, BigInteger.class, Date.class,
+            LocalDate.class, LocalTime.class, LocalDateTime.class, Instant.class, Duration.class,
+            LinkedList.class, CopyOnWriteArrayList.class, LinkedHashMap.class, TreeMap.class, ConcurrentHashMap.class,
+            HashSet.class, LinkedHashSet.class, TreeSet.class, Arrays.asList().getClass(),
+            Collections.emptyList().getClass(), Collections.emptyMap().getClass(), Collections.emptySet().getClass(),
+            Collections.singletonList(null).getClass(), Collections.singletonMap(null, null).getClass(),
+            Collections.singleton(null).getClass()));
+
+    static {
+        SAFE_CLASSES.addAll(WRAPPER_SERIALIZERS.keySet());
+    }
+
+    private static final int BUFFER_SIZE = 4096;
+
+    // 预先准备过的类（见 prepare），未注册时也允许（反）序列化
+    private final Set<Class<?>> allowedClasses = ConcurrentHashMap.newKeySet();
+
+    private final Pool<Kryo> kryoPool;
+
+    private final Pool<Output> outputPool = new Pool<Output>(true, false, 64) {
+        @Override
+        protected Output create() {
+            return new Output(BUFFER_SIZE, -1);
+        }
+    };
+
+    private final Pool<Input> inputPool = new Pool<Input>(true, false, 64) {
+        @Override
+        protected Input create() {
+            return new Input(BUFFER_SIZE);
+        }
+    };
+
+    /**
+     * @param registeredClasses 额外注册的类（通常是参数与返回值的类型），编号排在默认注册的类之后
+     */
+    public KryoSerializer(Class<?>... registeredClasses) {
+        List<Class<?>> classes = new ArrayList<>(DEFAULT_CLASSES);
+        classes.addAll(Arrays.asList(registeredClasses));
+        kryoPool = new Pool<Kryo>(true, false, 64) {
+            @Override
+            protected Kryo create() {
+                // 未注册的类由 AllowListClassResolver 检查是否在白名单中
+                Kryo kryo = new Kryo(new AllowListClassResolver(), new MapReferenceResolver());
+                kryo.setRegistrationRequired(false);
+                // 对象图中可能存在循环引用（如异常链），开启引用跟踪
+                kryo.setReferences(true);
+                // 没有无参构造方法的类通过 Objenesis 实例化
+                kryo.setInstantiatorStrategy(new DefaultInstantiatorStrategy(new StdInstantiatorStrategy()));
+                // 异常对象的私有字段在新版 JDK 中不能反射访问，只传输类型、消息、调用栈和 cause
+                kryo.addDefaultSerializer(Throwable.class, new ThrowableSerializer());
+                // 以下 JDK 类型的私有字段同样不能反射访问
+                kryo.addDefaultSerializer(UUID.class, new UUIDSerializer());
+                kryo.addDefaultSerializer(Timestamp.class, new TimestampSerializer());
+                for (Map.Entry<Class<?>, CollectionWrapperSerializer> entry : WRAPPER_SERIALIZERS.entrySet()) {
+                    kryo.addDefaultSerializer(entry.getKey(), entry.getValue());
+                }
+                for (Class<?> cls : classes) {
+                    kryo.register(cls);
+                }
+                return kryo;
+            }
+        };
+    }
+
+    @Override
+    public byte getId() {
+        return RpcProtocol.SERIALIZER_KRYO;
+    }
+
+    @Override
+    public String getName() {
+        return "kryo";
+    }
+
+    /**
+     * 将类加入白名单（Serializers.prepare 对服务方法的参数与返回值类型及其字段的类型调用该方法）
+     * @param cls
+     */
+    @Override
+    public void prepare(Class<?> cls) {
+        allowedClasses.add(cls);
+    }
+
+    /**
+     * 是否允许（反）序列化未注册的类
+     * @param cls
+     * @return
+     */
+    private boolean isAllowed(Class<?> cls) {
+        if (cls.isArray()) {
+            Class<?> componentType = cls.getComponentType();
+            return componentType.isPrimitive() || isAllowed(componentType);
+        }
+        // 接口和抽象类不能实例化，枚举只传输序号，异常由 ThrowableSerializer 创建（见 isConstructible）
+        return cls.isPrimitive() || cls.isEnum() || Modifier.isAbstract(cls.getModifiers())
+                || Throwable.class.isAssignableFrom(cls) || SAFE_CLASSES.contains(cls) || allowedClasses.contains(cls);
+    }
+
+    /**
+     * 是否允许通过构造方法创建对端传来的异常（预先准备过的异常和 java.* 中的异常）
+     * @param type
+     * @return
+     */
+    private boolean isConstructible(Class<?> type) {
+        return type.getName().startsWith("java.") || allowedClasses.contains(type);
+    }
+
+    @Override
+    public <T> int serialize(T obj, ByteBuf out) {
+        int writerIndex = out.writerIndex();
+        Kryo kryo = kryoPool.obtain();
+        Output output = outputPool.obtain();
+        try {
+            output.setOutputStream(new ByteBufOutputStream(out));
+            kryo.writeObject(output, obj);
+            output.flush();
+            return out.writerIndex() - writerIndex;
+        } finally {
+            output.setOutputStream(null);
+            outputPool.free(output);
+            kryoPool.free(kryo);
+        }
+    }
+
+    @Override
+    public <T> T deserialize(ByteBuf in, int length, Class<T> cls) {
+        int readerIndex = in.readerIndex();
+        Kryo kryo = kryoPool.obtain();
+        Input input = inputPool.obtain();
+        try {
+            input.setInputStream(new ByteBufInputStream(in, length));
+            return kryo.readObject(input, cls);
+        } finally {
+            input.setInputStream(null);
+            inputPool.free(input);
+            kryoPool.free(kryo);
+            in.readerIndex(readerIndex + length);
+        }
+    }
+
+    /**
+     * 只允许白名单中的类被隐式注册（读取类名后、实例化之前检查）
+     */
+    private class AllowListClassResolver extends DefaultClassResolver {
+
+        @Override
+        public Registration registerImplicit(Class type) {
+            if (!isAllowed(type)) {
+                throw new KryoException(String.format("class %s is not allowed, prepare it with Serializers.prepare", type.getName()));
+            }
+            return super.registerImplicit(type);
+        }
+    }
+
+    /**
+     * 异常的序列化方式：类型、消息、调用栈和 cause
+     * 反序列化时通过 (String) 或无参构造方法创建异常，都没有或不允许创建该类型时以 RuntimeException 代替（消息中包含原类型名称）
+     */
+    private class ThrowableSerializer extends com.esotericsoftware.kryo.Serializer<Throwable> {
+
+        @Override
+        public void write(Kryo kryo, Output output, Throwable throwable) {
+            output.writeString(throwable.getMessage());
+            StackTraceElement[] stackTrace = throwable.getStackTrace();
+            output.writeVarInt(stackTrace.length, true);
+            for (StackTraceElement element : stackTrace) {
+                output.writeString(element.getClassName());
+                output.writeString(element.getMethodName());
+                output.writeString(element.getFileName());
+                output.writeInt(element.getLineNumber());
+            }
+            kryo.writeClassAndObject(output, throwable.getCause());
+        }
+
+        @Override
+        public Throwable read(Kryo kryo, Input input, Class<? extends Throwable> type) {
+            Throwable throwable = newThrowable(type, input.readString());
+            kryo.reference(throwable);
+            StackTraceElement[] stackTrace = new StackTraceElement[input.readVarInt(true)];
+            for (int i = 0; i < stackTrace.length; i++) {
+                stackTrace[i] = new StackTraceElement(input.readString(), input.readString(), input.readString(), input.readInt());
+            }
+            throwable.setStackTrace(stackTrace);
+            Object cause = kryo.readClassAndObject(input);
+            if (cause instanceof Throwable) {
+                try {
+                    throwable.initCause((Throwable) cause);
+                } catch (IllegalStateException | IllegalArgumentException e) {
+                    // 构造方法中已经设置了 cause
+                }
+            }
+            return throwable;
+        }
+
+        private Throwable newThrowable(Class<? extends Throwable> type, String message) {
+            if (!Modifier.isAbstract(type.getModifiers()) && isConstructible(type)) {
+                try {
+                    return type.getConstructor(String.class).newInstance(message);
+                } catch (ReflectiveOperationException | RuntimeException e) {
+                    // 没有 (String) 构造方法
+                }
+                if (message == null) {
+                    try {
+                        return type.getConstructor().newInstance();
+                    } catch (ReflectiveOperationException | RuntimeException e) {
+                        // 没有无参构造方法
+                    }
+                }
+            }
+            return new RuntimeException(message == null ? type.getName() : type.getName() + ": " + message);
+        }
+    }
+
+    private static void addWrapper(Object sample, Function<Object, Object> copy, Function<Object, Object> wrap) {
+        WRAPPER_SERIALIZERS.put(sample.getClass(), new CollectionWrapperSerializer(copy, wrap));
+    }
+
+    private static Function<Object, Object> synchronizedCopy(Function<Object, Object> copy) {
+        return c -> {
+            synchronized (c) {
+                return copy.apply(c);
+            }
+        };
+    }
+
+    /**
+     * 不可修改的/同步的集合包装类的序列化方式：复制为普通集合（如 ArrayList、TreeMap）传输，反序列化后重新包装
+     */
+    private static class CollectionWrapperSerializer extends com.esotericsoftware.kryo.Serializer<Object> {
+
+        private final Function<Object, Object> copy;
+
+        private final Function<Object, Object> wrap;
+
+        CollectionWrapperSerializer(Function<Object, Object> copy, Function<Object, Object> wrap) {
+            this.copy = copy;
+            this.wrap = wrap;
+        }
+
+        @Override
+        public void write(Kryo kryo, Output output, Object wrapper) {
+            kryo.writeClassAndObject(output, copy.apply(wrapper));
+        }
+
+        @Override
+        public Object read(Kryo kryo, Input input, Class<?> type) {
+            return wrap.apply(kryo.readClassAndObject(input));
+        }
+    }
+
+    private static class UUIDSerializer extends com.esotericsoftware.kryo.Serializer<UUID> {
+
+        UUIDSerializer() {
+            setImmutable(true);
+        }
+
+        @Override
+        public void write(Kryo kryo, Output output, UUID uuid) {
+            output.writeLong(uuid.getMostSignificantBits());
+            output.writeLong(uuid.getLeastSignificantBits());
+        }
+
+        @Override
+        public UUID read(Kryo kryo, Input input, Class<? extends UUID> type) {
+            return new UUID(input.readLong(), input.readLong());
+        }
+    }
+
+    /**
+     * java.sql.Timestamp 的序列化方式（Kryo 内置的 Date 序列化方式会丢失纳秒部分）
+     */
+    private static class TimestampSerializer extends com.esotericsoftware.kryo.Serializer<Timestamp> {
+
+        @Override
+        public void write(Kryo kryo, Output output, Timestamp timestamp) {
+            output.writeVarLong(timestamp.getTime(), false);
+            output.writeVarInt(timestamp.getNanos(), true);
+        }
+
+        @Override
+        public Timestamp read(Kryo kryo, Input input, Class<? extends Timestamp> type) {
+            Timestamp timestamp = new Timestamp(input.readVarLong(false));
+            timestamp.setNanos(input.readVarInt(true));
+            return timestamp;
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package com.cswiki.serializer;
+
+import com.cswiki.codec.RpcProtocol;
+import io.netty.buffer.ByteBuf;
+
+/**
+ * 基于 Protostuff 的序列化方式（默认）
+ */
+public class ProtostuffSerializer implements Serializer {
+
+    @Override
+    public byte getId() {
+        return RpcProtocol.SERIALIZER_PROTOSTUFF;
+    }
+
+    @Override
+    public String getName() {
+        return "protostuff";
+    }
+
+    @Override
+    public <T> int serialize(T obj, ByteBuf out) {
+        return CustomSerializer.serialize(obj, out);
+    }
+
+    @Override
+    public <T> T deserialize(ByteBuf in, int length, Class<T> cls) {
+        return CustomSerializer.deserialize(in, length, cls);
+    }
+
+    /**
+     * 预先创建类型的 Schema（JDK 中的类型由 Protostuff 内置处理，其私有字段在新版 JDK 中也不能反射访问，跳过）
+     * @param cls
+     */
+    @Override
+    public void prepare(Class<?> cls) {
+        if (!Serializers.isJdkClass(cls)) {
+            CustomSerializer.prepare(cls);
+        }
+    }
+}
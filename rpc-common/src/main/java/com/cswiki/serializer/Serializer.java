@@ -0,0 +1,52 @@
+package com.cswiki.serializer;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * 序列化方式的扩展接口
+ * 每种序列化方式有唯一的编号，编号写在消息头中，接收方据此选择反序列化方式，
+ * 因此同一条连接上的不同请求可以使用不同的序列化方式
+ *
+ * 除默认注册的 protostuff/kryo 外（内置的 java 需要显式注册），可以通过 Serializers.register 或
+ * META-INF/services/com.cswiki.serializer.Serializer 注册自定义的实现
+ */
+public interface Serializer {
+
+    /**
+     * 序列化方式的编号（1 ~ 127，见 RpcProtocol 中的 SERIALIZER_* 常量）
+     * @return
+     */
+    byte getId();
+
+    /**
+     * 序列化方式的名称（用于配置）
+     * @return
+     */
+    String getName();
+
+    /**
+     * 序列化 obj ——> ByteBuf
+     * @param obj
+     * @param out
+     * @param <T>
+     * @return 写入的字节数
+     */
+    <T> int serialize(T obj, ByteBuf out);
+
+    /**
+     * 反序列化 ByteBuf 中接下来的 length 个字节 ——> obj
+     * @param in
+     * @param length
+     * @param cls
+     * @param <T>
+     * @return
+     */
+    <T> T deserialize(ByteBuf in, int length, Class<T> cls);
+
+    /**
+     * 预先准备类型的序列化信息（如 Protostuff 的 Schema），避免在第一次调用时创建，默认不做任何事
+     * @param cls 参数、返回值、声明的异常或其字段的类型（不包括基本类型、枚举、接口和抽象类；包括 JDK 中的类型，但不包括其字段的类型）
+     */
+    default void prepare(Class<?> cls) {
+    }
+}
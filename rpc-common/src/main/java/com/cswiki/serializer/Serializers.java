@@ -0,0 +1,172 @@
+package com.cswiki.serializer;
+
+import com.cswiki.codec.RpcProtocol;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.lang.reflect.TypeVariable;
+import java.lang.reflect.WildcardType;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 序列化方式的注册表（按编号查找时只需一次数组访问）
+ */
+public final class Serializers {
+
+    // 按编号存放的序列化方式
+    private static final Serializer[] SERIALIZERS = new Serializer[128];
+
+    // 序列化方式名称与序列化方式之间的映射关系
+    private static final Map<String, Serializer> SERIALIZER_MAP = new ConcurrentHashMap<>();
+
+    static {
+        register(new ProtostuffSerializer());
+        register(new KryoSerializer());
+        // JavaSerializer 可以实例化任意的类，不默认注册（需要时通过 register 显式注册）
+        // 通过 SPI 注册的自定义序列化方式（编号相同时覆盖内置实现）
+        for (Serializer serializer : ServiceLoader.load(Serializer.class)) {
+            register(serializer);
+        }
+    }
+
+    private Serializers() {
+    }
+
+    /**
+     * 注册序列化方式（编号或名称相同时替换原有的实现）
+     * @param serializer
+     */
+    public static void register(Serializer serializer) {
+        byte id = serializer.getId();
+        if (id <= 0) {
+            throw new IllegalArgumentException(String.format("invalid serializer id %d of %s", id, serializer.getName()));
+        }
+        SERIALIZERS[id] = serializer;
+        SERIALIZER_MAP.put(serializer.getName(), serializer);
+    }
+
+    /**
+     * 根据编号获取序列化方式
+     * @param id 编号（0 表示默认的序列化方式）
+     * @return 没有该编号的序列化方式时返回 null
+     */
+    public static Serializer get(byte id) {
+        if (id == 0) {
+            return getDefault();
+        }
+        return id > 0 ? SERIALIZERS[id] : null;
+    }
+
+    /**
+     * 根据名称获取序列化方式
+     * @param name
+     * @return
+     */
+    public static Serializer get(String name) {
+        Serializer serializer = SERIALIZER_MAP.get(name);
+        if (serializer == null) {
+            throw new IllegalArgumentException(String.format("can not find serializer: %s", name));
+        }
+        return serializer;
+    }
+
+    public static Serializer getDefault() {
+        return SERIALIZERS[RpcProtocol.SERIALIZER_PROTOSTUFF];
+    }
+
+    /**
+     * 在所有序列化方式中预先准备类型的序列化信息（见 Serializer.prepare）
+     * @param classes
+     */
+    public static void prepare(Class<?>... classes) {
+        for (Serializer serializer : SERIALIZERS) {
+            if (serializer == null) {
+                continue;
+            }
+            for (Class<?> cls : classes) {
+                serializer.prepare(cls);
+            }
+        }
+    }
+
+    /**
+     * 在所有序列化方式中预先准备方法的参数、返回值与声明的异常类型的序列化信息
+     * 泛型参数（如 List<User> 中的 User）、数组元素以及这些类型的字段的类型也会被准备，
+     * JDK 中的类型（如 UUID、Optional）只准备其本身，不遍历其字段
+     * @param method
+     * @return 准备的类型数
+     */
+    public static int prepare(Method method) {
+        Set<Class<?>> classes = new HashSet<>();
+        for (Type type : method.getGenericParameterTypes()) {
+            collect(type, classes);
+        }
+        collect(method.getGenericReturnType(), classes);
+        // 异常只传输类型、消息、调用栈和 cause，不需要遍历其字段
+        for (Class<?> exceptionType : method.getExceptionTypes()) {
+            if (isPreparable(exceptionType)) {
+                classes.add(exceptionType);
+            }
+        }
+        prepare(classes.toArray(new Class<?>[0]));
+        return classes.size();
+    }
+
+    private static void collect(Type type, Set<Class<?>> classes) {
+        if (type instanceof ParameterizedType) {
+            collect(((ParameterizedType) type).getRawType(), classes);
+            for (Type argument : ((ParameterizedType) type).getActualTypeArguments()) {
+                collect(argument, classes);
+            }
+        } else if (type instanceof GenericArrayType) {
+            collect(((GenericArrayType) type).getGenericComponentType(), classes);
+        } else if (type instanceof WildcardType) {
+            for (Type bound : ((WildcardType) type).getUpperBounds()) {
+                collect(bound, classes);
+            }
+        } else if (type instanceof TypeVariable) {
+            for (Type bound : ((TypeVariable<?>) type).getBounds()) {
+                collect(bound, classes);
+            }
+        } else if (type instanceof Class) {
+            Class<?> cls = (Class<?>) type;
+            if (cls.isArray()) {
+                collect(cls.getComponentType(), classes);
+            } else if (isPreparable(cls) && classes.add(cls)) {
+                // JDK 中的类型由序列化方式按其内置的方式处理，不遍历其字段
+                for (Class<?> c = cls; c != null && !isJdkClass(c); c = c.getSuperclass()) {
+                    for (Field field : c.getDeclaredFields()) {
+                        if (!Modifier.isStatic(field.getModifiers()) && !Modifier.isTransient(field.getModifiers())) {
+                            collect(field.getGenericType(), classes);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * 是否需要准备序列化信息（基本类型、枚举、接口和抽象类由序列化方式内置处理或无法预先准备）
+     */
+    private static boolean isPreparable(Class<?> cls) {
+        return !cls.isPrimitive() && !cls.isEnum() && !cls.isInterface() && !Modifier.isAbstract(cls.getModifiers());
+    }
+
+    /**
+     * 是否为 JDK 中的类型
+     * @param cls
+     * @return
+     */
+    static boolean isJdkClass(Class<?> cls) {
+        String name = cls.getName();
+        return name.startsWith("java.") || name.startsWith("javax.");
+    }
+}
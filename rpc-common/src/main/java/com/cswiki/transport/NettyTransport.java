@@ -0,0 +1,73 @@
+package com.cswiki.transport;
+
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.ServerChannel;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+/**
+ * 选择 Netty 的传输实现：Linux 上优先使用原生 epoll，不可用时（非 Linux、缺少本地库等）自动退回 NIO
+ * 通道类型必须与 EventLoopGroup 的类型一致，因此统一根据 EventLoopGroup 选择通道类型
+ */
+public final class NettyTransport {
+
+    private NettyTransport() {
+    }
+
+    /**
+     * 原生 epoll 传输是否可用
+     * @return
+     */
+    public static boolean isEpollAvailable() {
+        return Epoll.isAvailable();
+    }
+
+    /**
+     * 创建 EventLoopGroup
+     * @param threads 线程数（为 0 时使用 Netty 的默认值：CPU 核数 * 2）
+     * @param preferNative 是否优先使用原生 epoll
+     * @param threadName 线程名称前缀
+     * @return
+     */
+    public static EventLoopGroup newEventLoopGroup(int threads, boolean preferNative, String threadName) {
+        DefaultThreadFactory threadFactory = new DefaultThreadFactory(threadName);
+        if (preferNative && isEpollAvailable()) {
+            return new EpollEventLoopGroup(threads, threadFactory);
+        }
+        return new NioEventLoopGroup(threads, threadFactory);
+    }
+
+    /**
+     * 是否为原生 epoll 的 EventLoopGroup
+     * @param group
+     * @return
+     */
+    public static boolean isEpoll(EventLoopGroup group) {
+        return group instanceof EpollEventLoopGroup;
+    }
+
+    /**
+     * 与 EventLoopGroup 对应的服务端通道类型
+     * @param group
+     * @return
+     */
+    public static Class<? extends ServerChannel> serverChannelClass(EventLoopGroup group) {
+        return isEpoll(group) ? EpollServerSocketChannel.class : NioServerSocketChannel.class;
+    }
+
+    /**
+     * 与 EventLoopGroup 对应的客户端通道类型
+     * @param group
+     * @return
+     */
+    public static Class<? extends SocketChannel> channelClass(EventLoopGroup group) {
+        return isEpoll(group) ? EpollSocketChannel.class : NioSocketChannel.class;
+    }
+}
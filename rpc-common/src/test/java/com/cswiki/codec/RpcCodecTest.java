@@ -0,0 +1,317 @@
+package com.cswiki.codec;
+
+import com.cswiki.entity.RpcBatch;
+import com.cswiki.entity.RpcDecodeFailure;
+import com.cswiki.entity.RpcMessage;
+import com.cswiki.entity.RpcRequest;
+import com.cswiki.entity.RpcResponse;
+import com.cswiki.serializer.CustomSerializer;
+import com.cswiki.serializer.KryoSerializer;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.CorruptedFrameException;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 使用 EmbeddedChannel 测试编解码器（消息格式见 RpcProtocol）
+ */
+public class RpcCodecTest {
+
+    // 服务端接受的序列化方式
+    private static final List<Byte> ALLOWED_SERIALIZERS = Arrays.asList(RpcProtocol.SERIALIZER_PROTOSTUFF, RpcProtocol.SERIALIZER_KRYO);
+
+    // 只有服务端准备过的类型才能用 Kryo 反序列化，用于构造无法反序列化的消息体
+    public static class Unprepared {
+        public String value = "unprepared";
+    }
+
+    @Test
+    public void requestAndResponseRoundTrip() {
+        for (byte serializer : ALLOWED_SERIALIZERS) {
+            RpcRequest request = request(7, "hello", serializer);
+            request.setAttachments(Collections.singletonMap("traceId", "t-1"));
+            ByteBuf frame = encode(request);
+            assertEquals(RpcProtocol.MAGIC, frame.getShort(0));
+            assertEquals(RpcProtocol.VERSION, frame.getByte(2));
+            assertEquals(RpcProtocol.TYPE_REQUEST, frame.getByte(3));
+            assertEquals(serializer, frame.getByte(4));
+            assertEquals(0, frame.getByte(5));
+            assertEquals(7, frame.getLong(6));
+            assertEquals(frame.readableBytes() - RpcProtocol.HEADER_LENGTH, frame.getInt(14));
+
+            // 分两次到达的消息在完整后才解码
+            EmbeddedChannel channel = new EmbeddedChannel(new RpcDecoder(true, null, ALLOWED_SERIALIZERS));
+            channel.writeInbound(frame.readRetainedSlice(10));
+            assertNull(channel.readInbound());
+            channel.writeInbound(frame);
+            RpcRequest decoded = channel.readInbound();
+            assertEquals(7, decoded.getRequestId());
+            assertEquals(serializer, decoded.getSerializer());
+            assertEquals(request.getInterfaceName(), decoded.getInterfaceName());
+            assertEquals(request.getMethodName(), decoded.getMethodName());
+            assertArrayEquals(request.getParameterTypes(), decoded.getParameterTypes());
+            assertArrayEquals(request.getParameters(), decoded.getParameters());
+            assertEquals("t-1", decoded.getAttachment("traceId"));
+
+            RpcResponse response = new RpcResponse();
+            response.setRequestId(7);
+            response.setSerializer(serializer);
+            response.setResult("world");
+            RpcResponse decodedResponse = decode(new RpcDecoder(), encode(response));
+            assertEquals(7, decodedResponse.getRequestId());
+            assertEquals("world", decodedResponse.getResult());
+        }
+    }
+
+    @Test
+    public void legacyRequestAndResponse() {
+        LegacyProtocol.LegacyRpcRequest legacyRequest = new LegacyProtocol.LegacyRpcRequest();
+        legacyRequest.requestId = "legacy-1";
+        legacyRequest.interfaceName = "com.cswiki.test.HelloService";
+        legacyRequest.serviceVersion = "";
+        legacyRequest.methodName = "hello";
+        legacyRequest.parameterTypes = new Class<?>[]{String.class};
+        legacyRequest.parameters = new Object[]{"legacy"};
+        ByteBuf frame = Unpooled.buffer();
+        frame.writeInt(0);
+        frame.setInt(0, CustomSerializer.serialize(legacyRequest, frame));
+
+        // 服务端的编码器与解码器在同一条连接上
+        EmbeddedChannel channel = new EmbeddedChannel(new RpcEncoder(), new RpcDecoder(true, null, ALLOWED_SERIALIZERS));
+        channel.writeInbound(frame);
+        RpcRequest decoded = channel.readInbound();
+        assertTrue(LegacyProtocol.isLegacy(channel));
+        assertEquals("hello", decoded.getMethodName());
+        assertArrayEquals(new Object[]{"legacy"}, decoded.getParameters());
+
+        // 响应按旧格式写回，并带上旧版请求的 requestId
+        RpcResponse response = new RpcResponse();
+        response.setResult("world");
+        channel.writeOutbound(response);
+        ByteBuf out = channel.readOutbound();
+        int length = out.readInt();
+        assertEquals(out.readableBytes(), length);
+        LegacyProtocol.LegacyRpcResponse legacyResponse = CustomSerializer.deserialize(out, length, LegacyProtocol.LegacyRpcResponse.class);
+        assertEquals("legacy-1", legacyResponse.requestId);
+        assertEquals("world", legacyResponse.result);
+        assertNull(legacyResponse.exception);
+
+        // 客户端的解码器不接受旧格式
+        assertCorrupted(new RpcDecoder(), lengthPrefixed(4), "invalid magic number");
+    }
+
+    @Test
+    public void compressesBodyAboveThreshold() {
+        String text = repeat("compressible text ", 100);
+        // 未达到压缩阈值时不压缩
+        RpcRequest request = request(1, text, RpcProtocol.SERIALIZER_PROTOSTUFF);
+        request.setCompressThreshold(64 * 1024);
+        assertEquals(0, encode(request).getByte(5));
+
+        request.setCompressThreshold(256);
+        ByteBuf frame = encode(request);
+        assertEquals(RpcProtocol.FLAG_COMPRESSED, frame.getByte(5));
+        assertEquals(1, countBlocks(frame));
+        RpcRequest decoded = decode(new RpcDecoder(true), frame);
+        assertEquals(text, decoded.getParameters()[0]);
+    }
+
+    @Test
+    public void compressesBodyLargerThanBlockSize() {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; text.length() < 4 * RpcProtocol.COMPRESS_BLOCK_SIZE; i++) {
+            text.append("line ").append(i).append('\n');
+        }
+        RpcRequest request = request(2, text.toString(), RpcProtocol.SERIALIZER_KRYO);
+        int length = encode(request).getInt(14);
+
+        request.setCompressThreshold(1024);
+        ByteBuf frame = encode(request);
+        assertEquals(RpcProtocol.FLAG_COMPRESSED, frame.getByte(5));
+        assertTrue(frame.getInt(14) < length);
+        // 按块切分后分别压缩
+        assertEquals((length + RpcProtocol.COMPRESS_BLOCK_SIZE - 1) / RpcProtocol.COMPRESS_BLOCK_SIZE, countBlocks(frame));
+        RpcRequest decoded = decode(new RpcDecoder(true), frame);
+        assertEquals(text.toString(), decoded.getParameters()[0]);
+    }
+
+    @Test
+    public void keepsIncompressibleBodyUncompressed() {
+        byte[] data = new byte[4096];
+        new Random(1).nextBytes(data);
+        RpcResponse response = new RpcResponse();
+        response.setRequestId(3);
+        response.setResult(data);
+        response.setCompressThreshold(256);
+        ByteBuf frame = encode(response);
+        // 压缩后没有变小时使用原消息体
+        assertEquals(0, frame.getByte(5));
+        RpcResponse decoded = decode(new RpcDecoder(), frame);
+        assertArrayEquals(data, (byte[]) decoded.getResult());
+    }
+
+    @Test
+    public void batchRoundTrip() {
+        RpcRequest compressed = request(2, repeat("batched ", 200), RpcProtocol.SERIALIZER_KRYO);
+        compressed.setCompressThreshold(256);
+        ByteBuf frame = encode(new RpcBatch(Arrays.<RpcMessage>asList(request(1, "a", RpcProtocol.SERIALIZER_PROTOSTUFF), compressed)));
+        assertEquals(RpcProtocol.TYPE_BATCH, frame.getByte(3));
+        assertEquals(frame.readableBytes() - RpcProtocol.HEADER_LENGTH, frame.getInt(14));
+
+        RpcBatch batch = decode(new RpcDecoder(true, null, ALLOWED_SERIALIZERS), frame);
+        assertEquals(2, batch.getMessages().size());
+        RpcRequest first = (RpcRequest) batch.getMessages().get(0);
+        RpcRequest second = (RpcRequest) batch.getMessages().get(1);
+        assertEquals(1, first.getRequestId());
+        assertEquals("a", first.getParameters()[0]);
+        assertEquals(2, second.getRequestId());
+        assertEquals(RpcProtocol.SERIALIZER_KRYO, second.getSerializer());
+        assertEquals(compressed.getParameters()[0], second.getParameters()[0]);
+    }
+
+    @Test
+    public void rejectsNestedBatch() {
+        ByteBuf inner = encode(new RpcBatch(Collections.<RpcMessage>singletonList(request(1, "a", RpcProtocol.SERIALIZER_PROTOSTUFF))));
+        ByteBuf frame = header(RpcProtocol.TYPE_BATCH, RpcProtocol.SERIALIZER_PROTOSTUFF, 0, inner.readableBytes());
+        frame.writeBytes(inner);
+        assertCorrupted(new RpcDecoder(true), frame, "nested batch message");
+    }
+
+    @Test
+    public void rejectsInvalidBodyLength() {
+        assertCorrupted(new RpcDecoder(), header(RpcProtocol.TYPE_REQUEST, RpcProtocol.SERIALIZER_PROTOSTUFF, 1, -1), "invalid body length: -1");
+        assertCorrupted(new RpcDecoder(), header(RpcProtocol.TYPE_REQUEST, RpcProtocol.SERIALIZER_PROTOSTUFF, 1, RpcProtocol.MAX_BODY_LENGTH + 1),
+                "invalid body length: " + (RpcProtocol.MAX_BODY_LENGTH + 1));
+        // 旧格式的长度同样受限
+        assertCorrupted(new RpcDecoder(true), lengthPrefixed(-1), "invalid body length: -1");
+        assertCorrupted(new RpcDecoder(true), lengthPrefixed(RpcProtocol.MAX_BODY_LENGTH + 1), "invalid body length: " + (RpcProtocol.MAX_BODY_LENGTH + 1));
+    }
+
+    @Test
+    public void rejectsDisallowedSerializer() {
+        ByteBuf frame = encode(request(1, "a", RpcProtocol.SERIALIZER_KRYO));
+        assertCorrupted(new RpcDecoder(true, null, Collections.singletonList(RpcProtocol.SERIALIZER_PROTOSTUFF)), frame.retainedDuplicate(),
+                "unsupported serializer: " + RpcProtocol.SERIALIZER_KRYO);
+        // 不限制时接受所有已注册的序列化方式
+        RpcRequest decoded = decode(new RpcDecoder(), frame);
+        assertEquals(RpcProtocol.SERIALIZER_KRYO, decoded.getSerializer());
+
+        // 未注册的序列化方式
+        ByteBuf unknown = header(RpcProtocol.TYPE_REQUEST, (byte) 99, 1, 0);
+        assertCorrupted(new RpcDecoder(), unknown, "unsupported serializer: 99");
+    }
+
+    @Test
+    public void undeserializableBodyFailsOnlyThatMessage() {
+        // 另一端准备过 Unprepared，本端没有
+        KryoSerializer other = new KryoSerializer();
+        other.prepare(Unprepared.class);
+        ByteBuf body = Unpooled.buffer();
+        other.serialize(request(1, new Unprepared(), RpcProtocol.SERIALIZER_KRYO), body);
+        ByteBuf in = header(RpcProtocol.TYPE_REQUEST, RpcProtocol.SERIALIZER_KRYO, 1, body.readableBytes());
+        in.writeBytes(body);
+        in.writeBytes(encode(request(2, "a", RpcProtocol.SERIALIZER_KRYO)));
+
+        EmbeddedChannel channel = new EmbeddedChannel(new RpcDecoder(true, null, ALLOWED_SERIALIZERS));
+        channel.writeInbound(in);
+        RpcDecodeFailure failure = channel.readInbound();
+        assertEquals(RpcProtocol.TYPE_REQUEST, failure.getMessageType());
+        assertEquals(1, failure.getRequestId());
+        // 后续的消息不受影响，连接保持打开
+        RpcRequest next = channel.readInbound();
+        assertEquals(2, next.getRequestId());
+        assertTrue(channel.isActive());
+    }
+
+    private static RpcRequest request(long requestId, Object parameter, byte serializer) {
+        RpcRequest request = new RpcRequest();
+        request.setRequestId(requestId);
+        request.setSerializer(serializer);
+        request.setInterfaceName("com.cswiki.test.HelloService");
+        request.setServiceVersion("");
+        request.setMethodName("hello");
+        request.setParameterTypes(new Class<?>[]{String.class});
+        request.setParameters(new Object[]{parameter});
+        return request;
+    }
+
+    private static ByteBuf encode(RpcMessage message) {
+        EmbeddedChannel channel = new EmbeddedChannel(new RpcEncoder());
+        channel.writeOutbound(message);
+        return channel.readOutbound();
+    }
+
+    private static <T> T decode(RpcDecoder decoder, ByteBuf frame) {
+        EmbeddedChannel channel = new EmbeddedChannel(decoder);
+        channel.writeInbound(frame);
+        T message = channel.readInbound();
+        assertNull(channel.readInbound());
+        return message;
+    }
+
+    private static void assertCorrupted(RpcDecoder decoder, ByteBuf frame, String message) {
+        EmbeddedChannel channel = new EmbeddedChannel(decoder);
+        try {
+            channel.writeInbound(frame);
+            fail("expected CorruptedFrameException: " + message);
+        } catch (CorruptedFrameException e) {
+            assertEquals(message, e.getMessage());
+        }
+        assertNull(channel.readInbound());
+    }
+
+    /**
+     * 构造新格式的消息头（消息体由调用方写入）
+     */
+    private static ByteBuf header(byte messageType, byte serializer, long requestId, int length) {
+        ByteBuf header = Unpooled.buffer();
+        header.writeShort(RpcProtocol.MAGIC);
+        header.writeByte(RpcProtocol.VERSION);
+        header.writeByte(messageType);
+        header.writeByte(serializer);
+        header.writeByte(0);
+        header.writeLong(requestId);
+        header.writeInt(length);
+        return header;
+    }
+
+    /**
+     * 构造旧格式的消息（4 字节的消息体长度 + 不完整的消息体）
+     */
+    private static ByteBuf lengthPrefixed(int length) {
+        ByteBuf frame = Unpooled.buffer();
+        frame.writeInt(length);
+        frame.writeZero(4);
+        return frame;
+    }
+
+    private static int countBlocks(ByteBuf frame) {
+        ByteBuf body = frame.slice(RpcProtocol.HEADER_LENGTH, frame.getInt(14));
+        int blocks = 0;
+        while (body.isReadable()) {
+            body.skipBytes(body.readInt());
+            blocks++;
+        }
+        return blocks;
+    }
+
+    private static String repeat(String s, int times) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < times; i++) {
+            sb.append(s);
+        }
+        return sb.toString();
+    }
+}
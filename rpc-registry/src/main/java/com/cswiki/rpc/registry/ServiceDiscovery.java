@@ -1,6 +1,9 @@
 package com.cswiki.rpc.registry;
 
 
+import java.util.Collections;
+import java.util.List;
+
 /**
  * 服务发现接口
  */
@@ -12,4 +15,14 @@ public interface ServiceDiscovery {
      * @return
      */
     String discovery(String serviceName);
+
+    /**
+     * 根据服务名称查找该服务的所有实例（由客户端的负载均衡策略从中选择）
+     * 默认只返回 discovery 查找到的一个地址
+     * @param serviceName 服务名称（被暴露的实现类的接口名称）
+     * @return
+     */
+    default List<ServiceInstance> discoverAll(String serviceName) {
+        return Collections.singletonList(new ServiceInstance(discovery(serviceName)));
+    }
 }
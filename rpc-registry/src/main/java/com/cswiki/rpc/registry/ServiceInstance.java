@@ -0,0 +1,269 @@
+package com.cswiki.rpc.registry;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 服务实例（一个服务提供者的地址、权重、注册时间及其他元数据）
+ * 在注册中心中编码为 host:port?weight=100&timestamp=1600000000000&zone=...（见 toData/parse），
+ * 参数值经过 URL 编码，客户端读取一次节点即可得到服务实例的全部信息
+ */
+public class ServiceInstance {
+
+    // 默认权重
+    public static final int DEFAULT_WEIGHT = 100;
+
+    // 元数据的键：服务端支持的序列化方式名称（逗号分隔）
+    public static final String SERIALIZERS = "serializers";
+
+    // 元数据的键：服务端的协议版本（见 RpcProtocol.VERSION）
+    public static final String PROTOCOL = "protocol";
+
+    // 元数据的键：服务端所在的区域（如机房、可用区）
+    public static final String ZONE = "zone";
+
+    // 元数据的键：服务方法的编号（与握手时返回的相同，格式为 编号:方法标识，逗号分隔，方法标识经过 URL 编码）
+    public static final String METHODS = "methods";
+
+    private static final String WEIGHT = "weight";
+
+    private static final String TIMESTAMP = "timestamp";
+
+    private static final String CHARSET = "UTF-8";
+
+    // 服务地址（比如 127.0.0.1:8000）
+    private final String address;
+
+    // 权重（负载均衡时按权重分配流量）
+    private final int weight;
+
+    // 注册时间（毫秒，0 表示未知，如旧版本服务端注册的只有地址的节点），客户端据此对新实例慢启动
+    private final long registeredTime;
+
+    // 其他元数据（不可修改，没有时为空）
+    private final Map<String, String> metadata;
+
+    // 解析后的 METHODS 元数据（第一次获取时解析）
+    private volatile Map<String, Integer> methodIds;
+
+    // 解析后的 SERIALIZERS 元数据（第一次获取时解析）
+    private volatile List<String> serializers;
+
+    public ServiceInstance(String address) {
+        this(address, DEFAULT_WEIGHT);
+    }
+
+    public ServiceInstance(String address, int weight) {
+        this(address, weight, 0);
+    }
+
+    public ServiceInstance(String address, int weight, long registeredTime) {
+        this(address, weight, registeredTime, Collections.emptyMap());
+    }
+
+    public ServiceInstance(String address, int weight, long registeredTime, Map<String, String> metadata) {
+        this.address = address;
+        this.weight = weight;
+        this.registeredTime = registeredTime;
+        this.metadata = metadata.isEmpty() ? Collections.emptyMap() : Collections.unmodifiableMap(new LinkedHashMap<>(metadata));
+    }
+
+    /**
+     * 解析注册中心中的服务实例数据（兼容只有 host:port 的旧格式，无效的参数被忽略）
+     * @param data
+     * @return
+     */
+    public static ServiceInstance parse(String data) {
+        int index = data.indexOf('?');
+        if (index < 0) {
+            return new ServiceInstance(data.trim());
+        }
+        int weight = DEFAULT_WEIGHT;
+        long registeredTime = 0;
+        Map<String, String> metadata = new LinkedHashMap<>();
+        for (String parameter : data.substring(index + 1).split("&")) {
+            int separator = parameter.indexOf('=');
+            if (separator < 0) {
+                continue;
+            }
+            try {
+                String key = decode(parameter.substring(0, separator));
+                String value = decode(parameter.substring(separator + 1));
+                if (WEIGHT.equals(key)) {
+                    weight = Integer.parseInt(value);
+                } else if (TIMESTAMP.equals(key)) {
+                    registeredTime = Long.parseLong(value);
+                } else {
+                    metadata.put(key, value);
+                }
+            } catch (IllegalArgumentException e) {
+                // 忽略无效的参数（权重和注册时间使用默认值）
+            }
+        }
+        return new ServiceInstance(data.substring(0, index).trim(), weight, registeredTime, metadata);
+    }
+
+    /**
+     * 编码为注册中心中的服务实例数据
+     * @return
+     */
+    public String toData() {
+        StringBuilder builder = new StringBuilder(address)
+                .append("?" + WEIGHT + "=").append(weight)
+                .append("&" + TIMESTAMP + "=").append(registeredTime);
+        for (Map.Entry<String, String> entry : metadata.entrySet()) {
+            builder.append('&').append(encode(entry.getKey())).append('=').append(encode(entry.getValue()));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * 使用新的注册时间复制服务实例
+     * @param registeredTime
+     * @return
+     */
+    public ServiceInstance withRegisteredTime(long registeredTime) {
+        return new ServiceInstance(address, weight, registeredTime, metadata);
+    }
+
+    /**
+     * 将方法标识与方法编号之间的映射关系编码为 METHODS 元数据
+     * @param methodIds
+     * @return
+     */
+    public static String encodeMethodIds(Map<String, Integer> methodIds) {
+        StringBuilder builder = new StringBuilder();
+        for (Map.Entry<String, Integer> entry : methodIds.entrySet()) {
+            if (builder.length() > 0) {
+                builder.append(',');
+            }
+            builder.append(entry.getValue()).append(':').append(encode(entry.getKey()));
+        }
+        return builder.toString();
+    }
+
+    public String getAddress() {
+        return address;
+    }
+
+    public int getWeight() {
+        return weight;
+    }
+
+    public long getRegisteredTime() {
+        return registeredTime;
+    }
+
+    public Map<String, String> getMetadata() {
+        return metadata;
+    }
+
+    /**
+     * 服务端支持的序列化方式名称
+     * @return 服务端没有注册该信息时返回空列表
+     */
+    public List<String> getSerializers() {
+        List<String> serializers = this.serializers;
+        if (serializers == null) {
+            String value = metadata.get(SERIALIZERS);
+            serializers = value == null || value.isEmpty() ? Collections.emptyList() : Arrays.asList(value.split(","));
+            this.serializers = serializers;
+        }
+        return serializers;
+    }
+
+    /**
+     * 服务端的协议版本
+     * @return 服务端没有注册该信息时返回 0
+     */
+    public int getProtocolVersion() {
+        try {
+            return Integer.parseInt(metadata.getOrDefault(PROTOCOL, "0"));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * 服务端所在的区域
+     * @return 服务端没有注册该信息时返回 null
+     */
+    public String getZone() {
+        return metadata.get(ZONE);
+    }
+
+    /**
+     * 服务方法的编号（见 RpcHandshake.methodKey）
+     * @return 服务端没有注册该信息时返回空表（不可修改）
+     */
+    public Map<String, Integer> getMethodIds() {
+        Map<String, Integer> methodIds = this.methodIds;
+        if (methodIds == null) {
+            methodIds = parseMethodIds(metadata.get(METHODS));
+            this.methodIds = methodIds;
+        }
+        return methodIds;
+    }
+
+    private static Map<String, Integer> parseMethodIds(String methods) {
+        if (methods == null || methods.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        Map<String, Integer> methodIds = new HashMap<>();
+        for (String method : methods.split(",")) {
+            int separator = method.indexOf(':');
+            try {
+                methodIds.put(decode(method.substring(separator + 1)), Integer.parseInt(method.substring(0, separator)));
+            } catch (RuntimeException e) {
+                // 忽略无效的方法编号
+            }
+        }
+        return Collections.unmodifiableMap(methodIds);
+    }
+
+    private static String encode(String value) {
+        try {
+            return URLEncoder.encode(value, CHARSET);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+    }
+
+    private static String decode(String value) {
+        try {
+            return URLDecoder.decode(value, CHARSET);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof ServiceInstance)) {
+            return false;
+        }
+        ServiceInstance that = (ServiceInstance) o;
+        return weight == that.weight && registeredTime == that.registeredTime && address.equals(that.address)
+                && metadata.equals(that.metadata);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (31 * address.hashCode() + weight) + Long.hashCode(registeredTime);
+    }
+
+    @Override
+    public String toString() {
+        return address + "(weight=" + weight + ")";
+    }
+}
@@ -1,5 +1,6 @@
 package com.cswiki.rpc.registry;
 
+import java.util.Map;
 
 /**
  * 服务注册接口
@@ -12,4 +13,24 @@ public interface ServiceRegistry {
      * @param serviceAddress 服务地址（比如该服务被暴露在 Netty 的 8000 端口，则服务地址为 127.0.0.1:8000）
      */
     void register(String serviceName, String serviceAddress);
+
+    /**
+     * 注册服务名称与服务地址，并指定该服务实例的权重（默认忽略权重）
+     * @param serviceName 服务名称（被暴露的实现类的接口名称）
+     * @param serviceAddress 服务地址
+     * @param weight 权重（见 ServiceInstance）
+     */
+    default void register(String serviceName, String serviceAddress, int weight) {
+        register(serviceName, serviceAddress);
+    }
+
+    /**
+     * 批量注册服务（服务端启动时一次注册它暴露的所有服务），默认逐个调用 register
+     * @param instances 服务名称与该服务的实例（地址、权重及元数据）之间的映射关系
+     */
+    default void registerAll(Map<String, ServiceInstance> instances) {
+        for (Map.Entry<String, ServiceInstance> entry : instances.entrySet()) {
+            register(entry.getKey(), entry.getValue().getAddress(), entry.getValue().getWeight());
+        }
+    }
 }
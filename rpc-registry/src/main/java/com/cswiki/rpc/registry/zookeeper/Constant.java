@@ -8,6 +8,9 @@ public interface Constant {
     int ZK_SESSION_TIMEOUT = 5000;
     int ZK_CONNECTION_TIMEOUT = 1000;
 
+    // 与 Zookeeper 断开连接时，单次操作等待重连的最长时间（超时后抛出异常，而不是一直阻塞）
+    long ZK_OPERATION_RETRY_TIMEOUT = 5000;
+
     // 在该节点下存放所有的服务节点
     String ZK_REGISTRY_PATH = "/registry";
 }
@@ -2,72 +2,203 @@ package com.cswiki.rpc.registry.zookeeper;
 
 
 import com.cswiki.rpc.registry.ServiceDiscovery;
+import com.cswiki.rpc.registry.ServiceInstance;
+import org.I0Itec.zkclient.IZkChildListener;
+import org.I0Itec.zkclient.IZkDataListener;
+import org.I0Itec.zkclient.IZkStateListener;
 import org.I0Itec.zkclient.ZkClient;
+import org.I0Itec.zkclient.serialize.SerializableSerializer;
+import org.apache.zookeeper.Watcher;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.apache.commons.collections4.CollectionUtils;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ThreadLocalRandom;
 
 
 /**
  * 使用 ZooKeeper 实现服务发现功能
+ *
+ * 所有服务共用一个长连接的 ZkClient，每个服务的地址列表缓存在内存中，
+ * 由 service 节点的子节点监听和 address 节点的数据监听保持最新，因此每次调用选择地址时不需要访问 ZooKeeper
+ * 与 ZooKeeper 断开连接或刷新失败时继续使用最后一次获取到的地址列表
  */
 public class ZookeeperServiceDiscovery implements ServiceDiscovery {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(ZookeeperServiceDiscovery.class);
 
-    // 注册/发现中心地址
-    private String zkAddress;
+    // Zookeeper 客户端 ZkClient（所有服务共用）
+    private final ZkClient zkClient;
+
+    // 存储服务名称与服务实例列表之间的映射关系（列表不可修改，刷新时整体替换）
+    private final Map<String, List<ServiceInstance>> addressCache = new ConcurrentHashMap<>();
+
+    // 存储 address 节点路径与该节点的数据监听器之间的映射关系
+    private final Map<String, IZkDataListener> dataListeners = new ConcurrentHashMap<>();
+
+    // service 节点的子节点发生变化时刷新该服务的地址列表
+    private final IZkChildListener childListener = (parentPath, currentChildren) -> refresh(toServiceName(parentPath));
 
     /**
      * 该构造方法提供给用户（用户通过配置文件指定 zkAddress 完成服务发现组件的注入）
      * @param zkAddress 注册/发现中心地址
      */
     public ZookeeperServiceDiscovery(String zkAddress) {
-        this.zkAddress = zkAddress;
+        zkClient = new ZkClient(zkAddress, Constant.ZK_SESSION_TIMEOUT, Constant.ZK_CONNECTION_TIMEOUT,
+                new SerializableSerializer(), Constant.ZK_OPERATION_RETRY_TIMEOUT);
+        LOGGER.info("connect zookeeper");
+        zkClient.subscribeStateChanges(new IZkStateListener() {
+            @Override
+            public void handleStateChanged(Watcher.Event.KeeperState state) {
+                LOGGER.info("zookeeper state changed: {}", state);
+            }
+
+            @Override
+            public void handleNewSession() {
+                // 会话过期后重新建立了会话，期间的变化不会触发监听，需要重新读取所有服务的地址列表
+                for (String serviceName : addressCache.keySet()) {
+                    refresh(serviceName);
+                }
+            }
+
+            @Override
+            public void handleSessionEstablishmentError(Throwable error) {
+                LOGGER.error("can not establish zookeeper session, keep using cached addresses", error);
+            }
+        });
     }
 
     /**
-     * 服务发现
+     * 服务发现（从缓存的地址列表中随机选择一个地址，只有第一次查找某个服务时才会访问 ZooKeeper）
      * @param serviceName 服务名称（被暴露的实现类的接口名称）
      * @return
      */
     @Override
     public String discovery(String serviceName) {
-        ZkClient zkClient = new ZkClient(zkAddress, Constant.ZK_SESSION_TIMEOUT, Constant.ZK_CONNECTION_TIMEOUT);
-        LOGGER.info("connect zookeeper");
+        List<ServiceInstance> addressList = discoverAll(serviceName);
+        if (CollectionUtils.isEmpty(addressList)) {
+            throw new RuntimeException(String.format("can not find any address node on path: %s", toServicePath(serviceName)));
+        }
+        int size = addressList.size();
+        // 若存在多个 address 节点，则随机获取一个地址（客户端通常通过 discoverAll 和负载均衡策略选择）
+        String address = (size == 1 ? addressList.get(0) : addressList.get(ThreadLocalRandom.current().nextInt(size))).getAddress();
+        LOGGER.debug("discover address of service {}: {}", serviceName, address);
+        return address;
+    }
+
+    /**
+     * 查找服务的所有实例（返回缓存的不可修改列表，地址变化时缓存被整体替换）
+     * @param serviceName 服务名称（被暴露的实现类的接口名称）
+     * @return
+     */
+    @Override
+    public List<ServiceInstance> discoverAll(String serviceName) {
+        List<ServiceInstance> addressList = addressCache.get(serviceName);
+        if (addressList == null) {
+            addressList = watch(serviceName);
+        }
+        return addressList;
+    }
+
+    /**
+     * 关闭 ZkClient（监听随之失效）
+     */
+    public void close() {
+        zkClient.close();
+    }
 
+    /**
+     * 开始监听服务的 address 节点，并读取其地址列表
+     * @param serviceName
+     * @return 地址列表
+     */
+    private synchronized List<ServiceInstance> watch(String serviceName) {
+        List<ServiceInstance> addressList = addressCache.get(serviceName);
+        if (addressList != null) {
+            return addressList;
+        }
+        // service 节点不存在时也可以监听，节点创建后会收到通知
+        zkClient.subscribeChildChanges(toServicePath(serviceName), childListener);
+        addressList = refresh(serviceName);
+        if (addressList == null) {
+            throw new RuntimeException(String.format("can not read address nodes on path: %s", toServicePath(serviceName)));
+        }
+        return addressList;
+    }
+
+    /**
+     * 重新读取服务的所有 address 节点，并更新地址列表的缓存（在 ZkClient 的事件线程中调用）
+     * @param serviceName
+     * @return 新的地址列表，读取失败时返回 null（缓存保持不变）
+     */
+    private synchronized List<ServiceInstance> refresh(String serviceName) {
+        String servicePath = toServicePath(serviceName);
         try {
-            // 根据 serviceName 查找 service 节点
-            String servicePath = Constant.ZK_REGISTRY_PATH + "/" + serviceName;
-            if (!zkClient.exists(servicePath)) {
-                throw new RuntimeException(String.format("can not find any service node on path: %s\", servicePath"));
-            }
-            // 查找 address 节点
-            List<String> addressList = zkClient.getChildren(servicePath);
-            if (CollectionUtils.isEmpty(addressList)) {
-                throw new RuntimeException(String.format("can not find any address node on path: %s", servicePath));
+            List<String> addressNodes = zkClient.exists(servicePath) ? zkClient.getChildren(servicePath) : Collections.emptyList();
+            List<ServiceInstance> addressList = new ArrayList<>(addressNodes.size());
+            Set<String> addressPaths = new HashSet<>();
+            for (String addressNode : addressNodes) {
+                String addressPath = servicePath + "/" + addressNode;
+                addressPaths.add(addressPath);
+                dataListeners.computeIfAbsent(addressPath, this::subscribeData);
+                // 读取 address 节点的内容（服务地址、权重和注册时间），节点可能已经被删除
+                String addressData = zkClient.readData(addressPath, true);
+                if (addressData != null) {
+                    addressList.add(ServiceInstance.parse(addressData));
+                }
             }
-            String address;
-            int size = addressList.size();
-            if (size == 1) {
-                // 如果只有一个 address 节点，则直接获取该地址
-                address = addressList.get(0);
-                LOGGER.info("get only address node: {}", address);
+            // 取消已删除的 address 节点的数据监听
+            dataListeners.entrySet().removeIf(entry -> {
+                String addressPath = entry.getKey();
+                if (addressPath.startsWith(servicePath + "/") && !addressPaths.contains(addressPath)) {
+                    zkClient.unsubscribeDataChanges(addressPath, entry.getValue());
+                    return true;
+                }
+                return false;
+            });
+            addressList = Collections.unmodifiableList(addressList);
+            addressCache.put(serviceName, addressList);
+            LOGGER.info("refresh service addresses: {} => {}", serviceName, addressList);
+            return addressList;
+        } catch (RuntimeException e) {
+            LOGGER.warn("refresh service addresses failure, keep using cached addresses: {} => {}", serviceName, addressCache.get(serviceName), e);
+            return null;
+        }
+    }
+
+    /**
+     * address 节点的内容发生变化时刷新其所属服务的地址列表
+     * @param addressPath
+     * @return
+     */
+    private IZkDataListener subscribeData(String addressPath) {
+        IZkDataListener dataListener = new IZkDataListener() {
+            @Override
+            public void handleDataChange(String dataPath, Object data) {
+                refresh(toServiceName(dataPath.substring(0, dataPath.lastIndexOf('/'))));
             }
-            else {
-                // 若存在多个address 节点，则通过负载均衡策略获取一个地址（这里就选择了最简单的随机获取）
-                address = addressList.get(ThreadLocalRandom.current().nextInt(size));
-                LOGGER.info("get random address node: {}", address);
+
+            @Override
+            public void handleDataDeleted(String dataPath) {
+                // 节点删除由子节点监听处理
             }
-            // 读取 address 节点的内容（服务地址）
-            String addressPath = servicePath + "/" + address;
-            return zkClient.readData(addressPath);
-        } finally {
-            zkClient.close();
-        }
+        };
+        zkClient.subscribeDataChanges(addressPath, dataListener);
+        return dataListener;
     }
 
+    private static String toServicePath(String serviceName) {
+        return Constant.ZK_REGISTRY_PATH + "/" + serviceName;
+    }
+
+    private static String toServiceName(String servicePath) {
+        return servicePath.substring(Constant.ZK_REGISTRY_PATH.length() + 1);
+    }
 }
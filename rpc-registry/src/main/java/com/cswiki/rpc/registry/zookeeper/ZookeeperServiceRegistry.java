@@ -1,28 +1,107 @@
 package com.cswiki.rpc.registry.zookeeper;
 
+import com.cswiki.rpc.registry.ServiceInstance;
 import com.cswiki.rpc.registry.ServiceRegistry;
+import org.I0Itec.zkclient.IZkStateListener;
 import org.I0Itec.zkclient.ZkClient;
+import org.I0Itec.zkclient.exception.ZkNodeExistsException;
+import org.I0Itec.zkclient.serialize.SerializableSerializer;
+import org.I0Itec.zkclient.serialize.ZkSerializer;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.Op;
+import org.apache.zookeeper.OpResult;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.ZooDefs;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
 /**
  * 使用 Zookeeper 实现服务注册（使用 Zookeeper 客户端 ZkClient）
+ *
+ * 一次注册的所有服务通过两次 multi 操作完成：先创建缺少的 service 持久节点，再创建所有 address 临时节点，
+ * 不必为每个服务分别检查和创建节点；会话过期（临时节点随之被删除）后自动重新注册所有服务，
+ * 失败时按指数退避重试，直到成功、再次过期（由新会话的重新注册接替）或者 close
  */
 public class ZookeeperServiceRegistry implements ServiceRegistry {
 
     // slf4j 日志
     private static final Logger LOGGER = LoggerFactory.getLogger(ZookeeperServiceRegistry.class);
 
+    // address 节点数据的序列化方式（与 ZookeeperServiceDiscovery 读取时使用的相同）
+    private final ZkSerializer zkSerializer = new SerializableSerializer();
+
     // Zookeeper 客户端 ZkClient
     private ZkClient zkClient;
 
+    // 重新注册失败后第一次重试的等待时间（毫秒），之后每次翻倍
+    private static final long MIN_RETRY_DELAY = 1000;
+
+    // 重新注册失败后重试的最长等待时间（毫秒）
+    private static final long MAX_RETRY_DELAY = 30000;
+
+    // 已注册的服务（服务名称与服务实例），会话过期后据此重新注册（由 this 保护）
+    private final List<Map.Entry<String, ServiceInstance>> registered = new ArrayList<>();
+
+    // 会话的代数（每次建立新会话时加一），重试时发现已经进入新的会话则放弃（由 this 保护）
+    private long session;
+
+    // 是否已经关闭（由 this 保护）
+    private boolean closed;
+
+    // 执行重新注册的重试
+    private final ScheduledExecutorService retryExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "zk-register-retry");
+        thread.setDaemon(true);
+        return thread;
+    });
+
     /**
      * 该构造方法提供给用户（用户通过配置文件指定 zkAddress 完成服务注册组件的注入）
      * @param zkAddress 注册中心地址
      */
     public ZookeeperServiceRegistry(String zkAddress) {
-        zkClient = new ZkClient(zkAddress, Constant.ZK_SESSION_TIMEOUT, Constant.ZK_CONNECTION_TIMEOUT);
+        zkClient = new ZkClient(zkAddress, Constant.ZK_SESSION_TIMEOUT, Constant.ZK_CONNECTION_TIMEOUT,
+                zkSerializer, Constant.ZK_OPERATION_RETRY_TIMEOUT);
         LOGGER.info("connect zookeeper");
+        zkClient.subscribeStateChanges(new IZkStateListener() {
+            @Override
+            public void handleStateChanged(Watcher.Event.KeeperState state) {
+                LOGGER.info("zookeeper state changed: {}", state);
+            }
+
+            @Override
+            public void handleNewSession() {
+                // 会话过期后临时节点已被删除，在新的会话中重新注册（保留原来的注册时间，客户端不会再次对其慢启动）
+                // 之后通过 registerAll 注册的服务已经在新的会话中创建，因此只重新注册此时已注册的服务
+                List<Map.Entry<String, ServiceInstance>> entries;
+                long currentSession;
+                synchronized (ZookeeperServiceRegistry.this) {
+                    if (closed || registered.isEmpty()) {
+                        return;
+                    }
+                    entries = new ArrayList<>(registered);
+                    currentSession = ++session;
+                }
+                reRegister(entries, currentSession, MIN_RETRY_DELAY);
+            }
+
+            @Override
+            public void handleSessionEstablishmentError(Throwable error) {
+                LOGGER.error("can not establish zookeeper session", error);
+            }
+        });
     }
 
     /**
@@ -32,21 +111,122 @@ public class ZookeeperServiceRegistry implements ServiceRegistry {
      */
     @Override
     public void register(String serviceName, String serviceAddress) {
-        // 创建 registry 持久节点，该节点下存放所有的 service 节点
+        register(serviceName, serviceAddress, ServiceInstance.DEFAULT_WEIGHT);
+    }
+
+    /**
+     * 服务注册（address 节点中同时记录权重和注册时间，见 ServiceInstance.toData）
+     * @param serviceName 服务名称
+     * @param serviceAddress 服务地址
+     * @param weight 权重
+     */
+    @Override
+    public void register(String serviceName, String serviceAddress, int weight) {
+        registerAll(Collections.singletonMap(serviceName, new ServiceInstance(serviceAddress, weight)));
+    }
+
+    /**
+     * 批量注册服务（没有注册时间的服务实例以当前时间作为注册时间）
+     * @param instances 服务名称与该服务的实例之间的映射关系
+     */
+    @Override
+    public synchronized void registerAll(Map<String, ServiceInstance> instances) {
+        long now = System.currentTimeMillis();
+        List<Map.Entry<String, ServiceInstance>> entries = new ArrayList<>(instances.size());
+        for (Map.Entry<String, ServiceInstance> entry : instances.entrySet()) {
+            ServiceInstance instance = entry.getValue();
+            if (instance.getRegisteredTime() <= 0) {
+                instance = instance.withRegisteredTime(now);
+            }
+            entries.add(new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), instance));
+        }
+        create(entries);
+        registered.addAll(entries);
+    }
+
+    /**
+     * 在新的会话中重新注册服务，失败时在 retryDelay 毫秒后重试（等待时间每次翻倍，不超过 MAX_RETRY_DELAY）
+     * @param entries
+     * @param currentSession 发起重新注册时的会话代数
+     * @param retryDelay
+     */
+    private void reRegister(List<Map.Entry<String, ServiceInstance>> entries, long currentSession, long retryDelay) {
+        synchronized (this) {
+            if (closed || currentSession != session) {
+                return;
+            }
+            try {
+                create(entries);
+                return;
+            } catch (RuntimeException e) {
+                LOGGER.error("re-register services failure after zookeeper session expired, retry in {}ms", retryDelay, e);
+            }
+        }
+        try {
+            retryExecutor.schedule(() -> reRegister(entries, currentSession, Math.min(retryDelay * 2, MAX_RETRY_DELAY)),
+                    retryDelay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // 已经关闭
+        }
+    }
+
+    /**
+     * 关闭 ZkClient（临时节点随会话关闭被删除），停止重新注册的重试
+     */
+    public void close() {
+        synchronized (this) {
+            closed = true;
+        }
+        retryExecutor.shutdownNow();
+        zkClient.close();
+    }
+
+    /**
+     * 创建服务的 address 临时节点（以及缺少的 registry、service 持久节点）
+     * @param entries
+     */
+    private void create(List<Map.Entry<String, ServiceInstance>> entries) {
+        long startNanos = System.nanoTime();
+        // 创建 registry 持久节点和缺少的 service 持久节点，存放服务名称
         String registryPath = Constant.ZK_REGISTRY_PATH;
-        if (!zkClient.exists(registryPath)) {
-            zkClient.createPersistent(registryPath);
-            LOGGER.info("create registry node: {}", registryPath);
-        }
-        // 在 registry 节点下创建 service 持久节点，存放服务名称
-        String servicePath = registryPath + "/" + serviceName;
-        if (!zkClient.exists(servicePath)) {
-            zkClient.createPersistent(servicePath);
-            LOGGER.info("create service node: {}", servicePath);
-        }
-        // 在 service 节点下创建 address 临时节点,存放服务地址
-        String addressPath = servicePath + "/address-";
-        String addressNode = zkClient.createEphemeralSequential(addressPath, serviceAddress);
-        LOGGER.info("create address node: {}", addressNode);
+        List<String> persistentPaths = new ArrayList<>();
+        Set<String> existingServices = new HashSet<>();
+        if (zkClient.exists(registryPath)) {
+            existingServices.addAll(zkClient.getChildren(registryPath));
+        } else {
+            persistentPaths.add(registryPath);
+        }
+        for (Map.Entry<String, ServiceInstance> entry : entries) {
+            if (existingServices.add(entry.getKey())) {
+                persistentPaths.add(registryPath + "/" + entry.getKey());
+            }
+        }
+        if (!persistentPaths.isEmpty()) {
+            List<Op> ops = new ArrayList<>(persistentPaths.size());
+            for (String path : persistentPaths) {
+                ops.add(Op.create(path, null, ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT));
+            }
+            try {
+                zkClient.multi(ops);
+            } catch (ZkNodeExistsException e) {
+                // 其他服务端同时创建了其中的部分节点（multi 整体失败），逐个创建并忽略已存在的节点
+                for (String path : persistentPaths) {
+                    zkClient.createPersistent(path, true);
+                }
+            }
+            LOGGER.info("create service nodes: {}", persistentPaths);
+        }
+        // 在 service 节点下创建 address 临时节点，存放服务地址、权重、注册时间及其他元数据
+        List<Op> ops = new ArrayList<>(entries.size());
+        for (Map.Entry<String, ServiceInstance> entry : entries) {
+            String addressPath = registryPath + "/" + entry.getKey() + "/address-";
+            ops.add(Op.create(addressPath, zkSerializer.serialize(entry.getValue().toData()),
+                    ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.EPHEMERAL_SEQUENTIAL));
+        }
+        List<OpResult> results = zkClient.multi(ops);
+        for (OpResult result : results) {
+            LOGGER.info("create address node: {}", ((OpResult.CreateResult) result).getPath());
+        }
+        LOGGER.info("register {} services in {}ms", entries.size(), (System.nanoTime() - startNanos) / 1_000_000);
     }
 }
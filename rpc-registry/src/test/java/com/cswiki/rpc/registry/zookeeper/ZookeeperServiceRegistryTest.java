@@ -0,0 +1,194 @@
+package com.cswiki.rpc.registry.zookeeper;
+
+import com.cswiki.rpc.registry.ServiceInstance;
+import org.I0Itec.zkclient.ZkClient;
+import org.I0Itec.zkclient.ZkConnection;
+import org.I0Itec.zkclient.serialize.SerializableSerializer;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.ZooDefs;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.data.ACL;
+import org.apache.zookeeper.server.ServerCnxnFactory;
+import org.apache.zookeeper.server.ZooKeeperServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.lang.reflect.Field;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 使用内嵌的 ZooKeeper 服务端测试服务注册（包括会话过期后的重新注册及其失败重试）
+ */
+public class ZookeeperServiceRegistryTest {
+
+    private static final String SERVICE_NAME = "com.cswiki.test.HelloService";
+
+    private File dataDir;
+
+    private ServerCnxnFactory serverFactory;
+
+    private String zkAddress;
+
+    private ZookeeperServiceRegistry registry;
+
+    // 用于检查节点的客户端
+    private ZkClient checker;
+
+    @Before
+    public void setUp() throws Exception {
+        dataDir = Files.createTempDirectory("zookeeper").toFile();
+        ZooKeeperServer server = new ZooKeeperServer(dataDir, dataDir, 2000);
+        // 端口为 0 时使用任意空闲端口
+        serverFactory = ServerCnxnFactory.createFactory(new InetSocketAddress("127.0.0.1", 0), 100);
+        serverFactory.startup(server);
+        zkAddress = "127.0.0.1:" + serverFactory.getLocalPort();
+        registry = new ZookeeperServiceRegistry(zkAddress);
+        checker = new ZkClient(zkAddress, Constant.ZK_SESSION_TIMEOUT, Constant.ZK_CONNECTION_TIMEOUT,
+                new SerializableSerializer(), Constant.ZK_OPERATION_RETRY_TIMEOUT);
+    }
+
+    @After
+    public void tearDown() {
+        checker.close();
+        registry.close();
+        serverFactory.shutdown();
+        delete(dataDir);
+    }
+
+    @Test
+    public void registerAllWritesInstancesWithMetadata() {
+        Map<String, String> metadata = new HashMap<>();
+        metadata.put(ServiceInstance.ZONE, "az-1");
+        metadata.put(ServiceInstance.SERIALIZERS, "protostuff,kryo");
+        metadata.put(ServiceInstance.METHODS, ServiceInstance.encodeMethodIds(Collections.singletonMap("hello(java.lang.String)", 1)));
+        Map<String, ServiceInstance> instances = new HashMap<>();
+        instances.put(SERVICE_NAME, new ServiceInstance("127.0.0.1:8000", 50, 0, metadata));
+        instances.put(SERVICE_NAME + "-v2", new ServiceInstance("127.0.0.1:8000"));
+        registry.registerAll(instances);
+
+        List<ServiceInstance> registered = instances(SERVICE_NAME);
+        assertEquals(1, registered.size());
+        ServiceInstance instance = registered.get(0);
+        assertEquals("127.0.0.1:8000", instance.getAddress());
+        assertEquals(50, instance.getWeight());
+        assertTrue(instance.getRegisteredTime() > 0);
+        assertEquals("az-1", instance.getZone());
+        assertEquals(2, instance.getSerializers().size());
+        assertEquals(Integer.valueOf(1), instance.getMethodIds().get("hello(java.lang.String)"));
+        assertEquals(1, instances(SERVICE_NAME + "-v2").size());
+
+        // 客户端通过 ZookeeperServiceDiscovery 读取到相同的服务实例
+        ZookeeperServiceDiscovery discovery = new ZookeeperServiceDiscovery(zkAddress);
+        try {
+            assertEquals(registered, discovery.discoverAll(SERVICE_NAME));
+        } finally {
+            discovery.close();
+        }
+    }
+
+    @Test
+    public void reRegistersAfterSessionExpired() throws Exception {
+        registry.register(SERVICE_NAME, "127.0.0.1:8000", 50);
+        ServiceInstance before = instances(SERVICE_NAME).get(0);
+
+        expireSession();
+
+        ServiceInstance after = awaitInstances(SERVICE_NAME, 1, 10000).get(0);
+        // 重新注册时保留原来的注册时间
+        assertEquals(before, after);
+    }
+
+    @Test
+    public void retriesReRegistrationAfterFailure() throws Exception {
+        registry.register(SERVICE_NAME, "127.0.0.1:8000");
+        String servicePath = Constant.ZK_REGISTRY_PATH + "/" + SERVICE_NAME;
+        // 不允许在 service 节点下创建子节点，使会话过期后的重新注册失败
+        checker.setAcl(servicePath, Collections.singletonList(new ACL(ZooDefs.Perms.READ | ZooDefs.Perms.ADMIN, ZooDefs.Ids.ANYONE_ID_UNSAFE)));
+
+        expireSession();
+
+        // 重新注册失败并至少重试一次
+        Thread.sleep(2000);
+        assertEquals(0, instances(SERVICE_NAME).size());
+
+        // 恢复权限后，重试的重新注册成功
+        checker.setAcl(servicePath, ZooDefs.Ids.OPEN_ACL_UNSAFE);
+        awaitInstances(SERVICE_NAME, 1, 10000);
+    }
+
+    /**
+     * 使用同一会话建立另一个连接再关闭它，使注册组件的会话过期，等到注册组件建立新的会话
+     */
+    private void expireSession() throws Exception {
+        ZooKeeper zooKeeper = registryZooKeeper();
+        long sessionId = zooKeeper.getSessionId();
+        CountDownLatch connected = new CountDownLatch(1);
+        ZooKeeper duplicate = new ZooKeeper(zkAddress, Constant.ZK_SESSION_TIMEOUT, event -> {
+            if (event.getState() == Watcher.Event.KeeperState.SyncConnected) {
+                connected.countDown();
+            }
+        }, sessionId, zooKeeper.getSessionPasswd());
+        assertTrue(connected.await(10, TimeUnit.SECONDS));
+        duplicate.close();
+        long deadline = System.currentTimeMillis() + 10000;
+        while (registryZooKeeper().getSessionId() == sessionId && System.currentTimeMillis() < deadline) {
+            Thread.sleep(100);
+        }
+        assertNotEquals(sessionId, registryZooKeeper().getSessionId());
+    }
+
+    private ZooKeeper registryZooKeeper() throws ReflectiveOperationException {
+        Field clientField = ZookeeperServiceRegistry.class.getDeclaredField("zkClient");
+        clientField.setAccessible(true);
+        Field connectionField = ZkClient.class.getDeclaredField("_connection");
+        connectionField.setAccessible(true);
+        return ((ZkConnection) connectionField.get(clientField.get(registry))).getZookeeper();
+    }
+
+    private List<ServiceInstance> awaitInstances(String serviceName, int count, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        List<ServiceInstance> instances = instances(serviceName);
+        while (instances.size() != count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(100);
+            instances = instances(serviceName);
+        }
+        assertEquals(count, instances.size());
+        return instances;
+    }
+
+    private List<ServiceInstance> instances(String serviceName) {
+        String servicePath = Constant.ZK_REGISTRY_PATH + "/" + serviceName;
+        List<ServiceInstance> instances = new ArrayList<>();
+        for (String address : checker.getChildren(servicePath)) {
+            String data = checker.readData(servicePath + "/" + address, true);
+            if (data != null) {
+                instances.add(ServiceInstance.parse(data));
+            }
+        }
+        return instances;
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
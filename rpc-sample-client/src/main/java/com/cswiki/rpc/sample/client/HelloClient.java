@@ -5,6 +5,8 @@ import com.cswiki.rpc.sample.api.HelloService;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.support.ClassPathXmlApplicationContext;
 
+import java.util.concurrent.CompletableFuture;
+
 public class HelloClient {
 
     public static void main(String[] args) throws Exception {
@@ -30,7 +32,15 @@ public class HelloClient {
         String result2 = helloServiceImpl2.hello("Tom");
         System.out.println(result2);
 
-
+        /**
+         * 测试异步调用：同时发出多个请求，全部响应到达后再输出
+         */
+        HelloServiceAsync helloServiceAsync = rpcProxy.createAsync(HelloServiceAsync.class, HelloService.class);
+        CompletableFuture<String> future1 = helloServiceAsync.hello("Alice");
+        CompletableFuture<String> future2 = helloServiceAsync.hello("Bob");
+        CompletableFuture.allOf(future1, future2).join();
+        System.out.println(future1.get());
+        System.out.println(future2.get());
 
         System.exit(0);
     }
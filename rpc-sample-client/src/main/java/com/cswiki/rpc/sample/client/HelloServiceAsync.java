@@ -0,0 +1,12 @@
+package com.cswiki.rpc.sample.client;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * HelloService 的异步版本（只在客户端定义，服务端仍然暴露同步的 HelloService）
+ */
+public interface HelloServiceAsync {
+
+    CompletableFuture<String> hello(String name);
+
+}
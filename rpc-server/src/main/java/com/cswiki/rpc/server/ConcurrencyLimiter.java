@@ -0,0 +1,66 @@
+package com.cswiki.rpc.server;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 服务的并发限制（每个服务一个，由该服务的所有方法共享）
+ * 收到请求时获取许可，超过并发上限时立即拒绝；请求完成（或被丢弃）时释放许可，并把耗时交给具体的限制策略
+ */
+public abstract class ConcurrencyLimiter {
+
+    // 正在处理的请求数（包括在业务线程池中排队的请求）
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    // 被拒绝的请求数
+    private final AtomicLong rejected = new AtomicLong();
+
+    /**
+     * 获取许可（不阻塞）
+     * @return 当前并发数已达到上限时返回 false
+     */
+    public boolean tryAcquire() {
+        for (;;) {
+            int current = inFlight.get();
+            if (current >= getLimit()) {
+                rejected.incrementAndGet();
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 释放许可
+     * @param rttNanos 请求从收到到完成的耗时（小于 0 表示没有有效的耗时，如流式调用）
+     * @param dropped 请求是否因过载被丢弃（在线程池中过期或被线程池拒绝）
+     */
+    public void release(long rttNanos, boolean dropped) {
+        int current = inFlight.getAndDecrement();
+        onRelease(rttNanos, current, dropped);
+    }
+
+    /**
+     * 请求完成时调用，自适应的限制策略据此调整并发上限
+     * @param rttNanos
+     * @param inFlight 释放之前的并发数
+     * @param dropped
+     */
+    protected void onRelease(long rttNanos, int inFlight, boolean dropped) {
+    }
+
+    /**
+     * @return 当前的并发上限
+     */
+    public abstract int getLimit();
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    public long getRejected() {
+        return rejected.get();
+    }
+}
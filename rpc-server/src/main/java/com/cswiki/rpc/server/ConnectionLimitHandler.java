@@ -0,0 +1,49 @@
+package com.cswiki.rpc.server;
+
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 限制服务端同时保持的连接数，超出上限的新连接会被直接关闭
+ * 所有连接共享同一个实例
+ */
+@ChannelHandler.Sharable
+public class ConnectionLimitHandler extends ChannelInboundHandlerAdapter {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ConnectionLimitHandler.class);
+
+    // 最大连接数
+    private final int maxConnections;
+
+    // 当前连接数
+    private final AtomicInteger connections = new AtomicInteger();
+
+    public ConnectionLimitHandler(int maxConnections) {
+        this.maxConnections = maxConnections;
+    }
+
+    @Override
+    public void channelActive(ChannelHandlerContext ctx) throws Exception {
+        if (connections.incrementAndGet() > maxConnections) {
+            LOGGER.warn("too many connections ({}), reject: {}", maxConnections, ctx.channel().remoteAddress());
+            ctx.close();
+            return;
+        }
+        super.channelActive(ctx);
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        connections.decrementAndGet();
+        super.channelInactive(ctx);
+    }
+
+    public int getConnections() {
+        return connections.get();
+    }
+}
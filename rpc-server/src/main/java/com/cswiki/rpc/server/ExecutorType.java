@@ -0,0 +1,19 @@
+package com.cswiki.rpc.server;
+
+/**
+ * 服务端执行业务方法的线程模型
+ */
+public enum ExecutorType {
+
+    // 直接在 Netty 的 I/O 线程中执行（业务方法很快且不会阻塞时使用）
+    DIRECT,
+
+    // 所有服务共享一个有界线程池
+    SHARED,
+
+    // 每个服务独占一个有界线程池，慢服务不会影响其他服务
+    SERVICE,
+
+    // 每个请求一个虚拟线程（需要 JDK 21 及以上，否则退化为 SHARED）
+    VIRTUAL
+}
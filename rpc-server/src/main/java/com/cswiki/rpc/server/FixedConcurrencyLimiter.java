@@ -0,0 +1,21 @@
+package com.cswiki.rpc.server;
+
+/**
+ * 固定的并发上限（由 @RpcService 的 maxConcurrency 指定）
+ */
+public class FixedConcurrencyLimiter extends ConcurrencyLimiter {
+
+    private final int limit;
+
+    public FixedConcurrencyLimiter(int limit) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException(String.format("invalid concurrency limit: %d", limit));
+        }
+        this.limit = limit;
+    }
+
+    @Override
+    public int getLimit() {
+        return limit;
+    }
+}
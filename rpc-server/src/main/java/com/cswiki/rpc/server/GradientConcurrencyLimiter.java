@@ -0,0 +1,124 @@
+package com.cswiki.rpc.server;
+
+/**
+ * 根据延迟变化自动调整的并发上限（思路同 TCP Vegas：延迟升高说明请求开始排队）
+ * 每个采样窗口结束时，以无排队时的延迟与窗口内平均延迟之比作为梯度：
+ *   newLimit = limit × gradient + √limit
+ * 梯度限制在 [0.5, 1]：延迟没有明显升高时上限每个窗口增加 √limit，延迟升高时按比例收缩；
+ * 窗口中有请求因过载被丢弃时直接乘性减小。并发数不到上限的一半时（负载不足）延迟不能说明上限是否合适，不调整
+ *
+ * 无排队时的延迟取各窗口最小延迟中的最小值，每个窗口最多上浮 1%：服务本身变慢后能逐渐跟上，
+ * 而持续排队时上限会先被压低，排队消失后最小延迟随即回落，不会把排队时的延迟当作基准
+ */
+public class GradientConcurrencyLimiter extends ConcurrencyLimiter {
+
+    // 采样窗口的最短时间（纳秒）
+    private static final long WINDOW_NANOS = 100_000_000L;
+
+    // 采样窗口中至少需要的样本数
+    private static final int MIN_WINDOW_SAMPLES = 10;
+
+    // 窗口平均延迟不超过无排队时延迟的该倍数时视为没有排队
+    private static final double TOLERANCE = 2.0;
+
+    // 无排队时的延迟每个窗口允许上浮的比例
+    private static final double NO_LOAD_RTT_DRIFT = 1.01;
+
+    // 按梯度计算的新上限的平滑系数（有请求被丢弃时不平滑，立即缩小）
+    private static final double SMOOTHING = 0.2;
+
+    // 有请求被丢弃时上限的缩小比例
+    private static final double BACKOFF_RATIO = 0.9;
+
+    private final int minLimit;
+
+    private final int maxLimit;
+
+    private volatile int limit;
+
+    // 以下字段由 this 保护
+    private double estimatedLimit;
+
+    private double noLoadRttNanos;
+
+    private long windowStartNanos = System.nanoTime();
+
+    private int windowSamples;
+
+    private long windowRttSumNanos;
+
+    private long windowMinRttNanos = Long.MAX_VALUE;
+
+    private int windowMaxInFlight;
+
+    private boolean windowDropped;
+
+    public GradientConcurrencyLimiter() {
+        this(20, 2, 1000);
+    }
+
+    /**
+     * @param initialLimit 初始的并发上限
+     * @param minLimit 并发上限的最小值
+     * @param maxLimit 并发上限的最大值
+     */
+    public GradientConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit) {
+        if (minLimit <= 0 || initialLimit < minLimit || maxLimit < initialLimit) {
+            throw new IllegalArgumentException(String.format("invalid concurrency limits: initial=%d, min=%d, max=%d",
+                    initialLimit, minLimit, maxLimit));
+        }
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.estimatedLimit = initialLimit;
+        this.limit = initialLimit;
+    }
+
+    @Override
+    protected synchronized void onRelease(long rttNanos, int inFlight, boolean dropped) {
+        if (dropped) {
+            windowDropped = true;
+        } else if (rttNanos >= 0) {
+            windowSamples++;
+            windowRttSumNanos += rttNanos;
+            windowMinRttNanos = Math.min(windowMinRttNanos, rttNanos);
+        } else {
+            return;
+        }
+        windowMaxInFlight = Math.max(windowMaxInFlight, inFlight);
+        long now = System.nanoTime();
+        if (now - windowStartNanos < WINDOW_NANOS || (windowSamples < MIN_WINDOW_SAMPLES && !windowDropped)) {
+            return;
+        }
+        update();
+        windowStartNanos = now;
+        windowSamples = 0;
+        windowRttSumNanos = 0;
+        windowMinRttNanos = Long.MAX_VALUE;
+        windowMaxInFlight = 0;
+        windowDropped = false;
+    }
+
+    private void update() {
+        double newLimit;
+        if (windowDropped) {
+            newLimit = estimatedLimit * BACKOFF_RATIO;
+        } else if (windowSamples > 0) {
+            double rttNanos = (double) windowRttSumNanos / windowSamples;
+            noLoadRttNanos = noLoadRttNanos == 0 ? windowMinRttNanos : Math.min(noLoadRttNanos * NO_LOAD_RTT_DRIFT, windowMinRttNanos);
+            if (windowMaxInFlight < estimatedLimit / 2) {
+                return;
+            }
+            double gradient = Math.max(0.5, Math.min(1.0, TOLERANCE * noLoadRttNanos / Math.max(rttNanos, 1)));
+            newLimit = estimatedLimit * (1 - SMOOTHING) + (estimatedLimit * gradient + Math.sqrt(estimatedLimit)) * SMOOTHING;
+        } else {
+            return;
+        }
+        estimatedLimit = Math.max(minLimit, Math.min(maxLimit, newLimit));
+        limit = (int) estimatedLimit;
+    }
+
+    @Override
+    public int getLimit() {
+        return limit;
+    }
+}
@@ -2,29 +2,50 @@ package com.cswiki.rpc.server;
 
 import com.cswiki.codec.RpcDecoder;
 import com.cswiki.codec.RpcEncoder;
+import com.cswiki.codec.RpcProtocol;
+import com.cswiki.entity.RpcHandshake;
 import com.cswiki.entity.RpcRequest;
 import com.cswiki.entity.RpcResponse;
+import com.cswiki.metrics.RpcMetrics;
+import com.cswiki.metrics.TransportMetrics;
+import com.cswiki.rpc.registry.ServiceInstance;
 import com.cswiki.rpc.registry.ServiceRegistry;
+import com.cswiki.serializer.Serializer;
+import com.cswiki.serializer.Serializers;
+import com.cswiki.transport.NettyTransport;
 import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelOption;
 import io.netty.channel.ChannelPipeline;
-import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.MultithreadEventLoopGroup;
+import io.netty.channel.epoll.EpollChannelOption;
 import io.netty.channel.socket.SocketChannel;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
 import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.flush.FlushConsolidationHandler;
+import io.netty.handler.timeout.IdleStateHandler;
 import org.apache.commons.collections4.MapUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.BeansException;
+import org.springframework.beans.FatalBeanException;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.ApplicationContextAware;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
 
 public class RpcServer implements ApplicationContextAware, InitializingBean {
 
@@ -36,9 +57,72 @@ public class RpcServer implements ApplicationContextAware, InitializingBean {
     // 服务注册组件（Zookeeper）
     private ServiceRegistry serviceRegistry;
 
+    // 注册到注册中心的权重（客户端按权重分配流量，新注册的实例在客户端的预热时间内逐渐达到该权重）
+    private int weight = ServiceInstance.DEFAULT_WEIGHT;
+
+    // 服务端所在的区域（如机房、可用区，注册到注册中心供客户端使用，为空时不注册）
+    private String zone;
+
     // 存储服务名称与服务对象之间的映射关系
     private Map<String, Object> handlerMap = new HashMap<>();
 
+    // 服务方法调用器表（在 setApplicationContext 中为每个服务方法预先创建调用器）
+    private ServiceInvokerTable invokerTable = new ServiceInvokerTable();
+
+    // 是否保持连接（为 false 时每次响应后关闭连接）
+    private boolean keepAlive = true;
+
+    // 连接空闲超时时间（秒），在此时间内没有收到任何数据（包括客户端心跳）的连接会被关闭
+    private int readerIdleTime = 90;
+
+    // 最大连接数
+    private int maxConnections = 10000;
+
+    // 执行业务方法的线程模型
+    private ExecutorType executorType = ExecutorType.SHARED;
+
+    // 业务线程池的线程数
+    private int executorThreads = 200;
+
+    // 业务线程池的任务队列长度，队列满时请求会被拒绝
+    private int executorQueueSize = 1000;
+
+    // 存储服务名称与该服务独占线程数之间的映射关系
+    private Map<String, Integer> serviceThreadsMap = new HashMap<>();
+
+    // 是否优先使用原生 epoll 传输（不可用时自动退回 NIO）
+    private boolean nativeTransport = true;
+
+    // 接收连接的线程数（为 0 时使用 Netty 的默认值：CPU 核数 * 2）
+    private int bossThreads = 1;
+
+    // 处理 I/O 的线程数（为 0 时使用 Netty 的默认值：CPU 核数 * 2）
+    private int workerThreads = 0;
+
+    // 是否开启 SO_REUSEPORT（仅 epoll 支持）
+    private boolean reusePort = false;
+
+    // 开启 SO_REUSEPORT 时，绑定到同一端口的监听通道数（由内核在这些通道之间分配新连接，默认为 boss 线程数）
+    private int acceptorCount = 0;
+
+    // 响应消息体达到该长度（字节）时压缩后发送（0 表示不压缩，服务可通过 @RpcService 单独指定）
+    private int compressThreshold = 0;
+
+    // 是否为没有指定 maxConcurrency 的服务启用自适应并发限制（见 GradientConcurrencyLimiter）
+    private boolean adaptiveConcurrency = false;
+
+    // 存储服务名称与其并发限制之间的映射关系
+    private Map<String, ConcurrencyLimiter> limiterMap = new HashMap<>();
+
+    // 是否将指标（见 RpcMetrics）注册到 JMX
+    private boolean jmxEnabled = true;
+
+    // 接受的请求序列化方式名称（逗号分隔，服务通过 @RpcService 指定的序列化方式自动加入），请求使用其他序列化方式时断开连接
+    private String serializers = "protostuff,kryo";
+
+    // 已绑定的监听通道（close 时关闭这些通道，afterPropertiesSet 随之返回并释放线程）
+    private final List<Channel> serverChannels = new CopyOnWriteArrayList<>();
+
     public RpcServer(String serviceAddress) {
         this.serviceAddress = serviceAddress;
     }
@@ -53,6 +137,74 @@ public class RpcServer implements ApplicationContextAware, InitializingBean {
         this.serviceRegistry = serviceRegistry;
     }
 
+    public void setWeight(int weight) {
+        this.weight = weight;
+    }
+
+    public void setZone(String zone) {
+        this.zone = zone;
+    }
+
+    public void setKeepAlive(boolean keepAlive) {
+        this.keepAlive = keepAlive;
+    }
+
+    public void setReaderIdleTime(int readerIdleTime) {
+        this.readerIdleTime = readerIdleTime;
+    }
+
+    public void setMaxConnections(int maxConnections) {
+        this.maxConnections = maxConnections;
+    }
+
+    public void setExecutorType(ExecutorType executorType) {
+        this.executorType = executorType;
+    }
+
+    public void setExecutorThreads(int executorThreads) {
+        this.executorThreads = executorThreads;
+    }
+
+    public void setExecutorQueueSize(int executorQueueSize) {
+        this.executorQueueSize = executorQueueSize;
+    }
+
+    public void setNativeTransport(boolean nativeTransport) {
+        this.nativeTransport = nativeTransport;
+    }
+
+    public void setBossThreads(int bossThreads) {
+        this.bossThreads = bossThreads;
+    }
+
+    public void setWorkerThreads(int workerThreads) {
+        this.workerThreads = workerThreads;
+    }
+
+    public void setReusePort(boolean reusePort) {
+        this.reusePort = reusePort;
+    }
+
+    public void setAcceptorCount(int acceptorCount) {
+        this.acceptorCount = acceptorCount;
+    }
+
+    public void setCompressThreshold(int compressThreshold) {
+        this.compressThreshold = compressThreshold;
+    }
+
+    public void setAdaptiveConcurrency(boolean adaptiveConcurrency) {
+        this.adaptiveConcurrency = adaptiveConcurrency;
+    }
+
+    public void setJmxEnabled(boolean jmxEnabled) {
+        this.jmxEnabled = jmxEnabled;
+    }
+
+    public void setSerializers(String serializers) {
+        this.serializers = serializers;
+    }
+
     /**
      * Spring 容器在加载的时候会自动调用一次 setApplicationContext, 并将上下文 ApplicationContext 传递给这个方法
      * 该方法的作用就是获取带有 @RpcSerivce 注解的类的 value (被暴露的实现类的接口名称) 和 version (被暴露的实现类的版本号，默认为 “”)
@@ -74,8 +226,38 @@ public class RpcServer implements ApplicationContextAware, InitializingBean {
                    if(!StringUtils.isEmpty(serviceVersion)){
                        serviceName = serviceName + "-" + serviceVersion;
                    }
+               } else {
+                   serviceVersion = "";
                }
                handlerMap.put(serviceName, serviceBean);
+               // 服务指定的响应序列化方式
+               byte serializer = 0;
+               if (!StringUtils.isEmpty(rpcService.serializer())) {
+                   try {
+                       serializer = Serializers.get(rpcService.serializer()).getId();
+                   } catch (IllegalArgumentException e) {
+                       throw new FatalBeanException(String.format("invalid serializer of service: %s", serviceName), e);
+                   }
+               }
+               // 服务的并发限制：固定上限优先，否则按配置使用自适应上限
+               ConcurrencyLimiter limiter = null;
+               if (rpcService.maxConcurrency() > 0) {
+                   limiter = new FixedConcurrencyLimiter(rpcService.maxConcurrency());
+               } else if (adaptiveConcurrency) {
+                   limiter = new GradientConcurrencyLimiter();
+               }
+               if (limiter != null) {
+                   limiterMap.put(serviceName, limiter);
+               }
+               // 预先创建服务方法调用器，处理请求时不再做反射查找
+               try {
+                   int serviceCompressThreshold = rpcService.compressThreshold() >= 0 ? rpcService.compressThreshold() : compressThreshold;
+                   invokerTable.register(rpcService.interfaceName(), serviceVersion, serviceName, serviceBean, serializer,
+                           serviceCompressThreshold, limiter);
+               } catch (IllegalAccessException e) {
+                   throw new FatalBeanException(String.format("can not access methods of service: %s", serviceName), e);
+               }
+               serviceThreadsMap.put(serviceName, rpcService.executorThreads());
            }
         }
     }
@@ -84,46 +266,168 @@ public class RpcServer implements ApplicationContextAware, InitializingBean {
      * 在初始化 Bean 的时候会自动执行该方法
      * 该方法的目标就是启动 Netty 服务器进行服务端和客户端的通信，接收并处理客户端发来的请求,
      * 并且还要将服务名称和服务地址注册进 Zookeeper（注册中心）
+     * 预热完成并绑定端口之后才注册服务，客户端发现新节点时它已经可以立即处理请求
      * @throws Exception
      */
     @Override
     public void afterPropertiesSet() throws Exception {
-        NioEventLoopGroup bossGroup = new NioEventLoopGroup();
-        NioEventLoopGroup workerGroup = new NioEventLoopGroup();
+        warmup();
+        Map<Byte, String> acceptedSerializers = acceptedSerializers();
+        EventLoopGroup bossGroup = NettyTransport.newEventLoopGroup(bossThreads, nativeTransport, "rpc-boss");
+        EventLoopGroup workerGroup = NettyTransport.newEventLoopGroup(workerThreads, nativeTransport, "rpc-worker");
+        ConnectionLimitHandler connectionLimitHandler = new ConnectionLimitHandler(maxConnections);
+        TransportMetrics transportMetrics = RpcMetrics.getDefault().transport(RpcMetrics.Side.SERVER);
+        if (jmxEnabled) {
+            RpcMetrics.getDefault().enableJmx();
+        }
+        ServiceExecutors serviceExecutors = new ServiceExecutors(executorType, executorThreads, executorQueueSize, serviceThreadsMap);
+        List<String> gaugeNames = new ArrayList<>();
+        for (Map.Entry<String, ConcurrencyLimiter> entry : limiterMap.entrySet()) {
+            ConcurrencyLimiter limiter = entry.getValue();
+            String prefix = "server.limit." + entry.getKey();
+            RpcMetrics.getDefault().registerGauge(prefix + ".limit", limiter::getLimit);
+            RpcMetrics.getDefault().registerGauge(prefix + ".inFlight", limiter::getInFlight);
+            RpcMetrics.getDefault().registerGauge(prefix + ".rejected", limiter::getRejected);
+            Collections.addAll(gaugeNames, prefix + ".limit", prefix + ".inFlight", prefix + ".rejected");
+        }
         try {
             ServerBootstrap serverBootstrap = new ServerBootstrap();
             serverBootstrap.group(bossGroup, workerGroup);
-            serverBootstrap.channel(NioServerSocketChannel.class);
+            serverBootstrap.channel(NettyTransport.serverChannelClass(bossGroup));
             serverBootstrap.childOption(ChannelOption.SO_KEEPALIVE, true);
             serverBootstrap.childHandler(new ChannelInitializer<SocketChannel>() {
                 @Override
                 protected void initChannel(SocketChannel socketChannel) throws Exception {
                     ChannelPipeline pipeline = socketChannel.pipeline();
-                    pipeline.addLast(new RpcDecoder(RpcRequest.class)); // 解码器
-                    pipeline.addLast(new RpcEncoder(RpcResponse.class)); // 编码器
-                    pipeline.addLast(new RpcServerHandler(handlerMap)); // 处理 RPC 请求
+                    pipeline.addLast(connectionLimitHandler); // 限制连接数
+                    // 同一轮事件循环中的多次 flush 合并为一次（业务线程写入的响应也会被合并）
+                    pipeline.addLast(new FlushConsolidationHandler(FlushConsolidationHandler.DEFAULT_EXPLICIT_FLUSH_AFTER_FLUSHES, true));
+                    pipeline.addLast(new IdleStateHandler(readerIdleTime, 0, 0)); // 空闲连接检测
+                    pipeline.addLast(new RpcDecoder(true, transportMetrics, acceptedSerializers.keySet())); // 解码器（兼容旧版协议的请求）
+                    pipeline.addLast(new RpcEncoder(transportMetrics)); // 编码器
+                    pipeline.addLast(new RpcServerHandler(invokerTable, serviceExecutors, keepAlive)); // 处理 RPC 请求
                 }
             });
             // 获取服务地址/端口号，建立连接
             String[] addressArray = StringUtils.split(serviceAddress, ":");
             String ip = addressArray[0];
             int port = Integer.parseInt(addressArray[1]);
-            ChannelFuture future = serverBootstrap.bind(ip, port).sync();
+            // 开启 SO_REUSEPORT 时多次绑定同一端口，每个监听通道由一个 boss 线程负责接收连接
+            int acceptors = 1;
+            if (reusePort) {
+                if (NettyTransport.isEpoll(bossGroup)) {
+                    serverBootstrap.option(EpollChannelOption.SO_REUSEPORT, true);
+                    // bossThreads 为 0 时线程数由 Netty 决定，以实际的线程数为准，至少绑定一次
+                    acceptors = Math.max(1, acceptorCount > 0 ? acceptorCount : ((MultithreadEventLoopGroup) bossGroup).executorCount());
+                } else {
+                    LOGGER.warn("SO_REUSEPORT requires native epoll transport, bind only once");
+                }
+            }
+            List<ChannelFuture> futures = new ArrayList<>(acceptors);
+            for (int i = 0; i < acceptors; i++) {
+                ChannelFuture future = serverBootstrap.bind(ip, port).sync();
+                serverChannels.add(future.channel());
+                futures.add(future);
+            }
 
-            // 注册服务
-            if (serviceRegistry != null) {
-               for (String interfaceName : handlerMap.keySet()) {
-                   serviceRegistry.register(interfaceName, serviceAddress);
-                   LOGGER.info("register service: {} => {}", interfaceName, serviceAddress);
-               }
+            // 注册服务（一次批量注册所有服务）
+            if (serviceRegistry != null && !handlerMap.isEmpty()) {
+               serviceRegistry.registerAll(serviceInstances(acceptedSerializers.values()));
+               LOGGER.info("register services: {} => {}", handlerMap.keySet(), serviceAddress);
             }
-            LOGGER.info("server started on port {}", port);
+            LOGGER.info("server started on port {} ({} transport, {} acceptors)", port,
+                    NettyTransport.isEpoll(bossGroup) ? "epoll" : "nio", acceptors);
 
             // 关闭 RPC 服务器
-            future.channel().closeFuture().sync();
+            for (ChannelFuture future : futures) {
+                future.channel().closeFuture().sync();
+            }
         } finally {
             workerGroup.shutdownGracefully();
             bossGroup.shutdownGracefully();
+            serviceExecutors.shutdown();
+            for (String gaugeName : gaugeNames) {
+                RpcMetrics.getDefault().removeGauge(gaugeName);
+            }
+        }
+    }
+
+    /**
+     * 预热：预先准备消息以及所有服务方法的参数与返回值类型的序列化信息（服务方法调用器已在 setApplicationContext 中创建）
+     */
+    private void warmup() {
+        long startNanos = System.nanoTime();
+        Serializers.prepare(RpcRequest.class, RpcResponse.class, RpcHandshake.class);
+        int types = 0;
+        for (ServiceInvoker invoker : invokerTable.getInvokers()) {
+            types += Serializers.prepare(invoker.getMethod());
+        }
+        LOGGER.info("warmed up {} methods ({} types) in {}ms", invokerTable.getInvokers().size(), types,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+    }
+
+    /**
+     * 接受的请求序列化方式：serializers 中配置的以及服务指定的序列化方式
+     * @return 序列化方式编号与名称之间的映射关系
+     */
+    private Map<Byte, String> acceptedSerializers() {
+        Map<Byte, String> accepted = new TreeMap<>();
+        for (String name : StringUtils.split(serializers, ", ")) {
+            Serializer serializer;
+            try {
+                serializer = Serializers.get(name);
+            } catch (IllegalArgumentException e) {
+                throw new IllegalStateException(String.format("invalid serializer of server: %s", name), e);
+            }
+            accepted.put(serializer.getId(), serializer.getName());
+        }
+        for (ServiceInvoker invoker : invokerTable.getInvokers()) {
+            if (invoker.getSerializer() > 0) {
+                accepted.put(invoker.getSerializer(), Serializers.get(invoker.getSerializer()).getName());
+            }
+        }
+        if (accepted.isEmpty()) {
+            throw new IllegalStateException("no serializer is accepted by server");
+        }
+        LOGGER.info("accepted serializers: {}", accepted.values());
+        return accepted;
+    }
+
+    /**
+     * 为每个服务生成注册到注册中心的服务实例（地址、权重，以及支持的序列化方式、协议版本、区域和该服务的方法编号等元数据）
+     * 注册时间由注册中心在注册时记录
+     * @param serializerNames 接受的序列化方式名称
+     * @return
+     */
+    private Map<String, ServiceInstance> serviceInstances(Collection<String> serializerNames) {
+        Map<String, Map<String, Integer>> serviceMethodIds = new HashMap<>();
+        for (Map.Entry<String, Integer> entry : invokerTable.getMethodIds().entrySet()) {
+            String serviceName = invokerTable.get(entry.getValue()).getServiceName();
+            serviceMethodIds.computeIfAbsent(serviceName, key -> new TreeMap<>()).put(entry.getKey(), entry.getValue());
+        }
+        String supportedSerializers = String.join(",", serializerNames);
+        Map<String, ServiceInstance> instances = new LinkedHashMap<>();
+        for (String serviceName : handlerMap.keySet()) {
+            Map<String, String> metadata = new LinkedHashMap<>();
+            metadata.put(ServiceInstance.SERIALIZERS, supportedSerializers);
+            metadata.put(ServiceInstance.PROTOCOL, String.valueOf(RpcProtocol.VERSION));
+            if (StringUtils.isNotEmpty(zone)) {
+                metadata.put(ServiceInstance.ZONE, zone);
+            }
+            metadata.put(ServiceInstance.METHODS, ServiceInstance.encodeMethodIds(
+                    serviceMethodIds.getOrDefault(serviceName, Collections.emptyMap())));
+            instances.put(serviceName, new ServiceInstance(serviceAddress, weight, 0, metadata));
+        }
+        return instances;
+    }
+
+    /**
+     * 关闭 RPC 服务器（关闭所有监听通道，afterPropertiesSet 中阻塞的线程随之释放所有资源）
+     */
+    public void close() {
+        for (Channel channel : serverChannels) {
+            channel.close();
         }
+        serverChannels.clear();
     }
 }
@@ -1,51 +1,482 @@
 package com.cswiki.rpc.server;
 
+import com.cswiki.codec.LegacyProtocol;
+import com.cswiki.codec.RpcProtocol;
+import com.cswiki.context.RpcContext;
+import com.cswiki.entity.RpcAttachments;
+import com.cswiki.entity.RpcBatch;
+import com.cswiki.entity.RpcDecodeFailure;
+import com.cswiki.entity.RpcHandshake;
+import com.cswiki.entity.RpcMessage;
 import com.cswiki.entity.RpcRequest;
 import com.cswiki.entity.RpcResponse;
-import io.netty.channel.ChannelFutureListener;
+import com.cswiki.entity.RpcStreamCredit;
+import com.cswiki.exception.RpcOverloadedException;
+import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.handler.codec.EncoderException;
+import io.netty.handler.timeout.IdleState;
+import io.netty.handler.timeout.IdleStateEvent;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.util.StringUtils;
 
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.BaseStream;
 
 /**
  * RPC 服务端处理器，接收请求并响应
  */
-public class RpcServerHandler extends SimpleChannelInboundHandler<RpcRequest> {
+public class RpcServerHandler extends SimpleChannelInboundHandler<RpcMessage> {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(RpcServerHandler.class);
 
-    // 存储服务名称及服务对象之间的映射关系
-    private final Map<String, Object> handlerMap;
+    // 服务方法调用器表（启动时构建）
+    private final ServiceInvokerTable invokerTable;
 
-    public RpcServerHandler(Map<String, Object> handlerMap) {
-        this.handlerMap = handlerMap;
+    // 执行业务方法的线程池（为 null 时直接在 I/O 线程中执行）
+    private final ServiceExecutors serviceExecutors;
+
+    // 是否保持连接（为 false 时每次响应后关闭连接）
+    private final boolean keepAlive;
+
+    // 存储 requestId 与这条连接上进行中的流式响应之间的映射关系
+    private final Map<Long, ServerStream> streams = new ConcurrentHashMap<>();
+
+    // 存储 requestId 与这条连接上在业务线程池中排队的可取消请求（见 RpcAttachments.CANCELLABLE）之间的映射关系
+    private final Map<Long, RpcRequest> cancellableRequests = new ConcurrentHashMap<>();
+
+    public RpcServerHandler(ServiceInvokerTable invokerTable) {
+        this(invokerTable, null, true);
+    }
+
+    public RpcServerHandler(ServiceInvokerTable invokerTable, ServiceExecutors serviceExecutors, boolean keepAlive) {
+        this.invokerTable = invokerTable;
+        this.serviceExecutors = serviceExecutors;
+        this.keepAlive = keepAlive;
     }
 
     /**
-     * 处理/响应客户端的请求消息
+     * 处理客户端发送的消息（心跳消息只用于刷新连接的空闲时间，不需要响应）
      * @param channelHandlerContext
-     * @param rpcRequest
+     * @param message
      * @throws Exception
      */
     @Override
-    protected void channelRead0(ChannelHandlerContext channelHandlerContext, RpcRequest rpcRequest) throws Exception {
+    protected void channelRead0(ChannelHandlerContext channelHandlerContext, RpcMessage message) throws Exception {
+        if (message instanceof RpcRequest) {
+            handleRequest(channelHandlerContext, (RpcRequest) message, null);
+        } else if (message instanceof RpcBatch) {
+            // 批量请求：逐个处理，每个请求完成后立即写出它的响应
+            List<RpcMessage> requests = ((RpcBatch) message).getMessages();
+            BatchProgress batch = new BatchProgress(requests.size());
+            for (RpcMessage request : requests) {
+                if (request instanceof RpcRequest) {
+                    handleRequest(channelHandlerContext, (RpcRequest) request, batch);
+                } else if (request instanceof RpcDecodeFailure) {
+                    handleDecodeFailure(channelHandlerContext, (RpcDecodeFailure) request, batch);
+                } else {
+                    skipResponse(channelHandlerContext, batch);
+                }
+            }
+        } else if (message instanceof RpcDecodeFailure) {
+            handleDecodeFailure(channelHandlerContext, (RpcDecodeFailure) message, null);
+        } else if (message instanceof RpcStreamCredit) {
+            // 客户端授予流式响应新的信用，或取消流式响应（或尚未执行的普通请求）
+            RpcStreamCredit credit = (RpcStreamCredit) message;
+            ServerStream stream = streams.get(credit.getRequestId());
+            if (stream == null) {
+                RpcRequest cancelled = credit.isCancel() ? cancellableRequests.get(credit.getRequestId()) : null;
+                if (cancelled != null) {
+                    cancelled.setCancelled(true);
+                }
+                return;
+            }
+            if (credit.isCancel()) {
+                stream.cancel();
+            } else {
+                stream.addCredits(credit.getCredits());
+            }
+        } else if (message instanceof RpcHandshake) {
+            writeHandshake(channelHandlerContext, message);
+        }
+    }
+
+    /**
+     * 返回所有方法的编号，之后客户端只需用编号引用方法（不使用握手请求的内容）
+     * @param channelHandlerContext
+     * @param message 握手请求
+     */
+    private void writeHandshake(ChannelHandlerContext channelHandlerContext, RpcMessage message) {
+        RpcHandshake handshake = new RpcHandshake();
+        handshake.setRequestId(message.getRequestId());
+        handshake.setSerializer(message.getSerializer());
+        handshake.setMethodIds(invokerTable.getMethodIds());
+        handshake.setBatchSupported(true);
+        channelHandlerContext.writeAndFlush(handshake);
+    }
+
+    /**
+     * 处理/响应客户端的请求消息
+     * @param channelHandlerContext
+     * @param rpcRequest
+     * @param batch 请求所属的批量请求（单个请求为 null）
+     */
+    private void handleRequest(ChannelHandlerContext channelHandlerContext, RpcRequest rpcRequest, BatchProgress batch) {
+        // 查找服务方法调用器（只有方法编号时按编号查找；同时带有方法标识时，如客户端使用注册中心中可能已经过时的编号，按方法标识查找）
+        ServiceInvoker invoker = rpcRequest.getMethodId() > 0 && rpcRequest.getMethodName() == null
+                ? invokerTable.get(rpcRequest.getMethodId())
+                : invokerTable.lookup(rpcRequest.getInterfaceName(), rpcRequest.getServiceVersion(),
+                        rpcRequest.getMethodName(), rpcRequest.getParameterTypes());
+        if (invoker == null) {
+            writeError(channelHandlerContext, rpcRequest, new RuntimeException(String.format("can not find service method: %s-%s#%s (method id: %d)",
+                    rpcRequest.getInterfaceName(), rpcRequest.getServiceVersion(), rpcRequest.getMethodName(), rpcRequest.getMethodId())), batch);
+            return;
+        }
+        // 耗时从收到请求开始计算（包括在业务线程池中排队的时间）
+        long startNanos = invoker.getMetrics().begin();
+        // 截止时间从解码完请求开始计算
+        if (rpcRequest.getTimeout() > 0) {
+            rpcRequest.setDeadlineNanos(receivedNanos(rpcRequest, startNanos) + TimeUnit.MILLISECONDS.toNanos(rpcRequest.getTimeout()));
+        }
+        // 超过服务的并发上限时立即拒绝（不进入业务线程池排队），客户端会避开过载的服务地址
+        ConcurrencyLimiter limiter = invoker.getLimiter();
+        if (limiter != null && !limiter.tryAcquire()) {
+            LOGGER.debug("server overloaded, reject request of service: {}", invoker.getServiceName());
+            invoker.getMetrics().end(startNanos, false);
+            writeError(channelHandlerContext, rpcRequest, new RpcOverloadedException(String.format(
+                    "server overloaded, concurrency limit %d of service %s reached", limiter.getLimit(), invoker.getServiceName())), batch);
+            return;
+        }
+        Executor executor = serviceExecutors != null ? serviceExecutors.get(invoker.getServiceName()) : null;
+        if (executor == null) {
+            process(channelHandlerContext, invoker, rpcRequest, batch, startNanos);
+            return;
+        }
+        // 将业务方法交给业务线程池执行，避免慢服务阻塞 I/O 线程上的其他连接
+        boolean cancellable = rpcRequest.getAttachment(RpcAttachments.CANCELLABLE) != null;
+        if (cancellable) {
+            cancellableRequests.put(rpcRequest.getRequestId(), rpcRequest);
+        }
+        try {
+            executor.execute(() -> process(channelHandlerContext, invoker, rpcRequest, batch, startNanos));
+        } catch (RejectedExecutionException e) {
+            if (cancellable) {
+                cancellableRequests.remove(rpcRequest.getRequestId(), rpcRequest);
+            }
+            LOGGER.warn("server busy, reject request of service: {}", invoker.getServiceName());
+            invoker.getMetrics().end(startNanos, false);
+            release(invoker, -1, true);
+            writeError(channelHandlerContext, rpcRequest, new RpcOverloadedException(
+                    String.format("server busy, request of service %s rejected", invoker.getServiceName())), batch);
+        }
+    }
+
+    /**
+     * 调用业务方法并写入响应
+     * 执行服务方法期间，当前线程的 RpcContext 中是这个请求携带的附加信息和调用链编号
+     * @param channelHandlerContext
+     * @param invoker
+     * @param rpcRequest
+     * @param batch
+     * @param startNanos 收到请求的时间
+     */
+    private void process(ChannelHandlerContext channelHandlerContext, ServiceInvoker invoker, RpcRequest rpcRequest,
+                         BatchProgress batch, long startNanos) {
+        if (rpcRequest.getAttachment(RpcAttachments.CANCELLABLE) != null) {
+            cancellableRequests.remove(rpcRequest.getRequestId(), rpcRequest);
+            // 请求在排队期间被客户端取消
+            if (rpcRequest.isCancelled()) {
+                LOGGER.debug("drop cancelled request of service: {}", invoker.getServiceName());
+                invoker.getMetrics().expire();
+                release(invoker, -1, false);
+                skipResponse(channelHandlerContext, batch);
+                return;
+            }
+        }
+        // 请求在排队期间已经过期：客户端不会再读取这个响应，不执行服务方法，也不发送响应
+        if (rpcRequest.getDeadlineNanos() != 0 && System.nanoTime() - rpcRequest.getDeadlineNanos() >= 0) {
+            LOGGER.debug("drop expired request of service: {}", invoker.getServiceName());
+            invoker.getMetrics().expire();
+            release(invoker, -1, true);
+            skipResponse(channelHandlerContext, batch);
+            return;
+        }
         RpcResponse rpcResponse = new RpcResponse();
         rpcResponse.setRequestId(rpcRequest.getRequestId());
+        // 默认使用与请求相同的序列化方式，服务指定了序列化方式时使用服务的
+        rpcResponse.setSerializer(invoker.getSerializer() != 0 ? invoker.getSerializer() : rpcRequest.getSerializer());
+        rpcResponse.setCompressThreshold(invoker.getCompressThreshold());
+        long invokeNanos = System.nanoTime();
+        RpcContext rpcContext = RpcContext.enter(rpcRequest.getAttachments(), rpcRequest.getDeadlineNanos());
         try {
-            Object result = handle(rpcRequest); // 核心处理方法 ↓
-            rpcResponse.setResult(result);
-        } catch (Exception e) {
+            Object result = invoker.invoke(rpcRequest.getParameters()); // 核心处理方法
+            // 服务方法返回 CompletionStage 时，等其完成后再写入响应（不阻塞当前线程）
+            if (result instanceof CompletionStage) {
+                ((CompletionStage<?>) result).whenComplete((value, cause) -> {
+                    recordInvokeTiming(rpcRequest, rpcResponse, startNanos, invokeNanos);
+                    if (cause != null) {
+                        LOGGER.error("handle result failure", cause);
+                        rpcResponse.setException(toException(cause));
+                        complete(channelHandlerContext, invoker, rpcRequest, rpcResponse, batch, startNanos);
+                    } else {
+                        writeResult(channelHandlerContext, invoker, rpcRequest, rpcResponse, value, batch, startNanos);
+                    }
+                });
+                return;
+            }
+            recordInvokeTiming(rpcRequest, rpcResponse, startNanos, invokeNanos);
+            writeResult(channelHandlerContext, invoker, rpcRequest, rpcResponse, result, batch, startNanos);
+            return;
+        } catch (Throwable e) {
             LOGGER.error("handle result failure", e);
-            rpcResponse.setException(e);
+            recordInvokeTiming(rpcRequest, rpcResponse, startNanos, invokeNanos);
+            rpcResponse.setException(toException(e));
+        } finally {
+            rpcContext.exit();
+        }
+        complete(channelHandlerContext, invoker, rpcRequest, rpcResponse, batch, startNanos);
+    }
+
+    /**
+     * 请求要求返回各阶段耗时时（见 RpcAttachments.TIMING），在响应中记录排队和执行服务方法的耗时
+     * @param rpcRequest
+     * @param rpcResponse
+     * @param startNanos 收到请求的时间
+     * @param invokeNanos 开始执行服务方法的时间
+     */
+    private static void recordInvokeTiming(RpcRequest rpcRequest, RpcResponse rpcResponse, long startNanos, long invokeNanos) {
+        if (rpcRequest.getAttachment(RpcAttachments.TIMING) == null) {
+            return;
+        }
+        long now = System.nanoTime();
+        Map<String, String> attachments = new HashMap<>();
+        attachments.put(RpcAttachments.SERVER_QUEUE_NANOS, Long.toString(invokeNanos - receivedNanos(rpcRequest, startNanos)));
+        attachments.put(RpcAttachments.SERVER_INVOKE_NANOS, Long.toString(now - invokeNanos));
+        rpcResponse.setAttachments(attachments);
+    }
+
+    /**
+     * @return 解码完请求的时间（旧版协议的请求没有记录时使用 startNanos）
+     */
+    private static long receivedNanos(RpcRequest rpcRequest, long startNanos) {
+        return rpcRequest.getDecodedNanos() != 0 ? rpcRequest.getDecodedNanos() : startNanos;
+    }
+
+    /**
+     * 写入服务方法的返回值
+     * 返回值为 Iterator/Stream 且客户端发起的是流式调用时，以流式响应逐块发送；
+     * 否则（包括旧版客户端）把所有元素收集为列表，作为普通响应返回
+     * @param channelHandlerContext
+     * @param invoker
+     * @param rpcRequest
+     * @param rpcResponse
+     * @param result
+     * @param batch
+     * @param startNanos
+     */
+    private void writeResult(ChannelHandlerContext channelHandlerContext, ServiceInvoker invoker, RpcRequest rpcRequest,
+                             RpcResponse rpcResponse, Object result, BatchProgress batch, long startNanos) {
+        if (result instanceof Iterator || result instanceof BaseStream) {
+            Iterator<?> iterator = result instanceof Iterator ? (Iterator<?>) result : ((BaseStream<?, ?>) result).iterator();
+            AutoCloseable resource = result instanceof AutoCloseable ? (AutoCloseable) result : null;
+            if (rpcRequest.getInitialCredits() > 0 && !LegacyProtocol.isLegacy(channelHandlerContext.channel())) {
+                startStream(channelHandlerContext, invoker, rpcRequest, rpcResponse, iterator, resource, startNanos);
+                return;
+            }
+            try {
+                List<Object> items = new ArrayList<>();
+                iterator.forEachRemaining(items::add);
+                result = items;
+            } catch (Throwable e) {
+                LOGGER.error("handle result failure", e);
+                rpcResponse.setException(toException(e));
+                result = null;
+            } finally {
+                closeQuietly(resource);
+            }
+        }
+        rpcResponse.setResult(result);
+        complete(channelHandlerContext, invoker, rpcRequest, rpcResponse, batch, startNanos);
+    }
+
+    /**
+     * 记录服务方法的指标（以及请求要求返回的总耗时）并写入响应
+     * @param channelHandlerContext
+     * @param invoker
+     * @param rpcRequest
+     * @param rpcResponse
+     * @param batch
+     * @param startNanos
+     */
+    private void complete(ChannelHandlerContext channelHandlerContext, ServiceInvoker invoker, RpcRequest rpcRequest,
+                          RpcResponse rpcResponse, BatchProgress batch, long startNanos) {
+        invoker.getMetrics().end(startNanos, !rpcResponse.hasException());
+        release(invoker, System.nanoTime() - startNanos, false);
+        if (rpcResponse.getAttachments() != null && rpcRequest.getAttachment(RpcAttachments.TIMING) != null) {
+            rpcResponse.getAttachments().put(RpcAttachments.SERVER_TOTAL_NANOS,
+                    Long.toString(System.nanoTime() - receivedNanos(rpcRequest, startNanos)));
         }
-        // 写入 RPC 响应对象并自动关闭连接
-        channelHandlerContext.writeAndFlush(rpcResponse).addListener(ChannelFutureListener.CLOSE);
+        writeResponse(channelHandlerContext, rpcResponse, batch);
+    }
+
+    /**
+     * 释放服务的并发许可
+     * @param invoker
+     * @param rttNanos 请求从收到到完成的耗时（小于 0 表示不作为延迟样本）
+     * @param dropped 请求是否因过载被丢弃
+     */
+    private static void release(ServiceInvoker invoker, long rttNanos, boolean dropped) {
+        ConcurrencyLimiter limiter = invoker.getLimiter();
+        if (limiter != null) {
+            limiter.release(rttNanos, dropped);
+        }
+    }
+
+    /**
+     * 开始流式响应：按客户端的初始信用发送第一批分块，之后每收到新的信用再继续发送
+     * 流式响应的耗时计算到最后一个分块发送（或被取消）为止
+     * 流的持续时间取决于客户端的消费速度，因此开始发送时就释放并发许可（也不作为延迟样本）
+     */
+    private void startStream(ChannelHandlerContext channelHandlerContext, ServiceInvoker invoker, RpcRequest rpcRequest,
+                             RpcResponse rpcResponse, Iterator<?> iterator, AutoCloseable resource, long startNanos) {
+        release(invoker, -1, false);
+        long requestId = rpcRequest.getRequestId();
+        Executor executor = serviceExecutors != null ? serviceExecutors.get(invoker.getServiceName()) : null;
+        ServerStream stream = new ServerStream(channelHandlerContext, requestId, rpcResponse.getSerializer(),
+                rpcResponse.getCompressThreshold(), iterator, resource,
+                executor != null ? executor : channelHandlerContext.executor(), succeeded -> {
+                    invoker.getMetrics().end(startNanos, succeeded);
+                    streams.remove(requestId);
+                    if (!keepAlive) {
+                        channelHandlerContext.close();
+                    }
+                });
+        streams.put(requestId, stream);
+        stream.addCredits(rpcRequest.getInitialCredits());
+    }
+
+    /**
+     * 处理无法反序列化的消息（不影响这条连接上的其他请求）：
+     * 请求（如参数类型不在 Kryo 的白名单中）返回错误响应，握手请求照常响应，其他消息（信用消息）只能丢弃
+     * @param channelHandlerContext
+     * @param failure
+     * @param batch 消息所属的批量请求（单个消息为 null）
+     */
+    private void handleDecodeFailure(ChannelHandlerContext channelHandlerContext, RpcDecodeFailure failure, BatchProgress batch) {
+        LOGGER.warn("can not deserialize message of request {}", failure.getRequestId(), failure.getCause());
+        if (failure.getMessageType() == RpcProtocol.TYPE_REQUEST) {
+            writeError(channelHandlerContext, failure, new IllegalArgumentException(String.format("can not deserialize request: %s",
+                    failure.getCause().getMessage())), batch);
+            return;
+        }
+        if (failure.getMessageType() == RpcProtocol.TYPE_HANDSHAKE) {
+            writeHandshake(channelHandlerContext, failure);
+        }
+        if (batch != null) {
+            skipResponse(channelHandlerContext, batch);
+        }
+    }
+
+    /**
+     * 不调用业务方法，直接返回错误响应
+     * @param channelHandlerContext
+     * @param rpcRequest 请求（或无法反序列化的请求）
+     * @param exception
+     * @param batch
+     */
+    private void writeError(ChannelHandlerContext channelHandlerContext, RpcMessage rpcRequest, Exception exception, BatchProgress batch) {
+        RpcResponse rpcResponse = new RpcResponse();
+        rpcResponse.setRequestId(rpcRequest.getRequestId());
+        rpcResponse.setSerializer(rpcRequest.getSerializer());
+        rpcResponse.setException(exception);
+        writeResponse(channelHandlerContext, rpcResponse, batch);
+    }
+
+    /**
+     * 写入 RPC 响应对象（保持连接时客户端会在这条连接上继续发送请求）
+     * 旧版客户端会等待服务端关闭连接，因此使用旧版协议的连接总是在响应后关闭
+     * 批量请求中的响应同样立即写出（FlushConsolidationHandler 会合并同一轮事件循环中的多次 flush），不保持连接时在最后一个响应之后关闭连接
+     * @param channelHandlerContext
+     * @param rpcResponse
+     * @param batch 请求所属的批量请求（单个请求为 null）
+     */
+    private void writeResponse(ChannelHandlerContext channelHandlerContext, RpcResponse rpcResponse, BatchProgress batch) {
+        ChannelFuture future = channelHandlerContext.writeAndFlush(rpcResponse);
+        if (rpcResponse.getException() == null) {
+            // 结果无法序列化时（如类型不在 Kryo 的白名单中）改为返回异常，客户端不必等到超时
+            future.addListener(f -> {
+                if (!f.isSuccess() && f.cause() instanceof EncoderException && channelHandlerContext.channel().isActive()) {
+                    LOGGER.error("encode response failure", f.cause());
+                    RpcResponse errorResponse = new RpcResponse();
+                    errorResponse.setRequestId(rpcResponse.getRequestId());
+                    errorResponse.setSerializer(rpcResponse.getSerializer());
+                    errorResponse.setException(new IllegalStateException(String.format("can not serialize result: %s",
+                            f.cause().getMessage())));
+                    channelHandlerContext.writeAndFlush(errorResponse);
+                }
+            });
+        }
+        closeIfDone(channelHandlerContext, batch);
+    }
+
+    /**
+     * 不发送这个请求的响应
+     * @param channelHandlerContext
+     * @param batch
+     */
+    private void skipResponse(ChannelHandlerContext channelHandlerContext, BatchProgress batch) {
+        closeIfDone(channelHandlerContext, batch);
+    }
+
+    /**
+     * 不保持连接时，单个请求或批量请求中的所有请求都已完成后关闭连接
+     * 关闭操作提交到 I/O 线程的任务队列，排在此前（包括其他业务线程）写入的响应之后
+     */
+    private void closeIfDone(ChannelHandlerContext channelHandlerContext, BatchProgress batch) {
+        if ((batch == null || batch.complete()) && (!keepAlive || LegacyProtocol.isLegacy(channelHandlerContext.channel()))) {
+            channelHandlerContext.executor().execute(channelHandlerContext::close);
+        }
+    }
+
+
+    /**
+     * 连接在指定时间内没有收到任何数据（包括心跳）时，认为客户端已失效并关闭连接
+     * @param ctx
+     * @param evt
+     * @throws Exception
+     */
+    @Override
+    public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+        if (evt instanceof IdleStateEvent && ((IdleStateEvent) evt).state() == IdleState.READER_IDLE) {
+            LOGGER.info("close idle connection: {}", ctx.channel().remoteAddress());
+            ctx.close();
+            return;
+        }
+        super.userEventTriggered(ctx, evt);
+    }
+
+    /**
+     * 连接断开时取消所有进行中的流式响应
+     * @param ctx
+     * @throws Exception
+     */
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        for (ServerStream stream : streams.values()) {
+            stream.cancel();
+        }
+        super.channelInactive(ctx);
     }
 
     @Override
@@ -54,34 +485,38 @@ public class RpcServerHandler extends SimpleChannelInboundHandler<RpcRequest> {
         ctx.close();
     }
 
+    private static Exception toException(Throwable cause) {
+        return cause instanceof Exception ? (Exception) cause : new RuntimeException(cause);
+    }
+
+    private static void closeQuietly(AutoCloseable resource) {
+        if (resource != null) {
+            try {
+                resource.close();
+            } catch (Exception e) {
+                LOGGER.warn("close result failure", e);
+            }
+        }
+    }
+
     /**
-     * 获取客户端请求的方法和参数，通过反射进行调用）
-     * @param rpcRequest
-     * @return
-     * @throws Exception
+     * 批量请求的进度（各请求可能在不同的业务线程中完成，每个请求的响应在完成时立即写出，不等待批量请求中的其他请求）
      */
-    private Object handle(RpcRequest rpcRequest) throws NoSuchMethodException, InvocationTargetException, IllegalAccessException {
-        String serviceName = rpcRequest.getInterfaceName();
-        String serviceVersion = rpcRequest.getServiceVersion();
-        if(serviceVersion != null){
-            serviceVersion = serviceVersion.trim();
-            if(!StringUtils.isEmpty(serviceVersion)){
-                serviceName += "-" + serviceVersion;
-            }
+    private static class BatchProgress {
+
+        // 尚未完成的请求数
+        private final AtomicInteger remaining;
+
+        BatchProgress(int size) {
+            remaining = new AtomicInteger(size);
+        }
+
+        /**
+         * 完成一个请求
+         * @return 是否是批量请求中最后完成的请求
+         */
+        boolean complete() {
+            return remaining.decrementAndGet() == 0;
         }
-        // 获取服务对象
-        Object serviceBean = handlerMap.get(serviceName);
-        if (serviceBean == null) {
-            throw new RuntimeException(String.format("can not find service bean by key: %s", serviceName));
-        }
-        // 获取反射调用所需的参数
-        Class<?> serviceClass = serviceBean.getClass();
-        String methodName = rpcRequest.getMethodName();
-        Object[] parameters = rpcRequest.getParameters();
-        Class<?>[] parameterTypes = rpcRequest.getParameterTypes();
-        // 通过反射调用客户端请求的方法
-        Method method = serviceClass.getMethod(methodName, parameterTypes);
-        method.setAccessible(true);
-        return method.invoke(serviceBean, parameters);
     }
 }
@@ -21,4 +21,16 @@ public @interface RpcService {
 
     // 服务版本（默认为空）
     String serviceVersion() default "";
+
+    // 服务独占线程池的线程数（仅在 ExecutorType.SERVICE 模式下生效，默认为 0，表示使用 RpcServer 的 executorThreads）
+    int executorThreads() default 0;
+
+    // 响应使用的序列化方式名称，如 "kryo"（默认为空，表示与请求使用相同的序列化方式）
+    String serializer() default "";
+
+    // 响应消息体达到该长度（字节）时压缩后发送（默认为 -1，表示使用 RpcServer 的 compressThreshold；0 表示不压缩）
+    int compressThreshold() default -1;
+
+    // 服务的最大并发请求数，超过时请求被立即拒绝（默认为 0，表示不设固定上限；RpcServer 开启 adaptiveConcurrency 时自动调整上限）
+    int maxConcurrency() default 0;
 }
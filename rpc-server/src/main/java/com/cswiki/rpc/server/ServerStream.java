@@ -0,0 +1,177 @@
+package com.cswiki.rpc.server;
+
+import com.cswiki.entity.RpcStreamChunk;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * 服务端的一个流式响应（服务方法返回的 Iterator/Stream）
+ * 只在有信用时才从迭代器中取出元素并以 RpcStreamChunk 发送，发送的元素总数不会超过客户端授予的信用；
+ * 迭代器可能阻塞（如数据库游标），因此在业务线程池中迭代，同一时刻只有一个线程在迭代
+ */
+class ServerStream {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ServerStream.class);
+
+    // 一个分块最多包含的元素数
+    private static final int MAX_CHUNK_ITEMS = 64;
+
+    private final ChannelHandlerContext channelHandlerContext;
+
+    private final long requestId;
+
+    private final byte serializer;
+
+    private final int compressThreshold;
+
+    private final Iterator<?> iterator;
+
+    // 迭代结束或取消时需要关闭的资源（如 Stream），可以为 null
+    private final AutoCloseable resource;
+
+    // 迭代所在的线程池
+    private final Executor executor;
+
+    // 流结束时的回调（从连接的流表中移除，必要时关闭连接），参数为是否正常结束（迭代出错时为 false）
+    private final Consumer<Boolean> onFinish;
+
+    // 剩余的信用（还可以发送的元素数）
+    private final AtomicLong credits = new AtomicLong();
+
+    // 待处理的发送任务数（保证同一时刻只有一个线程在迭代）
+    private final AtomicInteger wip = new AtomicInteger();
+
+    private final AtomicBoolean finished = new AtomicBoolean();
+
+    private volatile boolean cancelled;
+
+    // 提交发送任务被线程池拒绝时的异常，由正在迭代（或随后获得 wip）的线程发送最后一个分块并结束这个流
+    private volatile RejectedExecutionException aborted;
+
+    ServerStream(ChannelHandlerContext channelHandlerContext, long requestId, byte serializer, int compressThreshold,
+                 Iterator<?> iterator, AutoCloseable resource, Executor executor, Consumer<Boolean> onFinish) {
+        this.channelHandlerContext = channelHandlerContext;
+        this.requestId = requestId;
+        this.serializer = serializer;
+        this.compressThreshold = compressThreshold;
+        this.iterator = iterator;
+        this.resource = resource;
+        this.executor = executor;
+        this.onFinish = onFinish;
+    }
+
+    /**
+     * 客户端授予了新的信用
+     * @param newCredits
+     */
+    void addCredits(int newCredits) {
+        credits.addAndGet(newCredits);
+        schedule();
+    }
+
+    /**
+     * 客户端取消或连接断开
+     */
+    void cancel() {
+        cancelled = true;
+        schedule();
+    }
+
+    private void schedule() {
+        try {
+            executor.execute(this::drain);
+        } catch (RejectedExecutionException e) {
+            // 线程池已满时结束这个流，避免信用丢失后流永远挂起
+            // 其他线程正在迭代时由它结束（不能在迭代的同时关闭资源，也不能在最后一个分块之后再发送分块），否则在当前线程中结束
+            LOGGER.warn("server busy, abort stream: {}", requestId);
+            aborted = e;
+            drain();
+        }
+    }
+
+    /**
+     * 在有信用时持续发送分块，直到信用耗尽、迭代结束、被取消或被中止（见 schedule）
+     * 只有获得 wip 的线程迭代、发送分块和结束这个流
+     */
+    private void drain() {
+        if (wip.getAndIncrement() != 0) {
+            return;
+        }
+        int missed = 1;
+        do {
+            while (!finished.get()) {
+                if (cancelled) {
+                    finish(true);
+                    break;
+                }
+                RejectedExecutionException abortCause = aborted;
+                if (abortCause != null) {
+                    writeChunk(new ArrayList<>(), true, abortCause);
+                    finish(false);
+                    break;
+                }
+                long available = credits.get();
+                if (available <= 0) {
+                    break;
+                }
+                int size = (int) Math.min(available, MAX_CHUNK_ITEMS);
+                List<Object> items = new ArrayList<>(size);
+                boolean last;
+                Exception exception = null;
+                try {
+                    while (items.size() < size && iterator.hasNext()) {
+                        items.add(iterator.next());
+                    }
+                    last = !iterator.hasNext();
+                } catch (Throwable e) {
+                    LOGGER.error("iterate stream failure", e);
+                    exception = e instanceof Exception ? (Exception) e : new RuntimeException(e);
+                    last = true;
+                }
+                credits.addAndGet(-items.size());
+                writeChunk(items, last, exception);
+                if (last) {
+                    finish(exception == null);
+                }
+            }
+            missed = wip.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    private void writeChunk(List<Object> items, boolean last, Exception exception) {
+        RpcStreamChunk chunk = new RpcStreamChunk();
+        chunk.setRequestId(requestId);
+        chunk.setSerializer(serializer);
+        chunk.setCompressThreshold(compressThreshold);
+        chunk.setItems(items);
+        chunk.setLast(last);
+        chunk.setException(exception);
+        channelHandlerContext.writeAndFlush(chunk).addListener(ChannelFutureListener.FIRE_EXCEPTION_ON_FAILURE);
+    }
+
+    private void finish(boolean succeeded) {
+        if (!finished.compareAndSet(false, true)) {
+            return;
+        }
+        if (resource != null) {
+            try {
+                resource.close();
+            } catch (Exception e) {
+                LOGGER.warn("close stream failure", e);
+            }
+        }
+        onFinish.accept(succeeded);
+    }
+}
@@ -0,0 +1,120 @@
+package com.cswiki.rpc.server;
+
+import com.cswiki.metrics.RpcMetrics;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * 管理服务端执行业务方法的线程池
+ * 线程池满时 execute 会抛出 RejectedExecutionException，由 RpcServerHandler 转换为错误响应返回给客户端
+ * 每个线程池的队列长度和活跃线程数注册为瞬时值（server.executor.<线程池名称>.queue/active，见 RpcMetrics）
+ */
+public class ServiceExecutors {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ServiceExecutors.class);
+
+    private final ExecutorType executorType;
+
+    // 共享线程池（SHARED/VIRTUAL 模式）
+    private final ExecutorService sharedExecutor;
+
+    // 服务名称与其独占线程池之间的映射关系（SERVICE 模式），启动后只读
+    private final Map<String, ExecutorService> serviceExecutorMap = new HashMap<>();
+
+    // 注册到 RpcMetrics 的瞬时值名称，关闭时移除
+    private final List<String> gaugeNames = new ArrayList<>();
+
+    /**
+     * @param executorType 线程模型
+     * @param threads 线程池的线程数
+     * @param queueSize 线程池的任务队列长度
+     * @param serviceThreads 服务名称与该服务独占的线程数（为 0 时使用 threads），仅 SERVICE 模式使用
+     */
+    public ServiceExecutors(ExecutorType executorType, int threads, int queueSize, Map<String, Integer> serviceThreads) {
+        ExecutorService virtualExecutor = executorType == ExecutorType.VIRTUAL ? newVirtualThreadExecutor() : null;
+        if (executorType == ExecutorType.VIRTUAL && virtualExecutor == null) {
+            LOGGER.warn("virtual threads are not supported by this JVM, fall back to {}", ExecutorType.SHARED);
+            executorType = ExecutorType.SHARED;
+        }
+        this.executorType = executorType;
+        switch (executorType) {
+            case SHARED:
+                sharedExecutor = newThreadPool("rpc-business", threads, queueSize);
+                break;
+            case VIRTUAL:
+                sharedExecutor = virtualExecutor;
+                break;
+            case SERVICE:
+                sharedExecutor = null;
+                for (Map.Entry<String, Integer> entry : serviceThreads.entrySet()) {
+                    int serviceThreadCount = entry.getValue() > 0 ? entry.getValue() : threads;
+                    serviceExecutorMap.put(entry.getKey(), newThreadPool("rpc-" + entry.getKey(), serviceThreadCount, queueSize));
+                }
+                break;
+            default:
+                sharedExecutor = null;
+        }
+    }
+
+    /**
+     * 获取执行该服务的线程池
+     * @param serviceName 服务名称
+     * @return DIRECT 模式（或者找不到服务的独占线程池）时返回 null，表示直接在 I/O 线程中执行
+     */
+    public Executor get(String serviceName) {
+        if (executorType == ExecutorType.SERVICE) {
+            return serviceExecutorMap.get(serviceName);
+        }
+        return sharedExecutor;
+    }
+
+    public void shutdown() {
+        if (sharedExecutor != null) {
+            sharedExecutor.shutdown();
+        }
+        for (ExecutorService executorService : serviceExecutorMap.values()) {
+            executorService.shutdown();
+        }
+        for (String gaugeName : gaugeNames) {
+            RpcMetrics.getDefault().removeGauge(gaugeName);
+        }
+    }
+
+    private ExecutorService newThreadPool(String name, int threads, int queueSize) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueSize), new DefaultThreadFactory(name, true), new ThreadPoolExecutor.AbortPolicy());
+        registerGauge("server.executor." + name + ".queue", () -> executor.getQueue().size());
+        registerGauge("server.executor." + name + ".active", executor::getActiveCount);
+        return executor;
+    }
+
+    private void registerGauge(String name, LongSupplier supplier) {
+        RpcMetrics.getDefault().registerGauge(name, supplier);
+        gaugeNames.add(name);
+    }
+
+    /**
+     * 通过反射创建虚拟线程执行器（编译目标为 Java 8，不能直接引用 JDK 21 的 API）
+     * @return 当前 JVM 不支持虚拟线程时返回 null
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.cswiki.rpc.server;
+
+import com.cswiki.metrics.MethodMetrics;
+import com.cswiki.metrics.RpcMetrics;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+
+/**
+ * 服务方法调用器（启动时为每个服务方法创建一次）
+ * 将服务对象与方法句柄绑定，并转换为统一的 (Object[]) -> Object 形式，调用时无需再查找方法或检查访问权限
+ */
+public class ServiceInvoker {
+
+    private static final Object[] EMPTY_PARAMETERS = new Object[0];
+
+    private final String serviceName; // 服务名称（接口名称-版本号）
+
+    private final Method method; // 被暴露的接口方法
+
+    private final Class<?>[] parameterTypes; // 参数类型（Method.getParameterTypes 每次调用都会复制数组）
+
+    private final MethodHandle methodHandle; // 已绑定服务对象的方法句柄
+
+    private final byte serializer; // 响应使用的序列化方式编号（0 表示与请求相同）
+
+    private final int compressThreshold; // 响应的压缩阈值（小于等于 0 表示不压缩）
+
+    private final MethodMetrics metrics; // 该方法在服务端的指标
+
+    private final ConcurrencyLimiter limiter; // 服务的并发限制（为 null 时不限制）
+
+    public ServiceInvoker(String serviceName, Object serviceBean, Method method) throws IllegalAccessException {
+        this(serviceName, serviceBean, method, (byte) 0, 0, RpcMetrics.getDefault().methodMetrics(
+                RpcMetrics.Side.SERVER, method.getDeclaringClass().getName(), "", method.getName()));
+    }
+
+    public ServiceInvoker(String serviceName, Object serviceBean, Method method, byte serializer, int compressThreshold,
+                          MethodMetrics metrics) throws IllegalAccessException {
+        this(serviceName, serviceBean, method, serializer, compressThreshold, metrics, null);
+    }
+
+    public ServiceInvoker(String serviceName, Object serviceBean, Method method, byte serializer, int compressThreshold,
+                          MethodMetrics metrics, ConcurrencyLimiter limiter) throws IllegalAccessException {
+        this.serviceName = serviceName;
+        this.method = method;
+        this.serializer = serializer;
+        this.compressThreshold = compressThreshold;
+        this.metrics = metrics;
+        this.limiter = limiter;
+        this.parameterTypes = method.getParameterTypes();
+        method.setAccessible(true);
+        this.methodHandle = MethodHandles.lookup().unreflect(method)
+                .bindTo(serviceBean)
+                .asSpreader(Object[].class, method.getParameterCount())
+                .asType(MethodType.methodType(Object.class, Object[].class));
+    }
+
+    /**
+     * 调用服务方法（服务方法抛出的异常会原样抛出）
+     * @param parameters
+     * @return
+     * @throws Throwable
+     */
+    public Object invoke(Object[] parameters) throws Throwable {
+        return (Object) methodHandle.invokeExact(parameters != null ? parameters : EMPTY_PARAMETERS);
+    }
+
+    public String getServiceName() {
+        return serviceName;
+    }
+
+    public Method getMethod() {
+        return method;
+    }
+
+    public Class<?>[] getParameterTypes() {
+        return parameterTypes;
+    }
+
+    public byte getSerializer() {
+        return serializer;
+    }
+
+    public int getCompressThreshold() {
+        return compressThreshold;
+    }
+
+    public MethodMetrics getMetrics() {
+        return metrics;
+    }
+
+    public ConcurrencyLimiter getLimiter() {
+        return limiter;
+    }
+}
@@ -0,0 +1,118 @@
+package com.cswiki.rpc.server;
+
+import com.cswiki.entity.RpcHandshake;
+import com.cswiki.metrics.RpcMetrics;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 服务方法调用器表（启动时构建，之后只读）
+ * 按 接口名称 -> 版本号 -> 方法名称 -> 重载方法 逐级查找，查找过程不拼接字符串，也不做反射查找
+ * 每个调用器还有一个编号（从 1 开始），握手后客户端可以直接用编号引用方法，查找只需一次数组访问
+ */
+public class ServiceInvokerTable {
+
+    private static final ServiceInvoker[] NO_INVOKERS = new ServiceInvoker[0];
+
+    // 接口名称 -> 版本号（无版本为 ""）-> 方法名称 -> 同名的重载方法
+    private final Map<String, Map<String, Map<String, ServiceInvoker[]>>> invokerMap = new HashMap<>();
+
+    // 按编号存放的调用器（下标 0 不使用）
+    private final List<ServiceInvoker> invokerList = new ArrayList<>(Collections.singletonList(null));
+
+    // 方法标识（见 RpcHandshake.methodKey）与方法编号之间的映射关系，握手时发送给客户端
+    private final Map<String, Integer> methodIds = new HashMap<>();
+
+    /**
+     * 为服务接口的所有方法创建调用器
+     * @param interfaceClass 服务接口
+     * @param serviceVersion 服务版本（已去除首尾空白，无版本为 ""）
+     * @param serviceName 服务名称（接口名称-版本号）
+     * @param serviceBean 服务对象
+     * @param serializer 响应使用的序列化方式编号（0 表示与请求相同）
+     * @param compressThreshold 响应的压缩阈值（小于等于 0 表示不压缩）
+     * @param limiter 服务的并发限制（为 null 时不限制）
+     * @throws IllegalAccessException
+     */
+    public void register(Class<?> interfaceClass, String serviceVersion, String serviceName, Object serviceBean,
+                         byte serializer, int compressThreshold, ConcurrencyLimiter limiter) throws IllegalAccessException {
+        Map<String, ServiceInvoker[]> methodMap = invokerMap
+                .computeIfAbsent(interfaceClass.getName(), key -> new HashMap<>())
+                .computeIfAbsent(serviceVersion, key -> new HashMap<>());
+        for (Method method : interfaceClass.getMethods()) {
+            ServiceInvoker[] invokers = methodMap.getOrDefault(method.getName(), NO_INVOKERS);
+            invokers = Arrays.copyOf(invokers, invokers.length + 1);
+            ServiceInvoker invoker = new ServiceInvoker(serviceName, serviceBean, method, serializer, compressThreshold,
+                    RpcMetrics.getDefault().methodMetrics(RpcMetrics.Side.SERVER, interfaceClass.getName(), serviceVersion, method.getName()),
+                    limiter);
+            invokers[invokers.length - 1] = invoker;
+            methodMap.put(method.getName(), invokers);
+            methodIds.put(RpcHandshake.methodKey(interfaceClass.getName(), serviceVersion, method.getName(), invoker.getParameterTypes()), invokerList.size());
+            invokerList.add(invoker);
+        }
+    }
+
+    /**
+     * 根据方法编号查找服务方法调用器
+     * @param methodId
+     * @return 编号无效时返回 null
+     */
+    public ServiceInvoker get(int methodId) {
+        return methodId > 0 && methodId < invokerList.size() ? invokerList.get(methodId) : null;
+    }
+
+    /**
+     * 所有服务方法调用器（按编号排列）
+     * @return
+     */
+    public List<ServiceInvoker> getInvokers() {
+        return invokerList.subList(1, invokerList.size());
+    }
+
+    public Map<String, Integer> getMethodIds() {
+        return methodIds;
+    }
+
+    /**
+     * 查找服务方法调用器
+     * @param interfaceName 接口名称
+     * @param serviceVersion 服务版本
+     * @param methodName 方法名称
+     * @param parameterTypes 参数类型
+     * @return 找不到服务或方法时返回 null
+     */
+    public ServiceInvoker lookup(String interfaceName, String serviceVersion, String methodName, Class<?>[] parameterTypes) {
+        Map<String, Map<String, ServiceInvoker[]>> versionMap = invokerMap.get(interfaceName);
+        if (versionMap == null) {
+            return null;
+        }
+        Map<String, ServiceInvoker[]> methodMap = versionMap.get(serviceVersion == null ? "" : serviceVersion.trim());
+        if (methodMap == null) {
+            return null;
+        }
+        ServiceInvoker[] invokers = methodMap.get(methodName);
+        if (invokers == null) {
+            return null;
+        }
+        for (ServiceInvoker invoker : invokers) {
+            if (matches(invoker, parameterTypes)) {
+                return invoker;
+            }
+        }
+        return null;
+    }
+
+    private static boolean matches(ServiceInvoker invoker, Class<?>[] parameterTypes) {
+        Class<?>[] expected = invoker.getParameterTypes();
+        if (parameterTypes == null) {
+            return expected.length == 0;
+        }
+        return Arrays.equals(expected, parameterTypes);
+    }
+}